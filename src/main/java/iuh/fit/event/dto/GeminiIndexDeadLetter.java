@@ -0,0 +1,23 @@
+package iuh.fit.event.dto;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.time.Instant;
+
+/**
+ * Event index/remove Gemini thất bại vĩnh viễn -> đẩy sang topic product-index-dlt để xử lý tay / replay.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class GeminiIndexDeadLetter {
+    String productId;
+    String action;       // INDEX | REMOVE
+    boolean forceReindex;
+    int attempts;
+    String error;
+    Instant failedAt;
+}
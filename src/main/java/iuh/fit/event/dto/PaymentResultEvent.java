@@ -0,0 +1,18 @@
+package iuh.fit.event.dto;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Kết quả thanh toán (topic payment-result): thành công -> confirm reservation, thất bại -> release
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class PaymentResultEvent {
+    String reservationId;
+    String paymentId;
+    boolean success;
+}
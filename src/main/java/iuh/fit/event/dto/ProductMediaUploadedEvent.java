@@ -0,0 +1,23 @@
+package iuh.fit.event.dto;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.util.List;
+
+/**
+ * Kết quả upload ảnh bất đồng bộ của sản phẩm đang PROCESSING.
+ * urls theo đúng thứ tự file đã gửi lên (index i -> ảnh thứ i).
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class ProductMediaUploadedEvent {
+    String productId;
+    boolean success;
+    List<String> urls;
+    List<String> hashes;  // SHA-256 nội dung ảnh, cùng thứ tự với urls
+    String errorCode;   // tên ErrorCode khi thất bại
+}
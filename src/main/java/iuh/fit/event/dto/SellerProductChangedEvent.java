@@ -0,0 +1,18 @@
+package iuh.fit.event.dto;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Event nội bộ (ApplicationEvent) khi dữ liệu sản phẩm của 1 seller thay đổi.
+ * Dùng để invalidate các cache thống kê theo seller.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class SellerProductChangedEvent {
+    String sellerId;
+    String productId; // null nếu thay đổi hàng loạt theo seller
+}
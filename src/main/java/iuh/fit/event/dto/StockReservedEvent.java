@@ -0,0 +1,20 @@
+package iuh.fit.event.dto;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.time.Instant;
+
+/**
+ * Event nội bộ (ApplicationEvent) khi tạo reservation mới.
+ * Dùng để đưa hạn của reservation vào hàng đợi expire.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class StockReservedEvent {
+    String reservationId;
+    Instant expiresAt;
+}
@@ -0,0 +1,89 @@
+package iuh.fit.se.batch;
+
+import iuh.fit.se.entity.VariantAlert;
+import iuh.fit.se.repository.VariantAlertRepository;
+import iuh.fit.se.service.InventoryAlertService;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Đối soát tập cảnh báo tồn kho (variant_alerts) với dữ liệu sản phẩm.
+ * Luồng ghi kho cập nhật cảnh báo tức thời; job này chỉ sửa các lệch do ghi lỗi / sửa tay DB.
+ *
+ * product:
+ *   inventory:
+ *     alert:
+ *       reconcile-enabled: true
+ *       reconcile-cron: "0 30 3 * * *"
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class InventoryAlertReconcileJob {
+
+    final InventoryAlertService inventoryAlertService;
+    final VariantAlertRepository variantAlertRepository;
+    final MongoTemplate mongoTemplate;
+    final JobLeaseLock jobLeaseLock;
+
+    static final String JOB_NAME = "inventory-alert-reconcile";
+
+    @Value("${product.inventory.alert.reconcile-enabled:true}")
+    boolean enabled;
+
+    /**
+     * Tạo index của variant_alerts; lần đầu deploy (collection rỗng) -> dựng tập cảnh báo ban đầu
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void bootstrap() {
+        ensureIndexes();
+        if (!enabled || variantAlertRepository.count() > 0) {
+            return;
+        }
+        jobLeaseLock.runExclusive(JOB_NAME, lease -> {
+            try {
+                inventoryAlertService.rebuildAll();
+            } catch (Exception e) {
+                log.error("[InventoryAlert] Initial build failed: {}", e.getMessage(), e);
+            }
+        });
+    }
+
+    // Dashboard đọc theo sellerId, dọn sản phẩm xoá theo productId
+    private void ensureIndexes() {
+        try {
+            IndexOperations indexOps = mongoTemplate.indexOps(VariantAlert.class);
+            indexOps.ensureIndex(new Index().on("sellerId", Sort.Direction.ASC).named("sellerId"));
+            indexOps.ensureIndex(new Index().on("productId", Sort.Direction.ASC).named("productId"));
+        } catch (Exception e) {
+            log.error("[InventoryAlert] Ensure indexes failed: {}", e.getMessage(), e);
+        }
+    }
+
+    @Scheduled(cron = "${product.inventory.alert.reconcile-cron:0 30 3 * * *}", zone = "Asia/Ho_Chi_Minh")
+    public void reconcile() {
+        if (!enabled) {
+            log.debug("[InventoryAlert] Reconcile disabled -> skip");
+            return;
+        }
+        jobLeaseLock.runExclusive(JOB_NAME, lease -> {
+            try {
+                inventoryAlertService.rebuildAll();
+            } catch (Exception e) {
+                log.error("[InventoryAlert] Reconcile failed: {}", e.getMessage(), e);
+            }
+        });
+    }
+}
@@ -0,0 +1,199 @@
+package iuh.fit.se.batch;
+
+import iuh.fit.se.entity.JobLock;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Lease lock trên Mongo (job_locks) để mỗi batch job chỉ chạy trên 1 replica.
+ *
+ * - Giành lock: findAndModify upsert, chỉ khớp khi lock đã hết hạn hoặc chính replica này đang giữ.
+ *   Replica khác đang giữ -> upsert trùng _id -> không giành được, bỏ qua lượt chạy.
+ * - Trong lúc chạy, heartbeat gia hạn lockedUntil theo owner + token.
+ *   Gia hạn không khớp (lock đã bị replica khác lấy sau khi hết hạn) -> lease bị đánh dấu mất,
+ *   job kiểm tra {@link Lease#isHeld()} giữa các bước và dừng lại.
+ * - Chạy xong thì nhả lock (lockedUntil = now).
+ *
+ * product:
+ *   job-lock:
+ *     lease-seconds: 60
+ *     heartbeat-seconds: 20
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class JobLeaseLock {
+
+    MongoTemplate mongoTemplate;
+
+    String owner = resolveOwner();
+
+    @NonFinal
+    @Value("${product.job-lock.lease-seconds:60}")
+    long leaseSeconds;
+
+    @NonFinal
+    @Value("${product.job-lock.heartbeat-seconds:20}")
+    long heartbeatSeconds;
+
+    @NonFinal
+    ScheduledExecutorService heartbeatScheduler;
+
+    @PostConstruct
+    void init() {
+        heartbeatScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "job-lock-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        heartbeatScheduler.shutdownNow();
+    }
+
+    /**
+     * Chạy task nếu giành được lock; replica khác đang giữ thì bỏ qua.
+     *
+     * @return true nếu task đã được chạy trên replica này
+     */
+    public boolean runExclusive(String jobName, Consumer<Lease> task) {
+        Lease lease = tryAcquire(jobName);
+        if (lease == null) {
+            log.info("[JobLock] {} is held by another replica -> skip", jobName);
+            return false;
+        }
+
+        log.info("[JobLock] Acquired {} | owner={}, token={}", jobName, owner, lease.token());
+        ScheduledFuture<?> heartbeat = heartbeatScheduler.scheduleAtFixedRate(
+                () -> renew(lease), heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        try {
+            task.accept(lease);
+            return true;
+        } finally {
+            heartbeat.cancel(false);
+            release(lease);
+        }
+    }
+
+    private Lease tryAcquire(String jobName) {
+        Instant now = Instant.now();
+        Query query = new Query(new Criteria().andOperator(
+                Criteria.where("_id").is(jobName),
+                new Criteria().orOperator(
+                        Criteria.where("lockedUntil").lt(now),
+                        Criteria.where("owner").is(owner))));
+        Update update = new Update()
+                .set("owner", owner)
+                .set("lockedUntil", now.plusSeconds(leaseSeconds))
+                .set("acquiredAt", now)
+                .set("heartbeatAt", now)
+                .inc("token", 1);
+
+        try {
+            JobLock lock = mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), JobLock.class);
+            return lock != null ? new Lease(jobName, lock.getToken()) : null;
+        } catch (DuplicateKeyException e) {
+            return null;
+        }
+    }
+
+    private void renew(Lease lease) {
+        if (!lease.isHeld()) {
+            return;
+        }
+        try {
+            Instant now = Instant.now();
+            long matched = mongoTemplate.updateFirst(ownedBy(lease),
+                    new Update().set("lockedUntil", now.plusSeconds(leaseSeconds)).set("heartbeatAt", now),
+                    JobLock.class).getMatchedCount();
+            if (matched == 0) {
+                lease.lost();
+                log.warn("[JobLock] Lost lease {} (token={}) -> job will stop", lease.jobName(), lease.token());
+            }
+        } catch (Exception e) {
+            // Mongo lỗi tạm thời: lease vẫn còn hạn tới lockedUntil, thử lại ở nhịp sau
+            log.warn("[JobLock] Heartbeat {} failed: {}", lease.jobName(), e.getMessage());
+        }
+    }
+
+    private void release(Lease lease) {
+        try {
+            mongoTemplate.updateFirst(ownedBy(lease), new Update().set("lockedUntil", Instant.now()), JobLock.class);
+            log.info("[JobLock] Released {} (token={})", lease.jobName(), lease.token());
+        } catch (Exception e) {
+            log.warn("[JobLock] Release {} failed, lock expires after lease: {}", lease.jobName(), e.getMessage());
+        }
+    }
+
+    private Query ownedBy(Lease lease) {
+        return new Query(Criteria.where("_id").is(lease.jobName())
+                .and("owner").is(owner)
+                .and("token").is(lease.token()));
+    }
+
+    private static String resolveOwner() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    /**
+     * Lease đang giữ. token là fencing token: lần giành lock sau luôn có token lớn hơn.
+     */
+    public static final class Lease {
+        private final String jobName;
+        private final long token;
+        private volatile boolean held = true;
+
+        Lease(String jobName, long token) {
+            this.jobName = jobName;
+            this.token = token;
+        }
+
+        public String jobName() {
+            return jobName;
+        }
+
+        public long token() {
+            return token;
+        }
+
+        public boolean isHeld() {
+            return held;
+        }
+
+        void lost() {
+            held = false;
+        }
+    }
+}
@@ -1,36 +1,86 @@
 package iuh.fit.se.batch;
 
+import iuh.fit.event.dto.ProductRemoveGeminiEvent;
 import iuh.fit.se.dto.request.DeleteRequest;
-import iuh.fit.se.dto.request.RemoveProductImagesRequest;
-import iuh.fit.se.dto.request.RemoveSingleProductRequest;
+import iuh.fit.se.dto.response.FileClientResponse;
+import iuh.fit.se.entity.CleanupCheckpoint;
+import iuh.fit.se.entity.CleanupQuarantine;
+import iuh.fit.se.entity.CleanupRunReport;
 import iuh.fit.se.entity.Product;
+import iuh.fit.se.entity.S3DeleteLedgerEntry;
 import iuh.fit.se.entity.enums.Status;
 import iuh.fit.se.entity.records.Image;
-import iuh.fit.se.repository.ProductRepository;
+import iuh.fit.se.entity.records.OptionMediaGroup;
+import iuh.fit.se.repository.CleanupCheckpointRepository;
+import iuh.fit.se.repository.CleanupQuarantineRepository;
+import iuh.fit.se.repository.CleanupRunReportRepository;
+import iuh.fit.se.repository.GeminiIndexStateRepository;
 import iuh.fit.se.repository.ProductElasticRepository;
+import iuh.fit.se.repository.S3DeleteLedgerRepository;
 import iuh.fit.se.repository.httpclient.FileClient;
-import iuh.fit.se.repository.httpclient.GeminiClient;
 import iuh.fit.se.repository.httpclient.ReviewClient;
+import iuh.fit.se.service.InventoryAlertService;
+import iuh.fit.se.service.impl.ProductIndexConsumer;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
  * Batch job xoá vĩnh viễn các sản phẩm đã DISCONTINUED quá thời gian giữ lại.
  *
+ * Mỗi trang sản phẩm được xử lý theo pipeline:
+ * 1. Fan-out song song các lời gọi độc lập theo từng sản phẩm (review),
+ *    mỗi dependency có executor riêng (số thread = số request đồng thời tới service đó).
+ *    Gỡ Gemini không gọi trực tiếp (quota ~8 request/phút): gửi REMOVE (key = productId) vào
+ *    product-index-request, ProductIndexConsumer xử lý theo rate limit chung và thứ tự của sản phẩm
+ * 2. Gom URL ảnh (images + mediaByOption) của cả trang, xoá S3 theo chunk;
+ *    URL xoá lỗi được ghi vào s3_delete_ledger và thử lại ở đầu lần chạy sau
+ * 3. Xoá Elasticsearch / Mongo theo lô cho cả trang
+ *
+ * Các trang được đọc theo keyset (_id tăng dần) và checkpoint lưu ở cleanup_checkpoints,
+ * lần chạy bị dừng (hết max-run-minutes / restart) sẽ tiếp tục từ _id cuối.
+ * Lỗi downstream (review, gửi Kafka) được tính theo từng sản phẩm: sản phẩm lỗi không bị xoá khỏi ES / Mongo
+ * ở lượt này, sản phẩm xoá lỗi quá quarantine-after-failures lần bị đưa vào cleanup_quarantine và bỏ qua.
+ * Mỗi lần chạy ghi 1 báo cáo vào cleanup_run_reports.
+ * Index {status, _id, deleteAt} (products) và {failures} (cleanup_quarantine) được tạo khi khởi động.
+ * Job chạy dưới lease lock (job_locks) nên nhiều replica không xoá trùng.
+ * Checkpoint chỉ được ghi khi fencing token của lease >= token đã ghi (replica mất lease không ghi đè),
+ * và lease được kiểm tra lại trước mỗi lượt gọi downstream / xoá.
+ *
  * Cấu hình qua application.yml:
  *
  * product:
@@ -40,6 +90,11 @@ import java.util.stream.Collectors;
  *     cron: "0 0 2 * * *"   # 6-field cron cho Spring, 2h sáng hàng ngày
  *     batch-size: 100
  *     delete-images: true
+ *     s3-delete-chunk-size: 200
+ *     s3-ledger-max-attempts: 10
+ *     concurrency:
+ *       review: 4
+ *       file: 4
  *
  * YÊU CẦU: Khi chuyển sang DISCONTINUED phải set deleteAt = Instant.now()
  */
@@ -49,12 +104,24 @@ import java.util.stream.Collectors;
 @FieldDefaults(level = AccessLevel.PRIVATE)
 public class ProductCleanupBatchJob {
 
-    final ProductRepository productRepository;
     final ProductElasticRepository productElasticRepository;
+    final GeminiIndexStateRepository geminiIndexStateRepository;
     final MongoTemplate mongoTemplate;
     final FileClient fileClient;
-    final GeminiClient geminiClient;
     final ReviewClient reviewClient;
+    final InventoryAlertService inventoryAlertService;
+    final ExecutorService cleanupReviewExecutor;
+    final ExecutorService cleanupFileExecutor;
+    final S3DeleteLedgerRepository s3DeleteLedgerRepository;
+    final CleanupCheckpointRepository cleanupCheckpointRepository;
+    final CleanupQuarantineRepository cleanupQuarantineRepository;
+    final CleanupRunReportRepository cleanupRunReportRepository;
+    final JobLeaseLock jobLeaseLock;
+    final KafkaTemplate<String, Object> kafkaTemplate;
+
+    static final String JOB_NAME = "product-cleanup";
+    static final String SCAN_INDEX = "status_id_deleteAt";
+
     // --- Config bind từ application.yml ---
     @Value("${product.cleanup.enabled:true}")
     boolean enabled;
@@ -68,6 +135,39 @@ public class ProductCleanupBatchJob {
     @Value("${product.cleanup.delete-images:true}")
     boolean deleteImages;
 
+    @Value("${product.cleanup.s3-delete-chunk-size:200}")
+    int s3DeleteChunkSize;
+
+    @Value("${product.cleanup.s3-ledger-max-attempts:10}")
+    int s3LedgerMaxAttempts;
+
+    @Value("${product.cleanup.max-run-minutes:120}")
+    long maxRunMinutes;
+
+    @Value("${product.cleanup.quarantine-after-failures:3}")
+    int quarantineAfterFailures;
+
+    /**
+     * Job dọn sản phẩm: status bằng -> sort keyset theo _id -> lọc deleteAt (ESR).
+     * Quarantine: đọc danh sách theo failures >= ngưỡng.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexes() {
+        try {
+            IndexOperations productOps = mongoTemplate.indexOps(Product.class);
+            productOps.ensureIndex(new Index()
+                    .on("status", Sort.Direction.ASC)
+                    .on("_id", Sort.Direction.ASC)
+                    .on("deleteAt", Sort.Direction.ASC)
+                    .named(SCAN_INDEX));
+
+            mongoTemplate.indexOps(CleanupQuarantine.class)
+                    .ensureIndex(new Index().on("failures", Sort.Direction.ASC).named("failures"));
+        } catch (Exception e) {
+            log.error("[ProductCleanup] Ensure indexes failed: {}", e.getMessage(), e);
+        }
+    }
+
     /**
      * Lịch chạy đọc từ product.cleanup.cron
      * Mặc định mỗi 2 phút (test) nếu không set.
@@ -79,85 +179,519 @@ public class ProductCleanupBatchJob {
             log.info("[ProductCleanup] Disabled -> skip");
             return;
         }
+        // Chỉ 1 replica chạy mỗi lượt
+        jobLeaseLock.runExclusive(JOB_NAME, this::runCleanup);
+    }
 
+    private void runCleanup(JobLeaseLock.Lease lease) {
         Instant cutoff = Instant.now().minus(daysBeforeDeletion, ChronoUnit.DAYS);
         log.info("[ProductCleanup] START | cutoff={}, daysBeforeDeletion={}, batchSize={}, deleteImages={}",
                 cutoff, daysBeforeDeletion, batchSize, deleteImages);
 
+        long start = System.currentTimeMillis();
+
+        // URL ảnh xoá lỗi ở các lần chạy trước
+        if (deleteImages) {
+            retryS3Ledger(lease);
+        }
+
+        CleanupCheckpoint checkpoint = cleanupCheckpointRepository.findById(JOB_NAME)
+                .filter(cp -> !cp.isCompleted() && cp.getCutoff() != null)
+                .orElse(null);
+        boolean resumed = checkpoint != null;
+        if (resumed) {
+            // Lần trước dừng giữa chừng -> tiếp tục với cùng cutoff, từ _id cuối đã xử lý
+            cutoff = checkpoint.getCutoff();
+            log.info("[ProductCleanup] Resume from checkpoint | runId={}, lastId={}",
+                    checkpoint.getRunId(), checkpoint.getLastId());
+        } else {
+            checkpoint = CleanupCheckpoint.builder()
+                    .jobName(JOB_NAME)
+                    .runId(UUID.randomUUID().toString())
+                    .cutoff(cutoff)
+                    .startedAt(Instant.now())
+                    .build();
+        }
+        checkpoint.setFencingToken(lease.token());
+
+        Set<String> quarantined = cleanupQuarantineRepository.findByFailuresGreaterThanEqual(quarantineAfterFailures)
+                .stream()
+                .map(CleanupQuarantine::getProductId)
+                .collect(Collectors.toSet());
+        if (!quarantined.isEmpty()) {
+            log.warn("[ProductCleanup] Skip {} quarantined product(s)", quarantined.size());
+        }
+
+        long deadline = start + TimeUnit.MINUTES.toMillis(maxRunMinutes);
+        String lastId = checkpoint.getLastId();
         int totalDeleted = 0;
+        int totalFailed = 0;
+        int scanned = 0;
+        int pages = 0;
+        boolean completed = false;
 
         while (true) {
-            Query q = new Query(new Criteria().andOperator(
-                    Criteria.where("status").is(Status.DISCONTINUED),
-                    Criteria.where("deleteAt").exists(true).lte(cutoff)
-            )).limit(batchSize);
-
-            List<Product> batch = mongoTemplate.find(q, Product.class);
-            if (batch.isEmpty()) break;
-
-            for (Product p : batch) {
-                try {
-                    permanentlyDeleteProduct(p);
-                    totalDeleted++;
-                } catch (Exception ex) {
-                    log.error("[ProductCleanup] Failed to delete product {}: {}", p.getId(), ex.getMessage());
-                }
+            if (!lease.isHeld()) {
+                // Lease đã bị replica khác lấy -> dừng, không ghi checkpoint đè lên replica đó
+                log.warn("[ProductCleanup] Lease lost (token={}) -> stop at {}", lease.token(), lastId);
+                return;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                log.warn("[ProductCleanup] Reached max-run-minutes={} -> stop, resume next run from {}",
+                        maxRunMinutes, lastId);
+                break;
+            }
+
+            List<Product> batch = mongoTemplate.find(pageQuery(cutoff, lastId, quarantined), Product.class);
+            if (batch.isEmpty()) {
+                completed = true;
+                break;
+            }
+
+            long pageStart = System.currentTimeMillis();
+            PageResult result;
+            try {
+                result = processPage(batch, lease);
+            } catch (LeaseLostException e) {
+                log.warn("[ProductCleanup] Lease lost (token={}) during page -> stop at {}", lease.token(), lastId);
+                return;
+            }
+            totalDeleted += result.deleted();
+            totalFailed += result.failed();
+            scanned += batch.size();
+            pages++;
+            lastId = batch.get(batch.size() - 1).getId();
+
+            checkpoint.setLastId(lastId);
+            checkpoint.setUpdatedAt(Instant.now());
+            if (!saveCheckpoint(checkpoint)) {
+                return;
+            }
+
+            long pageMillis = System.currentTimeMillis() - pageStart;
+            log.info("[ProductCleanup] Page {} | deleted={}, failed={} in {}ms ({} products/s)",
+                    pages, result.deleted(), result.failed(), pageMillis, throughput(result.deleted(), pageMillis));
+
+            if (batch.size() < batchSize) {
+                completed = true;
+                break;
             }
+        }
 
-            // nếu lần này lấy < batchSize -> khả năng không còn nữa, thoát
-            if (batch.size() < batchSize) break;
+        if (!lease.isHeld()) {
+            log.warn("[ProductCleanup] Lease lost (token={}) -> skip final checkpoint", lease.token());
+            return;
         }
+        checkpoint.setCompleted(completed);
+        checkpoint.setUpdatedAt(Instant.now());
+        if (!saveCheckpoint(checkpoint)) {
+            // Replica có token mới hơn đã ghi checkpoint -> báo cáo của lần chạy này không còn đúng
+            return;
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        saveRunReport(checkpoint, resumed, completed, start, elapsed, pages, scanned, totalDeleted, totalFailed,
+                (int) cleanupQuarantineRepository.countByFailuresGreaterThanEqual(quarantineAfterFailures));
 
-        log.info("[ProductCleanup] DONE | totalDeleted={}", totalDeleted);
+        log.info("[ProductCleanup] DONE | completed={}, scanned={}, totalDeleted={}, failed={}, pages={}, elapsed={}ms, throughput={} products/s",
+                completed, scanned, totalDeleted, totalFailed, pages, elapsed, throughput(totalDeleted, elapsed));
     }
 
-    private void permanentlyDeleteProduct(Product product) {
-        String id = product.getId();
-        // xoá review trước để thu gom ảnh review (nếu muốn)
+    /**
+     * Ghi checkpoint có điều kiện fencingToken <= token của lease này (upsert theo jobName).
+     * Replica có token lớn hơn đã ghi -> không khớp, upsert trùng _id -> trả về false.
+     */
+    private boolean saveCheckpoint(CleanupCheckpoint checkpoint) {
+        Query query = new Query(new Criteria().andOperator(
+                Criteria.where("_id").is(checkpoint.getJobName()),
+                new Criteria().orOperator(
+                        Criteria.where("fencingToken").lte(checkpoint.getFencingToken()),
+                        Criteria.where("fencingToken").exists(false))));
+        Update update = new Update()
+                .set("runId", checkpoint.getRunId())
+                .set("cutoff", checkpoint.getCutoff())
+                .set("lastId", checkpoint.getLastId())
+                .set("completed", checkpoint.isCompleted())
+                .set("fencingToken", checkpoint.getFencingToken())
+                .set("startedAt", checkpoint.getStartedAt())
+                .set("updatedAt", checkpoint.getUpdatedAt());
         try {
-            reviewClient.deleteByProduct(id); // hoặc reviewClient...
-            log.info("  ✓ Deleted reviews for product {}", id);
+            mongoTemplate.upsert(query, update, CleanupCheckpoint.class);
+            return true;
+        } catch (DuplicateKeyException e) {
+            log.warn("[ProductCleanup] Checkpoint fenced off (token={}), newer lease holder owns it -> stop",
+                    checkpoint.getFencingToken());
+            return false;
+        }
+    }
+
+    /**
+     * Keyset pagination theo _id: mỗi trang chỉ đọc tiếp sau _id cuối của trang trước,
+     * không quét lại các document đã xử lý (kể cả document xoá lỗi).
+     * Dùng index {status, _id, deleteAt}: status bằng, sort theo _id, lọc deleteAt trên index.
+     */
+    private Query pageQuery(Instant cutoff, String lastId, Set<String> quarantined) {
+        List<Criteria> criteria = new ArrayList<>();
+        criteria.add(Criteria.where("status").is(Status.DISCONTINUED));
+        criteria.add(Criteria.where("deleteAt").exists(true).lte(cutoff));
+        if (lastId != null) {
+            criteria.add(Criteria.where("_id").gt(lastId));
+        }
+        if (!quarantined.isEmpty()) {
+            criteria.add(Criteria.where("_id").nin(quarantined));
+        }
+
+        return new Query(new Criteria().andOperator(criteria.toArray(new Criteria[0])))
+                .with(Sort.by(Sort.Direction.ASC, "_id"))
+                .limit(batchSize);
+    }
+
+    /**
+     * Xoá cả trang. Sản phẩm có downstream lỗi được ghi nhận riêng (quarantine sau nhiều lần lỗi);
+     * lỗi cả trang (ES / Mongo) thì xoá lại từng sản phẩm để tìm sản phẩm gây lỗi.
+     */
+    private PageResult processPage(List<Product> batch, JobLeaseLock.Lease lease) {
+        try {
+            Map<String, String> failures = new ConcurrentHashMap<>();
+            int deleted = deletePage(batch, failures, lease);
+            failures.forEach(this::recordQuarantine);
+            clearQuarantine(batch.stream().map(Product::getId).filter(id -> !failures.containsKey(id)).toList());
+            return new PageResult(deleted, failures.size());
+        } catch (LeaseLostException e) {
+            throw e;
         } catch (Exception e) {
-            log.warn("  ⚠ Delete reviews failed for {}: {}", id, e.getMessage());
-        }
-        log.info("[ProductCleanup] Deleting product {} - {}", id, product.getName());
-
-        // 1) Xoá ảnh S3 (tuỳ chọn)
-        if (deleteImages && product.getImages() != null && !product.getImages().isEmpty()) {
-            List<String> urls = product.getImages().stream()
-                    .map(Image::url)
-                    .filter(Objects::nonNull)
-                    .distinct()
-                    .collect(Collectors.toList());
-            if (!urls.isEmpty()) {
-                try {
-                    fileClient.deleteByUrl(DeleteRequest.builder().urls(urls).build());
-                    log.info("  ✓ Deleted {} image(s) from file-service/S3", urls.size());
-                } catch (Exception e) {
-                    log.warn("  ⚠ Delete images failed: {}", e.getMessage());
+            log.warn("[ProductCleanup] Page delete failed ({}), fallback to per-product delete", e.getMessage());
+        }
+
+        int deleted = 0;
+        int failed = 0;
+        List<String> succeeded = new ArrayList<>();
+        for (Product product : batch) {
+            try {
+                Map<String, String> failures = new ConcurrentHashMap<>();
+                deleted += deletePage(List.of(product), failures, lease);
+                if (failures.isEmpty()) {
+                    succeeded.add(product.getId());
+                } else {
+                    failed++;
+                    recordQuarantine(product.getId(), failures.get(product.getId()));
                 }
+            } catch (LeaseLostException e) {
+                clearQuarantine(succeeded);
+                throw e;
+            } catch (Exception e) {
+                failed++;
+                recordQuarantine(product.getId(), e.getMessage());
             }
         }
+        clearQuarantine(succeeded);
+        return new PageResult(deleted, failed);
+    }
+
+    private void recordQuarantine(String productId, String error) {
+        Instant now = Instant.now();
+        CleanupQuarantine entry = cleanupQuarantineRepository.findById(productId)
+                .orElseGet(() -> CleanupQuarantine.builder()
+                        .productId(productId)
+                        .firstFailedAt(now)
+                        .build());
+        entry.setFailures(entry.getFailures() + 1);
+        entry.setLastError(error);
+        entry.setLastFailedAt(now);
+        cleanupQuarantineRepository.save(entry);
+
+        if (entry.getFailures() >= quarantineAfterFailures) {
+            log.error("[ProductCleanup] Product {} quarantined after {} failure(s): {}",
+                    productId, entry.getFailures(), error);
+        } else {
+            log.warn("[ProductCleanup] Delete product {} failed ({}/{}): {}",
+                    productId, entry.getFailures(), quarantineAfterFailures, error);
+        }
+    }
 
-        // 2) Xoá index trên Gemini (idempotent)
+    private void clearQuarantine(List<String> ids) {
+        if (!ids.isEmpty()) {
+            cleanupQuarantineRepository.deleteAllById(ids);
+        }
+    }
+
+    private void saveRunReport(CleanupCheckpoint checkpoint, boolean resumed, boolean completed, long start,
+                               long elapsed, int pages, int scanned, int deleted, int failed, int quarantined) {
         try {
-            geminiClient.removeSingleProduct(RemoveSingleProductRequest.builder().product_id(id).build());
-            geminiClient.removeProductImages(RemoveProductImagesRequest.builder().product_id(id).build());
-            log.info("  ✓ Removed from Gemini index");
+            cleanupRunReportRepository.save(CleanupRunReport.builder()
+                    .runId(checkpoint.getRunId())
+                    .resumed(resumed)
+                    .completed(completed)
+                    .cutoff(checkpoint.getCutoff())
+                    .startedAt(Instant.ofEpochMilli(start))
+                    .finishedAt(Instant.now())
+                    .elapsedMillis(elapsed)
+                    .pages(pages)
+                    .scanned(scanned)
+                    .deleted(deleted)
+                    .failed(failed)
+                    .quarantined(quarantined)
+                    .throughputPerSecond(elapsed > 0 ? deleted * 1000.0 / elapsed : 0.0)
+                    .lastId(checkpoint.getLastId())
+                    .fencingToken(checkpoint.getFencingToken())
+                    .build());
         } catch (Exception e) {
-            log.warn("  ⚠ Remove from Gemini failed: {}", e.getMessage());
+            log.warn("[ProductCleanup] Save run report failed: {}", e.getMessage());
         }
+    }
 
-        // 3) Xoá index Elasticsearch (phòng trường hợp trước đó chưa xoá)
+    /**
+     * Xoá 1 trang sản phẩm: fan-out downstream song song rồi xoá ES/Mongo theo lô.
+     * Sản phẩm có downstream lỗi được ghi vào failures (productId -> lỗi) và giữ lại cho lần chạy sau;
+     * lỗi ES / Mongo ném ra ngoài để processPage tách từng sản phẩm.
+     * Ảnh S3 xoá lỗi không làm sản phẩm lỗi: URL đã nằm trong s3_delete_ledger.
+     */
+    private int deletePage(List<Product> batch, Map<String, String> failures, JobLeaseLock.Lease lease) {
+        requireLease(lease);
+
+        // 1) Downstream độc lập của từng sản phẩm chạy song song
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (Product product : batch) {
+            tasks.add(CompletableFuture.runAsync(
+                    () -> deleteReviews(product.getId(), failures, lease), cleanupReviewExecutor));
+            tasks.add(requestGeminiRemoval(product.getId(), failures, lease));
+        }
+
+        // Ảnh S3 của cả trang được gom lại và xoá theo chunk
+        if (deleteImages) {
+            Map<String, String> urlToProduct = collectImageUrls(batch);
+            tasks.addAll(deleteUrlsInChunks(urlToProduct, lease));
+        }
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).join();
+
+        // Task đã bỏ qua lời gọi khi mất lease -> không xoá ES / Mongo
+        requireLease(lease);
+
+        // Sản phẩm downstream lỗi -> giữ document để lần sau xoá lại review / gửi lại yêu cầu gỡ Gemini
+        List<String> ids = batch.stream()
+                .map(Product::getId)
+                .filter(id -> !failures.containsKey(id))
+                .toList();
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        // 2) Xoá index Elasticsearch theo lô (phòng trường hợp trước đó chưa xoá)
+        productElasticRepository.deleteAllById(ids);
+        log.info("  ✓ Deleted {} Elasticsearch document(s)", ids.size());
+
+        // 3) Xoá dữ liệu phụ (cảnh báo tồn kho, trạng thái index Gemini)
+        inventoryAlertService.removeProducts(ids);
+        geminiIndexStateRepository.deleteAllById(ids);
+
+        // 4) Xoá document Mongo theo lô
+        long removed = mongoTemplate.remove(new Query(Criteria.where("_id").in(ids)), Product.class)
+                .getDeletedCount();
+        log.info("  ✓ Deleted {} product(s) from MongoDB", removed);
+        return (int) removed;
+    }
+
+    private void deleteReviews(String id, Map<String, String> failures, JobLeaseLock.Lease lease) {
+        whileHeld(lease, () -> {
+            try {
+                reviewClient.deleteByProduct(id);
+                log.debug("  ✓ Deleted reviews for product {}", id);
+            } catch (Exception e) {
+                log.warn("  ⚠ Delete reviews failed for {}: {}", id, e.getMessage());
+                failures.merge(id, "reviews: " + e.getMessage(), (a, b) -> a + "; " + b);
+            }
+        });
+    }
+
+    /**
+     * URL ảnh của cả trang: ảnh sản phẩm + ảnh theo option (mediaByOption), bỏ trùng
+     */
+    private Map<String, String> collectImageUrls(List<Product> batch) {
+        Map<String, String> urlToProduct = new LinkedHashMap<>();
+        for (Product product : batch) {
+            if (product.getImages() != null) {
+                product.getImages().stream()
+                        .map(Image::url)
+                        .filter(Objects::nonNull)
+                        .forEach(url -> urlToProduct.putIfAbsent(url, product.getId()));
+            }
+            if (product.getMediaByOption() != null) {
+                product.getMediaByOption().stream()
+                        .map(OptionMediaGroup::image)
+                        .filter(Objects::nonNull)
+                        .forEach(url -> urlToProduct.putIfAbsent(url, product.getId()));
+            }
+        }
+        return urlToProduct;
+    }
+
+    private List<CompletableFuture<Void>> deleteUrlsInChunks(Map<String, String> urlToProduct,
+                                                             JobLeaseLock.Lease lease) {
+        List<String> urls = new ArrayList<>(urlToProduct.keySet());
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i += s3DeleteChunkSize) {
+            List<String> chunk = urls.subList(i, Math.min(i + s3DeleteChunkSize, urls.size()));
+            tasks.add(CompletableFuture.runAsync(() -> {
+                if (!lease.isHeld()) {
+                    return;
+                }
+                Set<String> failed = deleteChunk(chunk, lease);
+                if (!failed.isEmpty()) {
+                    recordFailures(failed, urlToProduct);
+                }
+            }, cleanupFileExecutor));
+        }
+        return tasks;
+    }
+
+    /**
+     * Xoá 1 chunk URL, trả về các URL xoá thất bại.
+     * Hợp đồng của file-service (/s3/delete): lỗi -> HTTP 4xx/5xx (Feign ném exception) hoặc code khác thành công;
+     * 2xx thành công thường không có result -> cả chunk đã xoá. Nếu result có danh sách URL đã xoá
+     * thì URL không có trong đó coi là lỗi.
+     */
+    private Set<String> deleteChunk(List<String> chunk, JobLeaseLock.Lease lease) {
+        // Chưa gọi được file-service (mất lease / bị interrupt) -> cả chunk coi là lỗi
+        Set<String> failed = new HashSet<>(chunk);
+        whileHeld(lease, () -> {
+            try {
+                FileClientResponse response = fileClient.deleteByUrl(DeleteRequest.builder()
+                        .urls(new ArrayList<>(chunk))
+                        .build());
+                if (response != null && !isSuccess(response.getCode())) {
+                    log.warn("  ⚠ Delete {} image(s) rejected: code={}, message={}",
+                            chunk.size(), response.getCode(), response.getMessage());
+                    return;
+                }
+                failed.clear();
+                if (response != null && response.getResult() != null && !response.getResult().isEmpty()) {
+                    Set<String> deleted = new HashSet<>(response.getResult());
+                    chunk.stream().filter(url -> !deleted.contains(url)).forEach(failed::add);
+                }
+                log.info("  ✓ Deleted {}/{} image(s) from file-service/S3", chunk.size() - failed.size(), chunk.size());
+            } catch (Exception e) {
+                log.warn("  ⚠ Delete {} image(s) failed: {}", chunk.size(), e.getMessage());
+                failed.addAll(chunk);
+            }
+        });
+        return failed;
+    }
+
+    // ApiResponse mặc định code = 1000; response không có code (0) coi như thành công theo HTTP 2xx
+    private boolean isSuccess(int code) {
+        return code == 0 || code == 1000;
+    }
+
+    /**
+     * Upsert theo URL với $inc attempts: URL đã có trong ledger (hoặc 2 chunk cùng ghi) không bị reset về 1
+     */
+    private void recordFailures(Set<String> failed, Map<String, String> urlToProduct) {
+        Instant now = Instant.now();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, S3DeleteLedgerEntry.class);
+        for (String url : failed) {
+            bulk.upsert(new Query(Criteria.where("_id").is(url)), new Update()
+                    .inc("attempts", 1)
+                    .set("lastAttemptAt", now)
+                    .set("lastError", "delete failed")
+                    .setOnInsert("productId", urlToProduct.get(url))
+                    .setOnInsert("createdAt", now));
+        }
+        bulk.execute();
+        log.warn("  ⚠ Recorded {} failed image URL(s) to s3_delete_ledger", failed.size());
+    }
+
+    /**
+     * Thử xoá lại các URL trong ledger. Thành công -> bỏ khỏi ledger; lỗi -> tăng attempts.
+     * Quá s3-ledger-max-attempts thì giữ lại để xử lý tay, không thử nữa.
+     */
+    private void retryS3Ledger(JobLeaseLock.Lease lease) {
+        int retried = 0;
+        int recovered = 0;
+        String lastUrl = "";
+
+        while (lease.isHeld()) {
+            List<S3DeleteLedgerEntry> page = s3DeleteLedgerRepository
+                    .findByAttemptsLessThanAndUrlGreaterThanOrderByUrlAsc(
+                            s3LedgerMaxAttempts, lastUrl, PageRequest.of(0, s3DeleteChunkSize));
+            if (page.isEmpty()) break;
+            lastUrl = page.get(page.size() - 1).getUrl();
+
+            List<String> urls = page.stream().map(S3DeleteLedgerEntry::getUrl).toList();
+            Set<String> failed = deleteChunk(urls, lease);
+            if (!lease.isHeld()) {
+                break; // chưa thực sự thử xoá -> không tăng attempts
+            }
+            retried += urls.size();
+
+            List<String> succeeded = urls.stream().filter(url -> !failed.contains(url)).toList();
+            s3DeleteLedgerRepository.deleteAllById(succeeded);
+            recovered += succeeded.size();
+
+            if (!failed.isEmpty()) {
+                Map<String, String> urlToProduct = new HashMap<>();
+                page.stream()
+                        .filter(entry -> failed.contains(entry.getUrl()))
+                        .forEach(entry -> urlToProduct.put(entry.getUrl(), entry.getProductId()));
+                recordFailures(failed, urlToProduct);
+            }
+
+            if (page.size() < s3DeleteChunkSize) break;
+        }
+
+        long abandoned = s3DeleteLedgerRepository.countByAttemptsGreaterThanEqual(s3LedgerMaxAttempts);
+        if (retried > 0 || abandoned > 0) {
+            log.info("[ProductCleanup] S3 ledger | retried={}, recovered={}, exceededMaxAttempts={}",
+                    retried, recovered, abandoned);
+        }
+    }
+
+    /**
+     * Gửi yêu cầu gỡ Gemini vào pipeline Kafka (ProductIndexConsumer gỡ theo rate limit chung).
+     * Chỉ coi là lỗi khi Kafka không nhận event; gỡ thật sự lỗi thì consumer tự retry / DLT.
+     */
+    private CompletableFuture<Void> requestGeminiRemoval(String id, Map<String, String> failures,
+                                                         JobLeaseLock.Lease lease) {
+        if (!lease.isHeld()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> sent;
         try {
-            productElasticRepository.deleteById(id);
-            log.info("  ✓ Deleted Elasticsearch index for product {}", id);
+            sent = kafkaTemplate.send(ProductIndexConsumer.INDEX_TOPIC, id,
+                            ProductRemoveGeminiEvent.builder().productId(id).build())
+                    .thenAccept(result -> log.debug("  ✓ Sent Gemini remove request for {}", id));
         } catch (Exception e) {
-            log.warn("  ⚠ Delete Elasticsearch index failed for {}: {}", id, e.getMessage());
+            sent = CompletableFuture.failedFuture(e);
+        }
+        return sent.exceptionally(e -> {
+            log.warn("  ⚠ Send Gemini remove request failed for {}: {}", id, e.getMessage());
+            failures.merge(id, "gemini: " + e.getMessage(), (a, b) -> a + "; " + b);
+            return null;
+        });
+    }
+
+    /**
+     * Task có thể nằm trong queue lâu -> kiểm tra lease ngay trước khi gọi downstream
+     */
+    private void whileHeld(JobLeaseLock.Lease lease, Runnable action) {
+        if (lease.isHeld()) {
+            action.run();
         }
+    }
+
+    private void requireLease(JobLeaseLock.Lease lease) {
+        if (!lease.isHeld()) {
+            throw new LeaseLostException();
+        }
+    }
+
+    private record PageResult(int deleted, int failed) {
+    }
+
+    // Mất lease giữa trang: dừng job, không tính là lỗi của sản phẩm (không quarantine)
+    private static final class LeaseLostException extends RuntimeException {
+    }
 
-        // 4) Xoá document Mongo
-        productRepository.deleteById(id);
-        log.info("  ✓ Deleted from MongoDB");
+    private String throughput(int count, long millis) {
+        return millis > 0 ? String.format("%.2f", count * 1000.0 / millis) : "-";
     }
 }
@@ -0,0 +1,153 @@
+package iuh.fit.se.batch;
+
+import iuh.fit.se.entity.Product;
+import iuh.fit.se.entity.ProductElastic;
+import iuh.fit.se.mapper.ProductMapper;
+import iuh.fit.se.repository.ProductRepository;
+import iuh.fit.se.service.impl.ImageHashing;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.IndexOperations;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.data.elasticsearch.core.index.AliasAction;
+import org.springframework.data.elasticsearch.core.index.AliasActionParameters;
+import org.springframework.data.elasticsearch.core.index.AliasActions;
+import org.springframework.data.elasticsearch.core.index.AliasData;
+import org.springframework.data.elasticsearch.core.index.Settings;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index sản phẩm trên Elasticsearch có version, đọc / ghi qua alias "products".
+ *
+ * - Tên index thật: products_{hash settings + mapping của ProductElastic}. Đổi analyzer / mapping -> hash đổi,
+ *   không cần ai nhớ tăng version bằng tay.
+ * - Alias đã trỏ đúng index hiện tại -> không làm gì.
+ * - Chưa đúng: tạo index mới, đổ dữ liệu từ MongoDB, rồi đổi alias atomic (1 lệnh _aliases).
+ *   Index đang phục vụ không bị xoá trước khi alias chuyển sang index mới; index cũ chỉ xoá sau khi đổi alias.
+ *   Ghi trong lúc đổ dữ liệu đi vào index cũ -> sau khi đổi alias đồng bộ lại 1 lượt nữa.
+ * - Index "products" kiểu cũ (index thật, không phải alias) được thay bằng alias trong cùng lệnh (remove_index).
+ * - Chạy dưới lease lock: các replica khởi động cùng lúc chỉ 1 replica migrate, còn lại giữ alias hiện có.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class ProductIndexMigrator {
+
+    public static final String ALIAS = "products";
+
+    final ElasticsearchOperations elasticsearchOperations;
+    final ProductRepository productRepository;
+    final ProductMapper productMapper;
+    final JobLeaseLock jobLeaseLock;
+
+    @Value("${product.search.reindex.page-size:500}")
+    int pageSize;
+
+    public void migrate() {
+        jobLeaseLock.runExclusive("product-index-migration", lease -> {
+            IndexOperations entityOps = elasticsearchOperations.indexOps(ProductElastic.class);
+            Settings settings = entityOps.createSettings();
+            Document mapping = entityOps.createMapping();
+            String target = ALIAS + "_" + ImageHashing.sha256(settings.toJson() + mapping.toJson()).substring(0, 12);
+
+            IndexOperations aliasOps = elasticsearchOperations.indexOps(IndexCoordinates.of(ALIAS));
+            Map<String, Set<AliasData>> current = currentTargets(aliasOps);
+            if (current.containsKey(target)) {
+                log.info("[IndexMigration] Alias {} already points to {}", ALIAS, target);
+                return;
+            }
+            // Không có alias nhưng "products" tồn tại -> index kiểu cũ (hoặc ES tự tạo khi ghi trước lúc có alias)
+            boolean legacyIndex = current.isEmpty() && aliasOps.exists();
+
+            IndexOperations targetOps = elasticsearchOperations.indexOps(IndexCoordinates.of(target));
+            if (!targetOps.exists()) {
+                targetOps.create(settings, mapping);
+            }
+            log.info("[IndexMigration] Building {} (current={}, legacy={})", target, current.keySet(), legacyIndex);
+
+            if (!fill(target, lease)) {
+                log.warn("[IndexMigration] Lease lost while building {}, alias unchanged", target);
+                return;
+            }
+
+            List<AliasAction> actions = new ArrayList<>();
+            if (!current.isEmpty()) {
+                actions.add(new AliasAction.Remove(AliasActionParameters.builder()
+                        .withIndices(current.keySet().toArray(new String[0]))
+                        .withAliases(ALIAS)
+                        .build()));
+            }
+            if (legacyIndex) {
+                actions.add(new AliasAction.RemoveIndex(AliasActionParameters.builder()
+                        .withIndices(ALIAS)
+                        .build()));
+            }
+            actions.add(new AliasAction.Add(AliasActionParameters.builder()
+                    .withIndices(target)
+                    .withAliases(ALIAS)
+                    .build()));
+            targetOps.alias(new AliasActions(actions.toArray(new AliasAction[0])));
+            log.info("[IndexMigration] Alias {} -> {}", ALIAS, target);
+
+            // Ghi vào index cũ trong lúc đổ dữ liệu -> đồng bộ lại 1 lượt trên index mới
+            fill(target, lease);
+
+            for (String previous : current.keySet()) {
+                elasticsearchOperations.indexOps(IndexCoordinates.of(previous)).delete();
+                log.info("[IndexMigration] Deleted previous index {}", previous);
+            }
+        });
+    }
+
+    /**
+     * Các index alias đang trỏ tới; alias chưa có (ES trả 404) -> rỗng.
+     * Nếu "products" thực ra là alias mà đọc lỗi, lệnh remove_index ở dưới bị ES từ chối nên không mất index.
+     */
+    private Map<String, Set<AliasData>> currentTargets(IndexOperations aliasOps) {
+        try {
+            return aliasOps.getAliases(ALIAS);
+        } catch (Exception e) {
+            log.debug("[IndexMigration] No alias {}: {}", ALIAS, e.getMessage());
+            return Map.of();
+        }
+    }
+
+    /**
+     * Đổ toàn bộ sản phẩm từ MongoDB sang index chỉ định, theo trang
+     * @return false nếu mất lease giữa chừng
+     */
+    private boolean fill(String index, JobLeaseLock.Lease lease) {
+        IndexCoordinates coordinates = IndexCoordinates.of(index);
+        long synced = 0;
+        for (int page = 0; ; page++) {
+            if (!lease.isHeld()) {
+                return false;
+            }
+            Page<Product> products = productRepository.findAll(PageRequest.of(page, pageSize, Sort.by("id")));
+            if (!products.hasContent()) {
+                break;
+            }
+            List<ProductElastic> documents = products.getContent().stream()
+                    .map(productMapper::toProductElastic)
+                    .toList();
+            elasticsearchOperations.save(documents, coordinates);
+            synced += documents.size();
+        }
+        log.info("[IndexMigration] Synced {} product(s) into {}", synced, index);
+        return true;
+    }
+}
@@ -0,0 +1,77 @@
+package iuh.fit.se.batch;
+
+import iuh.fit.se.entity.Product;
+import iuh.fit.se.entity.enums.Status;
+import iuh.fit.se.service.impl.ProductMediaUploadPipeline;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Dọn phần upload ảnh bất đồng bộ bị bỏ dở:
+ * - File spool mồ côi trên đĩa local (mỗi replica tự dọn thư mục của mình)
+ * - Sản phẩm kẹt PROCESSING quá processing-timeout-minutes (replica upload chết / event mất):
+ *   phát event upload thất bại, finalizeProductMedia đánh dấu lỗi như khi upload lỗi.
+ *   Chạy dưới lease lock để chỉ 1 replica quét.
+ *
+ * product:
+ *   media:
+ *     processing-timeout-minutes: 30
+ *     sweep-interval-ms: 300000
+ *     sweep-batch-size: 200
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class ProductMediaSweepJob {
+
+    final MongoTemplate mongoTemplate;
+    final ProductMediaUploadPipeline productMediaUploadPipeline;
+    final JobLeaseLock jobLeaseLock;
+
+    @Value("${product.media.processing-timeout-minutes:30}")
+    long processingTimeoutMinutes;
+
+    @Value("${product.media.sweep-batch-size:200}")
+    int sweepBatchSize;
+
+    @Scheduled(fixedDelayString = "${product.media.sweep-interval-ms:300000}")
+    public void sweep() {
+        Duration timeout = Duration.ofMinutes(processingTimeoutMinutes);
+
+        int files = productMediaUploadPipeline.sweepSpool(timeout);
+        if (files > 0) {
+            log.warn("[MediaSweep] Deleted {} orphaned spool file(s)", files);
+        }
+
+        jobLeaseLock.runExclusive("product-media-sweep", lease -> failStaleProcessing(timeout));
+    }
+
+    private void failStaleProcessing(Duration timeout) {
+        Query query = new Query(Criteria.where("status").is(Status.PROCESSING)
+                .and("updatedAt").lt(Instant.now().minus(timeout)))
+                .limit(sweepBatchSize);
+        query.fields().include("_id");
+
+        List<Product> stale = mongoTemplate.find(query, Product.class);
+        for (Product product : stale) {
+            productMediaUploadPipeline.publishUploadTimeout(product.getId());
+        }
+        if (!stale.isEmpty()) {
+            log.warn("[MediaSweep] {} product(s) stuck in PROCESSING over {} min -> marked as upload timeout",
+                    stale.size(), processingTimeoutMinutes);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package iuh.fit.se.batch;
+
+import iuh.fit.se.entity.StockReservation;
+import iuh.fit.se.entity.StockReservationArchive;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.Fields;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Lưu trữ reservation đã kết thúc (CONFIRMED / RELEASED / EXPIRED) để stock_reservations chỉ còn tập đang dùng.
+ *
+ * Khi khởi động:
+ * - Tạo index {userId, status, createdAt} (tra reservation đang mở của user)
+ * - Tạo partial index {expiresAt} chỉ cho status = PENDING (query expire / sweeper)
+ * - Bổ sung terminalAt cho các reservation cũ đã kết thúc (lấy theo createdAt)
+ * - mode = ttl: tạo TTL index trên terminalAt, Mongo tự xoá sau retention-days
+ *
+ * mode = archive: job định kỳ chuyển theo lô sang stock_reservations_archive (field rút gọn) rồi xoá bản gốc.
+ * Reservation chưa hoàn kho xong (stockRestored = false) không bị xoá / chuyển.
+ *
+ * stock:
+ *   reservation:
+ *     archive:
+ *       mode: ttl            # ttl | archive | none
+ *       retention-days: 30
+ *       batch-size: 500
+ *       cron: "0 0 4 * * *"
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class StockReservationArchiveJob {
+
+    static final String JOB_NAME = "stock-reservation-archive";
+    static final String PENDING_INDEX = "pending_expiresAt";
+    static final String USER_STATUS_INDEX = "userId_status_createdAt";
+    static final String TTL_INDEX = "terminalAt_ttl";
+
+    final MongoTemplate mongoTemplate;
+    final JobLeaseLock jobLeaseLock;
+
+    @Value("${stock.reservation.archive.mode:ttl}")
+    String mode;
+
+    @Value("${stock.reservation.archive.retention-days:30}")
+    int retentionDays;
+
+    @Value("${stock.reservation.archive.batch-size:500}")
+    int batchSize;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexes() {
+        try {
+            IndexOperations indexOps = mongoTemplate.indexOps(StockReservation.class);
+            // userId bằng, status bằng, mới nhất trước
+            indexOps.ensureIndex(new Index()
+                    .on("userId", Sort.Direction.ASC)
+                    .on("status", Sort.Direction.ASC)
+                    .on("createdAt", Sort.Direction.DESC)
+                    .named(USER_STATUS_INDEX));
+            indexOps.ensureIndex(new Index()
+                    .on("expiresAt", Sort.Direction.ASC)
+                    .named(PENDING_INDEX)
+                    .partial(PartialIndexFilter.of(
+                            Criteria.where("status").is(StockReservation.Status.PENDING.name()))));
+
+            backfillTerminalAt();
+
+            if ("ttl".equalsIgnoreCase(mode)) {
+                ensureTtlIndex(indexOps);
+            } else {
+                dropIndexIfExists(indexOps, TTL_INDEX);
+            }
+        } catch (Exception e) {
+            log.error("[ReservationArchive] Ensure indexes failed: {}", e.getMessage(), e);
+        }
+    }
+
+    @Scheduled(cron = "${stock.reservation.archive.cron:0 0 4 * * *}", zone = "Asia/Ho_Chi_Minh")
+    public void archive() {
+        if (!"archive".equalsIgnoreCase(mode)) {
+            return;
+        }
+        jobLeaseLock.runExclusive(JOB_NAME, lease -> {
+            Instant cutoff = Instant.now().minus(retentionDays, ChronoUnit.DAYS);
+            int total = 0;
+            while (lease.isHeld()) {
+                Query query = new Query(archivableBefore(cutoff))
+                        .with(Sort.by(Sort.Direction.ASC, "_id"))
+                        .limit(batchSize);
+                List<StockReservation> batch = mongoTemplate.find(query, StockReservation.class);
+                if (batch.isEmpty()) break;
+
+                // Ghi bản archive trước rồi mới xoá: chạy lại sau lỗi chỉ ghi đè cùng _id
+                List<StockReservationArchive> archived = batch.stream().map(this::toArchive).toList();
+                archived.forEach(mongoTemplate::save);
+
+                List<String> ids = batch.stream().map(StockReservation::getId).toList();
+                mongoTemplate.remove(new Query(Criteria.where("_id").in(ids)), StockReservation.class);
+                total += ids.size();
+
+                if (batch.size() < batchSize) break;
+            }
+            log.info("[ReservationArchive] Archived {} reservation(s) older than {}", total, cutoff);
+        });
+    }
+
+    private Criteria archivableBefore(Instant cutoff) {
+        return Criteria.where("status").in(StockReservation.Status.CONFIRMED,
+                        StockReservation.Status.RELEASED, StockReservation.Status.EXPIRED)
+                .and("terminalAt").lt(cutoff)
+                .and("stockRestored").ne(false);
+    }
+
+    private void ensureTtlIndex(IndexOperations indexOps) {
+        Duration ttl = Duration.ofDays(retentionDays);
+        IndexInfo existing = findIndex(indexOps, TTL_INDEX);
+        if (existing != null && !existing.getExpireAfter().map(ttl::equals).orElse(false)) {
+            // Đổi retention-days -> tạo lại TTL index
+            indexOps.dropIndex(TTL_INDEX);
+        }
+        // Chỉ reservation đã kết thúc có terminalAt -> PENDING không bao giờ bị TTL xoá
+        indexOps.ensureIndex(new Index()
+                .on("terminalAt", Sort.Direction.ASC)
+                .named(TTL_INDEX)
+                .expire(ttl));
+        log.info("[ReservationArchive] TTL index on terminalAt: {} day(s)", retentionDays);
+    }
+
+    private void backfillTerminalAt() {
+        long updated = mongoTemplate.updateMulti(
+                new Query(Criteria.where("status").in(StockReservation.Status.CONFIRMED,
+                                StockReservation.Status.RELEASED, StockReservation.Status.EXPIRED)
+                        .and("terminalAt").exists(false)),
+                AggregationUpdate.update().set("terminalAt").toValueOf(Fields.field("createdAt")),
+                StockReservation.class).getModifiedCount();
+        if (updated > 0) {
+            log.info("[ReservationArchive] Backfilled terminalAt for {} reservation(s)", updated);
+        }
+    }
+
+    private void dropIndexIfExists(IndexOperations indexOps, String name) {
+        if (findIndex(indexOps, name) != null) {
+            indexOps.dropIndex(name);
+            log.info("[ReservationArchive] Dropped index {} (mode={})", name, mode);
+        }
+    }
+
+    private IndexInfo findIndex(IndexOperations indexOps, String name) {
+        return indexOps.getIndexInfo().stream()
+                .filter(index -> Objects.equals(index.getName(), name))
+                .findFirst()
+                .orElse(null);
+    }
+
+    private StockReservationArchive toArchive(StockReservation reservation) {
+        return StockReservationArchive.builder()
+                .id(reservation.getId())
+                .userId(reservation.getUserId())
+                .status(reservation.getStatus())
+                .createdAt(reservation.getCreatedAt())
+                .terminalAt(reservation.getTerminalAt())
+                .items(reservation.getItems().stream()
+                        .map(item -> StockReservationArchive.Item.builder()
+                                .productId(item.getProductId())
+                                .options(item.getOptions())
+                                .qty(item.getQty())
+                                .build())
+                        .toList())
+                .build();
+    }
+}
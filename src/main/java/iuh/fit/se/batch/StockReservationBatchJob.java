@@ -10,8 +10,8 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 /**
- * Batch job để tự động expire các reservation đã hết hạn
- * Chạy mỗi 5 phút để kiểm tra
+ * Batch job để tự động expire các reservation đã hết hạn.
+ * Expire đúng hạn do ReservationExpiryScheduler đảm nhận; job này chỉ là lưới an toàn, chạy thưa.
  */
 @Component
 @Slf4j
@@ -20,27 +20,31 @@ import org.springframework.stereotype.Component;
 public class StockReservationBatchJob {
 
     final StockReservationService reservationService;
+    final JobLeaseLock jobLeaseLock;
 
     @Value("${stock.reservation.cleanup.enabled:true}")
     boolean enabled;
 
     /**
-     * Chạy mỗi 5 phút để expire các reservation hết hạn
-     * Cron: "0 *5 * * * *" = phút 0 của mỗi 5 phút */
-    @Scheduled(cron = "${stock.reservation.cleanup.cron:0 */5 * * * *}")
+     * Quét các reservation quá hạn mà hàng đợi chưa xử lý
+     * Cron: "0 *15 * * * *" = phút 0 của mỗi 15 phút */
+    @Scheduled(cron = "${stock.reservation.cleanup.cron:0 */15 * * * *}")
     public void expireReservations() {
         if (!enabled) {
             log.debug("[StockReservation] Cleanup disabled -> skip");
             return;
         }
 
-        log.info("[StockReservation] Starting cleanup of expired reservations...");
+        // Chỉ 1 replica expire mỗi lượt, tránh hoàn kho trùng
+        jobLeaseLock.runExclusive("stock-reservation-expiry", lease -> {
+            log.info("[StockReservation] Starting cleanup of expired reservations...");
 
-        try {
-            reservationService.expireReservations();
-            log.info("[StockReservation] Cleanup completed successfully");
-        } catch (Exception e) {
-            log.error("[StockReservation] Cleanup failed: {}", e.getMessage(), e);
-        }
+            try {
+                reservationService.expireReservations();
+                log.info("[StockReservation] Cleanup completed successfully");
+            } catch (Exception e) {
+                log.error("[StockReservation] Cleanup failed: {}", e.getMessage(), e);
+            }
+        });
     }
 }
\ No newline at end of file
@@ -1,18 +1,109 @@
 // File mới: src/main/java/iuh/fit/se/configuration/AsyncConfig.java
 package iuh.fit.se.configuration;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 public class AsyncConfig {
 
+    /**
+     * Executor gọi Gemini. Queue có giới hạn: khi gần đầy ProductIndexConsumer tạm dừng Kafka listener
+     * (backpressure) thay vì dồn task trong heap.
+     */
     @Bean(name = "geminiExecutor")
-    public ExecutorService geminiExecutor() {
-        // Dùng 5 threads như cũ
-        return Executors.newFixedThreadPool(5);
+    public ExecutorService geminiExecutor(
+            @Value("${product.gemini.thread-pool-size:5}") int threads,
+            @Value("${product.gemini.queue-capacity:200}") int queueCapacity) {
+        return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new ThreadPoolExecutor.AbortPolicy());
     }
-}
\ No newline at end of file
+
+    /**
+     * Executor để refresh cache thống kê ở background (stale-while-revalidate).
+     * Queue có giới hạn: khi đầy thì bỏ qua refresh và tiếp tục trả bản cũ.
+     */
+    @Bean(name = "statisticsExecutor")
+    public ExecutorService statisticsExecutor(
+            @Value("${product.statistics.cache.refresh-threads:2}") int threads,
+            @Value("${product.statistics.cache.refresh-queue-size:100}") int queueSize) {
+        return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * ForkJoinPool riêng cho thống kê toàn sàn: mỗi shard (danh mục) được tổng hợp song song rồi merge.
+     */
+    @Bean(name = "adminStatisticsPool", destroyMethod = "shutdown")
+    public ForkJoinPool adminStatisticsPool(
+            @Value("${product.statistics.admin.parallelism:4}") int parallelism) {
+        return new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Executor gọi user-service khi resolve seller (giới hạn số request song song).
+     */
+    @Bean(name = "sellerLookupExecutor")
+    public ExecutorService sellerLookupExecutor(
+            @Value("${product.seller-resolver.max-concurrency:4}") int threads) {
+        return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1000),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Executor upload ảnh sản phẩm lên file-service (mỗi ảnh 1 task, giới hạn số upload song song).
+     * Queue đầy -> từ chối, sản phẩm được đánh dấu upload thất bại (không chặn request thread).
+     */
+    @Bean(name = "mediaUploadExecutor")
+    public ExecutorService mediaUploadExecutor(
+            @Value("${product.media.upload-threads:4}") int threads,
+            @Value("${product.media.upload-queue-size:200}") int queueSize) {
+        return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Executor fan-out của job dọn sản phẩm, mỗi dependency 1 pool riêng (số thread = số request đồng thời
+     * tới service đó) -> review chậm không giữ thread của file-service và ngược lại.
+     * Queue đầy -> thread của job tự chạy task, tự điều tiết tốc độ.
+     */
+    @Bean(name = "cleanupReviewExecutor", destroyMethod = "shutdown")
+    public ExecutorService cleanupReviewExecutor(
+            @Value("${product.cleanup.concurrency.review:4}") int threads) {
+        return cleanupPool(threads);
+    }
+
+    @Bean(name = "cleanupFileExecutor", destroyMethod = "shutdown")
+    public ExecutorService cleanupFileExecutor(
+            @Value("${product.cleanup.concurrency.file:4}") int threads) {
+        return cleanupPool(threads);
+    }
+
+    private ExecutorService cleanupPool(int threads) {
+        return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1000),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Executor refresh cache gợi ý (stale-while-revalidate). Queue đầy -> tiếp tục trả gợi ý cũ.
+     */
+    @Bean(name = "suggestExecutor")
+    public ExecutorService suggestExecutor(
+            @Value("${product.suggest.cache.refresh-threads:2}") int threads) {
+        return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(200),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+}
@@ -31,7 +31,7 @@ public class FeignConfig {
 
     /**
      * Custom ErrorDecoder để xử lý rate limit errors
-     * - HTTP 429 (Too Many Requests) → RetryableException
+     * - HTTP 429 (Too Many Requests) → RetryableException (trừ GeminiClient - do GeminiRateLimiter xử lý)
      * - HTTP 503 (Service Unavailable) → RetryableException
      * - Các lỗi khác → Exception thông thường
      */
@@ -40,6 +40,12 @@ public class FeignConfig {
         return (methodKey, response) -> {
             int status = response.status();
 
+            // GeminiClient: 429 do GeminiRateLimiter xử lý (AIMD + Retry-After), không retry ở tầng Feign
+            if (status == 429 && methodKey.startsWith("GeminiClient#")) {
+                log.warn("Rate limit exceeded (429) for {}, delegate to rate limiter", methodKey);
+                return FeignException.errorStatus(methodKey, response);
+            }
+
             // Rate limit exceeded - retry sau 10 giây
             if (status == 429) {
                 log.warn("Rate limit exceeded (429) for {}, will retry with backoff", methodKey);
@@ -0,0 +1,53 @@
+package iuh.fit.se.configuration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.kafka.ConcurrentKafkaListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.util.backoff.FixedBackOff;
+
+@Configuration
+public class KafkaConsumerConfig {
+
+    /**
+     * Container cho ProductIndexConsumer: commit offset thủ công sau khi task Gemini xong.
+     * asyncAcks cho phép ack không theo thứ tự (task chạy song song), offset chỉ commit khi không còn khoảng trống.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> geminiIndexListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ConsumerFactory<Object, Object> kafkaConsumerFactory) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, kafkaConsumerFactory);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setAsyncAcks(true);
+        return factory;
+    }
+
+    /**
+     * Container nhận cả lô record mỗi lần poll (payment-result): confirm / release theo lô thay vì từng cái.
+     * Listener lỗi -> thử lại cả lô (confirm / release chỉ tác động reservation còn PENDING nên lặp lại an toàn),
+     * hết số lần thử -> đẩy từng record sang payment-result.DLT, không commit offset khi chưa ghi được DLT.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> paymentResultListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ConsumerFactory<Object, Object> kafkaConsumerFactory,
+            KafkaTemplate<String, Object> kafkaTemplate,
+            @Value("${stock.reservation.payment-result.retry-interval-ms:2000}") long retryIntervalMs,
+            @Value("${stock.reservation.payment-result.max-retries:5}") long maxRetries) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, kafkaConsumerFactory);
+        factory.setBatchListener(true);
+        factory.setCommonErrorHandler(new DefaultErrorHandler(
+                new DeadLetterPublishingRecoverer(kafkaTemplate),
+                new FixedBackOff(retryIntervalMs, maxRetries)));
+        return factory;
+    }
+}
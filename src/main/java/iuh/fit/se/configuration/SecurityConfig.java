@@ -28,8 +28,8 @@ import java.util.stream.Collectors;
 public class SecurityConfig {
     private final String[] PUBLIC_ENDPOINTS = {
             "/getProducts","/searchByProduct/**","/searchBySeller/**","/searchBySizeAndID",
-            "/categories","/searchByCategory/**","/suggest","/search",
-            "/getBestSellingProducts"
+            "/categories","/searchByCategory/**","/suggest","/search","/search/advanced",
+            "/getBestSellingProducts","/deals"
     };
 
     private CustomJwtDecoder customJwtDecoder;
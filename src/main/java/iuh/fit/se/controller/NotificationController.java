@@ -2,8 +2,12 @@ package iuh.fit.se.controller;
 
 import iuh.fit.event.dto.OrderCreatedEvent;
 import iuh.fit.event.dto.OrderStatusChangedEvent;
+import iuh.fit.event.dto.PaymentResultEvent;
 import iuh.fit.event.dto.ProductInvalid;
+import iuh.fit.event.dto.ProductMediaUploadedEvent;
+import iuh.fit.se.dto.response.ReservationBatchResponse;
 import iuh.fit.se.service.ProductService;
+import iuh.fit.se.service.StockReservationService;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
@@ -11,12 +15,16 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.List;
+import java.util.Objects;
+
 @RestController
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @Slf4j
 @RequiredArgsConstructor
 public class NotificationController {
     ProductService productService;
+    StockReservationService reservationService;
 
     @KafkaListener(topics = "create-order")
     public void handleOrderCreatedEvent(OrderCreatedEvent event) {
@@ -64,4 +72,43 @@ public class NotificationController {
         }
     }
 
+    @KafkaListener(topics = "product-media-uploaded", groupId = "product-service-group")
+    public void handleProductMediaUploadedEvent(ProductMediaUploadedEvent event) {
+        log.info("Nhận được sự kiện product-media-uploaded cho productId: {}, success: {}",
+                event.getProductId(), event.isSuccess());
+        try {
+            productService.finalizeProductMedia(event);
+        } catch (Exception e) {
+            log.error("Lỗi khi hoàn tất ảnh cho sản phẩm {}: {}", event.getProductId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Kết quả thanh toán đến dồn dập -> gom cả lô record của 1 lần poll, confirm / release theo lô
+     */
+    @KafkaListener(topics = "payment-result", groupId = "product-service-group",
+            containerFactory = "paymentResultListenerContainerFactory")
+    public void handlePaymentResultEvents(List<PaymentResultEvent> events) {
+        log.info("Nhận được {} sự kiện payment-result", events.size());
+
+        List<String> confirmIds = events.stream()
+                .filter(PaymentResultEvent::isSuccess)
+                .map(PaymentResultEvent::getReservationId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        List<String> releaseIds = events.stream()
+                .filter(event -> !event.isSuccess())
+                .map(PaymentResultEvent::getReservationId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+
+        // Không bắt lỗi: để error handler của container thử lại / đẩy DLT, tránh commit offset khi chưa xử lý xong
+        // (nuốt lỗi -> reservation đã thanh toán bị expire và hoàn kho dù hàng đã bán)
+        ReservationBatchResponse confirmed = reservationService.confirmReservations(confirmIds);
+        ReservationBatchResponse released = reservationService.releaseReservations(releaseIds);
+        log.info("Đã xử lý payment-result: confirmed={}/{}, released={}/{}",
+                confirmed.getSucceeded(), confirmIds.size(), released.getSucceeded(), releaseIds.size());
+    }
 }
@@ -4,13 +4,22 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import iuh.fit.event.dto.ProductInvalid;
 import iuh.fit.se.dto.request.ProductRequest;
+import iuh.fit.se.dto.request.ProductSearchRequest;
+import iuh.fit.se.dto.request.VariantPriceUpdateRequest;
 import iuh.fit.se.dto.request.ProductUpdateRequest;
 import iuh.fit.se.dto.request.SearchSizeAndIDRequest;
 import iuh.fit.se.dto.response.ApiResponse;
+import iuh.fit.se.dto.response.GeminiRateLimiterMetrics;
 import iuh.fit.se.dto.response.OrderItemProductResponse;
 import iuh.fit.se.dto.response.ProductResponse;
+import iuh.fit.se.dto.response.ProductSearchResponse;
 import iuh.fit.se.entity.enums.Status;
+import iuh.fit.se.exception.AppException;
+import iuh.fit.se.exception.ErrorCode;
+import iuh.fit.se.service.ProductSearchService;
 import iuh.fit.se.service.ProductService;
+import iuh.fit.se.service.impl.GeminiRateLimiter;
+import iuh.fit.se.service.impl.ProductIndexConsumer;
 import jakarta.validation.Valid;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
@@ -18,19 +27,28 @@ import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.MediaType;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 
 @RestController
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @Slf4j
 @RequiredArgsConstructor
 public class ProductController {
+    // Quyền được lọc sản phẩm không AVAILABLE trong /search/advanced
+    private static final Set<String> NON_PUBLIC_STATUS_AUTHORITIES = Set.of("ROLE_ADMIN", "UPDATE_PRODUCT");
+
     ProductService productService;
+    ProductSearchService productSearchService;
     ObjectMapper objectMapper;
+    GeminiRateLimiter geminiRateLimiter;
+    ProductIndexConsumer productIndexConsumer;
 
     @GetMapping("/searchByProduct/{productId}")
     public ApiResponse<ProductResponse> searchById(@PathVariable("productId") String productId){
@@ -111,13 +129,26 @@ public class ProductController {
                 .result(productService.updateProduct(req, files))
                 .build();
     }
+    @PostMapping("/update/prices")
+    @PreAuthorize("hasAuthority('UPDATE_PRODUCT')")
+    public ApiResponse<ProductResponse> updateVariantPrices(@Valid @RequestBody VariantPriceUpdateRequest request) {
+        log.info("Updating variant prices of product {}", request.getProductId());
+        return ApiResponse.<ProductResponse>builder()
+                .code(200)
+                .message("Product prices updated successfully")
+                .result(productService.updateVariantPrices(request))
+                .build();
+    }
+
     @GetMapping("/suggest")
-    public ApiResponse<List<String>> suggestProducts(@RequestParam("prefix") String prefix) throws IOException {
-        log.info("Fetching product suggestions for prefix: {}", prefix);
+    public ApiResponse<List<String>> suggestProducts(
+            @RequestParam("prefix") String prefix,
+            @RequestParam(value = "categoryId", required = false) String categoryId) {
+        log.debug("Fetching product suggestions for prefix: {}, categoryId: {}", prefix, categoryId);
         return ApiResponse.<List<String>>builder()
                 .code(200)
                 .message("Product suggestions fetched successfully")
-                .result(productService.suggestProducts(prefix))
+                .result(productService.suggestProducts(prefix, categoryId))
                 .build();
     }
 
@@ -140,6 +171,38 @@ public class ProductController {
                 .result(productService.searchProducts(query))
                 .build();
     }
+
+    /**
+     * Tìm kiếm có lọc (danh mục, người bán, trạng thái, khoảng giá, option), sắp xếp, phân trang và facet.
+     * Endpoint public chỉ thấy sản phẩm AVAILABLE; lọc trạng thái khác cần quyền ADMIN hoặc UPDATE_PRODUCT.
+     */
+    @GetMapping("/search/advanced")
+    public ApiResponse<ProductSearchResponse> advancedSearch(@ModelAttribute ProductSearchRequest request) {
+        requireStatusAccess(request.getStatus());
+        log.info("Advanced search: q={}, categoryId={}, options={}, sort={}, page={}",
+                request.getQ(), request.getCategoryId(), request.getOptions(), request.getSort(), request.getPage());
+        return ApiResponse.<ProductSearchResponse>builder()
+                .code(200)
+                .message("Products found for search query")
+                .result(productSearchService.search(request))
+                .build();
+    }
+    /**
+     * Sản phẩm giảm giá nhiều nhất (sắp theo % giảm), phân trang
+     */
+    @GetMapping("/deals")
+    public ApiResponse<ProductSearchResponse> deals(
+            @RequestParam(value = "categoryId", required = false) String categoryId,
+            @RequestParam(value = "minDiscount", required = false) Double minDiscount,
+            @RequestParam(value = "page", defaultValue = "0") Integer page,
+            @RequestParam(value = "size", defaultValue = "20") Integer size) {
+        return ApiResponse.<ProductSearchResponse>builder()
+                .code(200)
+                .message("Deals fetched successfully")
+                .result(productSearchService.deals(categoryId, minDiscount, page, size))
+                .build();
+    }
+
     @PostMapping("/deleteProducts")
     @PreAuthorize("hasAuthority('DELETE_PRODUCT')")
     public ApiResponse<ProductResponse> deleteProducts(
@@ -330,4 +393,35 @@ public class ProductController {
                 .build();
     }
 
-}
\ No newline at end of file
+    /**
+     * Trạng thái rate limiter của Gemini (tốc độ hiện tại, hàng đợi, thời gian chờ token)
+     */
+    @GetMapping("/gemini/metrics")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ApiResponse<GeminiRateLimiterMetrics> getGeminiMetrics() {
+        GeminiRateLimiterMetrics metrics = geminiRateLimiter.metrics();
+        metrics.setCoalesced(productIndexConsumer.getCoalescedCount());
+        metrics.setSkippedUnchanged(productIndexConsumer.getSkippedUnchangedCount());
+        metrics.setPendingIntents(productIndexConsumer.getPendingCount());
+        metrics.setListenersPaused(productIndexConsumer.isPaused());
+        return ApiResponse.<GeminiRateLimiterMetrics>builder()
+                .code(200)
+                .message("Gemini rate limiter metrics")
+                .result(metrics)
+                .build();
+    }
+
+    private void requireStatusAccess(List<String> statuses) {
+        if (statuses == null || statuses.stream().allMatch(Status.AVAILABLE.name()::equalsIgnoreCase)) {
+            return;
+        }
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        boolean allowed = authentication != null && authentication.isAuthenticated()
+                && authentication.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority)
+                .anyMatch(NON_PUBLIC_STATUS_AUTHORITIES::contains);
+        if (!allowed) {
+            throw new AppException(ErrorCode.UNAUTHORIZED);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package iuh.fit.se.controller;
 
 import iuh.fit.se.dto.response.ApiResponse;
+import iuh.fit.se.dto.response.CacheMetrics;
+import iuh.fit.se.dto.response.PlatformStatistics;
 import iuh.fit.se.dto.response.SellerProductStatistics;
 import iuh.fit.se.service.ProductStatisticsService;
 import lombok.AccessLevel;
@@ -10,6 +12,8 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 @RestController
 @RequestMapping("/statistics")
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
@@ -63,4 +67,37 @@ public class ProductStatisticsController {
                 .result(productStatisticsService.getSellerStatistics(sellerId, lowStockThreshold, slowMovingDays))
                 .build();
     }
+
+    /**
+     * Thống kê toàn sàn cho admin: số lượng theo trạng thái, doanh thu theo danh mục,
+     * tồn kho thấp trên tất cả seller và hàng đợi chờ duyệt
+     *
+     * @param lowStockThreshold Ngưỡng cảnh báo tồn kho thấp (mặc định: 10)
+     */
+    @GetMapping("/platform")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ApiResponse<PlatformStatistics> getPlatformStatistics(
+            @RequestParam(value = "lowStockThreshold", defaultValue = "10") Integer lowStockThreshold
+    ) {
+        log.info("Fetching platform statistics, lowStockThreshold={}", lowStockThreshold);
+
+        return ApiResponse.<PlatformStatistics>builder()
+                .code(200)
+                .message("Statistics fetched successfully")
+                .result(productStatisticsService.getPlatformStatistics(lowStockThreshold))
+                .build();
+    }
+
+    /**
+     * Số liệu cache thống kê (hit ratio, stale hit, refresh...)
+     */
+    @GetMapping("/cache-metrics")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ApiResponse<List<CacheMetrics>> getCacheMetrics() {
+        return ApiResponse.<List<CacheMetrics>>builder()
+                .code(200)
+                .message("Cache metrics fetched successfully")
+                .result(productStatisticsService.getCacheMetrics())
+                .build();
+    }
 }
\ No newline at end of file
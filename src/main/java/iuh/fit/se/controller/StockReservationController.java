@@ -1,6 +1,8 @@
 package iuh.fit.se.controller;
 
+import iuh.fit.se.dto.request.ReservationBatchRequest;
 import iuh.fit.se.dto.request.ReserveStockRequest;
+import iuh.fit.se.dto.response.ReservationBatchResponse;
 import iuh.fit.se.dto.response.ApiResponse;
 import iuh.fit.se.entity.StockReservation;
 import iuh.fit.se.service.StockReservationService;
@@ -39,6 +41,72 @@ public class StockReservationController {
                 .build();
     }
 
+    /**
+     * API confirm nhiều reservation 1 lần
+     */
+    @PostMapping("/confirm-batch")
+    public ApiResponse<ReservationBatchResponse> confirmReservations(
+            @Valid @RequestBody ReservationBatchRequest request
+    ) {
+        log.info("Confirming {} reservation(s)", request.getReservationIds().size());
+
+        return ApiResponse.<ReservationBatchResponse>builder()
+                .code(200)
+                .message("Reservations confirmed successfully")
+                .result(reservationService.confirmReservations(request.getReservationIds()))
+                .build();
+    }
+
+    /**
+     * API release nhiều reservation 1 lần (hoàn kho gộp theo variant)
+     */
+    @PostMapping("/release-batch")
+    public ApiResponse<ReservationBatchResponse> releaseReservations(
+            @Valid @RequestBody ReservationBatchRequest request
+    ) {
+        log.info("Releasing {} reservation(s)", request.getReservationIds().size());
+
+        return ApiResponse.<ReservationBatchResponse>builder()
+                .code(200)
+                .message("Reservations released successfully")
+                .result(reservationService.releaseReservations(request.getReservationIds()))
+                .build();
+    }
+
+    /**
+     * API để confirm reservation theo id khi thanh toán thành công
+     */
+    @PostMapping("/{reservationId}/confirm")
+    public ApiResponse<Void> confirmReservationById(
+            @PathVariable("reservationId") String reservationId
+    ) {
+        log.info("Confirming reservation: {}", reservationId);
+
+        reservationService.confirmReservationById(reservationId);
+
+        return ApiResponse.<Void>builder()
+                .code(200)
+                .message("Reservation confirmed successfully")
+                .build();
+    }
+
+    /**
+     * API để release reservation theo id khi thanh toán thất bại hoặc user cancel
+     */
+    @PostMapping("/{reservationId}/release")
+    public ApiResponse<Void> releaseReservationById(
+            @PathVariable("reservationId") String reservationId
+    ) {
+        log.info("Releasing reservation: {}", reservationId);
+
+        reservationService.releaseReservationById(reservationId);
+
+        return ApiResponse.<Void>builder()
+                .code(200)
+                .message("Reservation released successfully")
+                .build();
+    }
+
     /**
      * API để confirm reservation khi thanh toán thành công
      * Gọi trong callback từ VNPay (IPN) hoặc return URL
@@ -0,0 +1,32 @@
+package iuh.fit.se.dto.request;
+
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Tham số tìm kiếm sản phẩm (bind từ query string)
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ProductSearchRequest {
+    private String q;                 // từ khoá (bỏ trống -> chỉ lọc)
+    private String categoryId;
+    private String sellerId;
+    private List<String> status;      // mặc định AVAILABLE
+    private BigDecimal minPrice;
+    private BigDecimal maxPrice;
+    private List<String> options;     // "Tên:Giá trị", ví dụ options=Color:Black&options=RAM:8GB
+    private Boolean inStock;          // true -> chỉ sản phẩm còn hàng
+    private String sort;              // relevance | price_asc | price_desc | sold | newest
+
+    @Builder.Default
+    private Integer page = 0;
+
+    @Builder.Default
+    private Integer size = 20;
+}
@@ -0,0 +1,19 @@
+package iuh.fit.se.dto.request;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.*;
+
+import java.util.List;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ReservationBatchRequest {
+
+    @NotEmpty(message = "Reservation IDs cannot be empty")
+    @Size(max = 1000, message = "At most 1000 reservations per batch")
+    private List<String> reservationIds;
+}
@@ -1,7 +1,9 @@
 package iuh.fit.se.dto.request;
 
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
 import lombok.*;
 
 import java.util.List;
@@ -18,6 +20,7 @@ public class ReserveStockRequest {
     private String userId;
 
     @NotEmpty(message = "Items cannot be empty")
+    @Valid
     private List<ReservationItem> items;
 
     private Integer expirationMinutes; // Thời gian hết hạn (mặc định 15 phút)
@@ -31,7 +34,8 @@ public class ReserveStockRequest {
         @NotBlank(message = "Product ID is required")
         private String productId;
 
-        private Map<String, String> options; // Variant options
+        @NotNull(message = "Variant options are required")
+        private Map<String, String> options; // Variant options, phải khớp đúng toàn bộ options của 1 variant
 
         private Integer quantity;
     }
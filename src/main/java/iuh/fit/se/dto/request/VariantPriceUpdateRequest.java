@@ -0,0 +1,47 @@
+package iuh.fit.se.dto.request;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sửa giá variant (price / compareAtPrice), không đụng tới ảnh, option hay tồn kho
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class VariantPriceUpdateRequest {
+
+    @NotBlank(message = "Product ID cannot be blank")
+    private String productId;
+
+    @NotEmpty(message = "Variants cannot be empty")
+    @Valid
+    private List<VariantPrice> variants;
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class VariantPrice {
+        // Options đầy đủ của variant; {} cho sản phẩm chỉ có 1 variant không option
+        @NotNull(message = "Options cannot be null")
+        private Map<String, String> options;
+
+        @NotNull(message = "Price cannot be null")
+        @Positive(message = "Price must be positive")
+        private BigDecimal price;
+
+        private BigDecimal compareAtPrice; // null -> bỏ giá gốc (không còn giảm giá)
+    }
+}
@@ -0,0 +1,22 @@
+package iuh.fit.se.dto.response;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class CacheMetrics {
+    String name;
+    Integer size;
+    Long hits;            // trả từ cache còn hạn
+    Long staleHits;       // trả bản cũ và refresh ở background
+    Long misses;          // phải tính đồng bộ
+    Long refreshes;
+    Long refreshFailures;
+    Long invalidations;
+    Long evictions;
+    Double hitRatio;      // (hits + staleHits) / tổng số request
+}
@@ -0,0 +1,14 @@
+package iuh.fit.se.dto.response;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class FacetBucket {
+    String value;
+    Long count;
+}
@@ -0,0 +1,28 @@
+package iuh.fit.se.dto.response;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class GeminiRateLimiterMetrics {
+    Double currentRatePerSecond;  // tốc độ hiện tại sau AIMD
+    Double maxRatePerSecond;
+    Double availableTokens;
+    Integer queueDepth;           // task đang chờ trong geminiExecutor
+    Integer waitingForPermit;     // thread đang chờ token
+    Long acquired;
+    Long throttled;               // số lần nhận 429
+    Long retryAfterHonored;       // số lần có header Retry-After
+    Long failures;
+    Double averagePermitWaitMillis;
+    Long maxPermitWaitMillis;
+    Long blockedForMillis;        // còn bị chặn theo Retry-After
+    Long coalesced;               // event bị thay thế trong cửa sổ debounce
+    Long skippedUnchanged;        // index bị bỏ qua vì nội dung không đổi
+    Integer pendingIntents;       // ý định đang chờ debounce / retry (chưa ack)
+    Boolean listenersPaused;      // Kafka listener đang bị pause do backpressure
+}
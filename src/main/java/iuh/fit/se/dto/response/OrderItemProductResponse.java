@@ -21,6 +21,8 @@ public class OrderItemProductResponse {
      BigDecimal price;
      BigDecimal compareAtPrice;
      Boolean available;
-     Integer stock;  // quantity
+     Integer stock;  // quantity: có thể bán (ATP), đã trừ phần đang giữ trong reservation
+     Integer reserved;  // đang giữ bởi reservation chưa thanh toán
+     Integer onHand;    // tồn thực tế = stock + reserved
      String status;  // AVAILABLE, OUT_OF_STOCK...
 }
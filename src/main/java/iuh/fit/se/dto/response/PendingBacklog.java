@@ -0,0 +1,19 @@
+package iuh.fit.se.dto.response;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class PendingBacklog {
+    Long count;
+    Instant oldestPendingSince;
+    Double oldestAgeHours;
+    Double averageAgeHours;
+    Long olderThan24Hours;
+}
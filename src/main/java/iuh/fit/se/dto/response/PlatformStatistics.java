@@ -0,0 +1,33 @@
+package iuh.fit.se.dto.response;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.time.Instant;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class PlatformStatistics {
+    // Thống kê theo trạng thái trên toàn sàn
+    ProductCountByStatus productCountByStatus;
+
+    // Doanh thu theo danh mục (sắp xếp giảm dần theo doanh thu)
+    List<CategoryStatistics> categoryStatistics;
+
+    // Tồn kho thấp trên tất cả seller (chỉ sản phẩm AVAILABLE)
+    Long lowStockVariants;
+    Long outOfStockVariants;
+    List<VariantAlertDto> lowStockAlerts; // top biến thể tồn kho thấp nhất
+
+    // Hàng đợi duyệt sản phẩm
+    PendingBacklog pendingBacklog;
+
+    Long sellerCount;
+    Integer shardCount;
+    Long computeMillis;
+    Instant generatedAt;
+}
@@ -10,6 +10,7 @@ import lombok.experimental.FieldDefaults;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 
 @Builder
 @Setter
@@ -33,4 +34,6 @@ public class ProductResponse {
     Instant createdAt;
     Instant updatedAt;
     boolean reUpdate;
+    Double percentDiscount;                // % giảm lớn nhất trong các variant
+    Map<String, String> bestDealOptions;   // options của variant giảm nhiều nhất
 }
\ No newline at end of file
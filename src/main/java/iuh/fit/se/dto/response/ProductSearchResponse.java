@@ -0,0 +1,23 @@
+package iuh.fit.se.dto.response;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class ProductSearchResponse {
+    List<ProductResponse> items;
+    Long total;
+    Integer page;
+    Integer size;
+    List<FacetBucket> categories;
+    Map<String, List<FacetBucket>> options;   // tên option -> các giá trị kèm số sản phẩm
+    Double minPrice;                          // khoảng giá của tập kết quả
+    Double maxPrice;
+}
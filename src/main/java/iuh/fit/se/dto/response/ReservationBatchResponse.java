@@ -0,0 +1,15 @@
+package iuh.fit.se.dto.response;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class ReservationBatchResponse {
+    int requested;
+    int succeeded;
+    int skipped;    // không còn PENDING hoặc không tồn tại
+}
@@ -11,12 +11,13 @@ import java.util.Map;
 @Builder
 @FieldDefaults(level = AccessLevel.PRIVATE)
 public class VariantAlertDto {
+    String sellerId;
     String productId;
     String productName;
     String imageUrl;
     Map<String, String> variantOptions; // {"Color": "Red", "Size": "M"}
     String variantLabel;                // "Color Red - Size M"
     Integer currentStock;
-    String alertType;
+    String alertType;                   // LOW_STOCK | OUT_OF_STOCK | RESOLVED
     String message;
 }
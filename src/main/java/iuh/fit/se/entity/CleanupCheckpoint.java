@@ -0,0 +1,32 @@
+package iuh.fit.se.entity;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Checkpoint của job dọn sản phẩm: lần chạy bị dừng giữa chừng (hết thời gian / restart)
+ * sẽ tiếp tục từ lastId với cùng cutoff.
+ */
+@Document(collection = "cleanup_checkpoints")
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class CleanupCheckpoint {
+    @Id
+    String jobName;
+
+    String runId;
+    Instant cutoff;
+    String lastId;      // _id cuối cùng đã xử lý (keyset)
+    boolean completed;
+    long fencingToken;  // token lease lock của lần ghi gần nhất
+    Instant startedAt;
+    Instant updatedAt;
+}
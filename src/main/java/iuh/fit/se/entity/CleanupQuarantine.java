@@ -0,0 +1,30 @@
+package iuh.fit.se.entity;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Sản phẩm xoá lỗi nhiều lần (poison record). Đủ số lần lỗi thì job bỏ qua, chờ xử lý tay.
+ */
+@Document(collection = "cleanup_quarantine")
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class CleanupQuarantine {
+    @Id
+    String productId;
+
+    // Index {failures} được tạo trong ProductCleanupBatchJob
+    int failures;
+
+    String lastError;
+    Instant firstFailedAt;
+    Instant lastFailedAt;
+}
@@ -0,0 +1,39 @@
+package iuh.fit.se.entity;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Báo cáo mỗi lần chạy job dọn sản phẩm
+ */
+@Document(collection = "cleanup_run_reports")
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class CleanupRunReport {
+    @Id
+    String id;
+
+    String runId;
+    boolean resumed;        // tiếp tục từ checkpoint của lần chạy trước
+    boolean completed;      // false nếu dừng do hết max-run-minutes
+    Instant cutoff;
+    Instant startedAt;
+    Instant finishedAt;
+    long elapsedMillis;
+    int pages;
+    int scanned;
+    int deleted;
+    int failed;
+    int quarantined;        // số sản phẩm đang bị bỏ qua do lỗi lặp lại
+    double throughputPerSecond;
+    String lastId;
+    long fencingToken;      // token lease lock của lần chạy ghi báo cáo
+}
@@ -0,0 +1,29 @@
+package iuh.fit.se.entity;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Trạng thái đã index lên Gemini của 1 sản phẩm (tách khỏi Product để không đụng @Version khi ghi).
+ * Dùng để bỏ qua việc re-embed khi nội dung không đổi.
+ */
+@Document(collection = "gemini_index_state")
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class GeminiIndexState {
+    @Id
+    String productId;
+
+    String textHash;                  // hash phần text đã embed
+    Map<String, String> imageHashes;  // position -> hash ảnh đã embed
+    Instant indexedAt;
+}
@@ -0,0 +1,30 @@
+package iuh.fit.se.entity;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Lease lock cho batch job chạy trên nhiều replica.
+ * token tăng mỗi lần có replica mới giành được lock (fencing token).
+ */
+@Document(collection = "job_locks")
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class JobLock {
+    @Id
+    String jobName;
+
+    String owner;
+    long token;
+    Instant lockedUntil;
+    Instant acquiredAt;
+    Instant heartbeatAt;
+}
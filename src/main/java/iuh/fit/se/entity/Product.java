@@ -25,6 +25,7 @@
     @AllArgsConstructor
     @Builder
     @Document(collection = "products")
+    // Index {status, _id, deleteAt} cho job dọn sản phẩm được tạo trong ProductCleanupBatchJob
     public class Product {
         @Id
         String id;
@@ -60,6 +61,12 @@
 
         String reasonDelete;
 
+        // Id các lần HotStockLedger lấy tồn kho từ Mongo chưa được đối chiếu xong (để recovery sau crash)
+        List<String> hotStockIntents;
+
+        // Lô confirm / hoàn kho (batchId) đã áp dụng vào variants, ghi cùng lệnh $inc -> khôi phục lô không áp dụng lần 2
+        List<String> appliedBatchIds;
+
         @Version
         Long version;
     }
\ No newline at end of file
@@ -12,8 +12,10 @@ import org.springframework.data.elasticsearch.core.suggest.Completion;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 
-@Document(indexName = "products")
+// "products" là alias, index thật products_{hash} do ProductIndexMigrator tạo -> không để repository tự tạo index
+@Document(indexName = "products", createIndex = false)
 @Setting(settingPath = "/elasticsearch-settings.json")
 @JsonIgnoreProperties(ignoreUnknown = true)
 @Getter
@@ -22,18 +24,44 @@ import java.util.List;
 @AllArgsConstructor
 @Builder
 public class ProductElastic {
+    public static final String SUGGEST_CATEGORY_CONTEXT = "category";
+    public static final String SUGGEST_STATUS_CONTEXT = "status";
+
     @Id
     private String id;
 
-    @CompletionField(maxInputLength = 100)
+    // Context: category (categoryId), status -> gợi ý lọc theo danh mục và chỉ lấy sản phẩm đang bán
+    // weight tính từ soldCount / viewCount (ProductSearchFields.suggestWeight)
+    @CompletionField(maxInputLength = 100,
+            analyzer = "vietnamese_suggest_analyzer",
+            searchAnalyzer = "vietnamese_suggest_analyzer",
+            contexts = {
+                    @CompletionContext(name = SUGGEST_CATEGORY_CONTEXT,
+                            type = CompletionContext.ContextMappingType.CATEGORY),
+                    @CompletionContext(name = SUGGEST_STATUS_CONTEXT,
+                            type = CompletionContext.ContextMappingType.CATEGORY)
+            })
     private Completion nameSuggest;
 
     // Trường này để lưu tên gốc của sản phẩm để hiển thị
     // và dùng cho tìm kiếm full-text
-    @Field(type = FieldType.Text, analyzer = "vietnamese_analyzer")
+    // .folded: bỏ dấu ("dien thoai" khớp "điện thoại"), .prefix: edge n-gram cho gõ dở,
+    // .shingle: cụm 2-3 từ liền nhau (thưởng điểm khi đúng cụm)
+    @MultiField(
+            mainField = @Field(type = FieldType.Text, analyzer = "vietnamese_analyzer"),
+            otherFields = {
+                    @InnerField(suffix = "folded", type = FieldType.Text, analyzer = "vietnamese_folded_analyzer"),
+                    @InnerField(suffix = "prefix", type = FieldType.Text, analyzer = "vietnamese_prefix_analyzer",
+                            searchAnalyzer = "vietnamese_folded_analyzer"),
+                    @InnerField(suffix = "shingle", type = FieldType.Text, analyzer = "vietnamese_shingle_analyzer")
+            })
     private String originalName;
 
-    @Field(type = FieldType.Text, analyzer = "vietnamese_analyzer")
+    @MultiField(
+            mainField = @Field(type = FieldType.Text, analyzer = "vietnamese_analyzer"),
+            otherFields = {
+                    @InnerField(suffix = "folded", type = FieldType.Text, analyzer = "vietnamese_folded_analyzer")
+            })
     private String description;
 
     @Field(type = FieldType.Nested)
@@ -46,7 +74,27 @@ public class ProductElastic {
     @Field(type = FieldType.Nested)
     List<OptionMediaGroup> mediaByOption; // ảnh theo 1 trục (thường Color)
     @Field(type = FieldType.Double)
-    private Double percentDiscount;
+    private Double percentDiscount; // % giảm lớn nhất trong các variant
+
+    // Trường phẳng tính sẵn từ variants / optionDefs (ProductSearchFields): lọc, sort không cần nested query
+    @Field(type = FieldType.Double)
+    private Double minPrice;
+    @Field(type = FieldType.Double)
+    private Double maxPrice;
+    @Field(type = FieldType.Boolean)
+    private Boolean inStock;
+    @Field(type = FieldType.Integer)
+    private Integer totalQuantity;
+    @Field(type = FieldType.Keyword)
+    private List<String> optionValues; // "Tên:Giá trị", ví dụ "Color:Red"
+
+    // Variant giảm nhiều nhất (trang "deals" hiển thị giá này, không cần duyệt variants)
+    @Field(type = FieldType.Double)
+    private Double bestDealPrice;
+    @Field(type = FieldType.Double)
+    private Double bestDealCompareAtPrice;
+    @Field(type = FieldType.Object, enabled = false)
+    private Map<String, String> bestDealOptions;
 
     @Field(type = FieldType.Keyword)
     private String status;
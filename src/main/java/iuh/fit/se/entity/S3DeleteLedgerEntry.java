@@ -0,0 +1,30 @@
+package iuh.fit.se.entity;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * URL ảnh S3 xoá thất bại trong job dọn sản phẩm, được thử lại ở các lần chạy sau
+ * (document sản phẩm đã bị xoá nên nếu không ghi lại thì object S3 sẽ bị mồ côi).
+ */
+@Document(collection = "s3_delete_ledger")
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class S3DeleteLedgerEntry {
+    @Id
+    String url;
+
+    String productId;
+    int attempts;
+    String lastError;
+    Instant createdAt;
+    Instant lastAttemptAt;
+}
@@ -2,7 +2,6 @@ package iuh.fit.se.entity;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
@@ -10,6 +9,7 @@ import java.util.List;
 import java.util.Map;
 
 @Document("stock_reservations")
+// Index {userId, status, createdAt} (tra reservation đang mở của user) được tạo trong StockReservationArchiveJob
 @Getter @Setter @NoArgsConstructor @AllArgsConstructor @Builder
 public class StockReservation {
     @Id
@@ -19,14 +19,29 @@ public class StockReservation {
     @Builder.Default
     private List<Item> items = List.of();
 
-    @Indexed
-    private Instant expiresAt; // để cron quét nhanh
+    // Partial index {expiresAt} chỉ cho PENDING được tạo trong StockReservationArchiveJob
+    private Instant expiresAt;
 
     @Builder.Default
     private Status status = Status.PENDING; // PENDING | CONFIRMED | RELEASED | EXPIRED
 
     private Instant createdAt;
 
+    // Thời điểm chuyển sang CONFIRMED / RELEASED / EXPIRED
+    private Instant terminalAt;
+
+    // Release / expire theo lô: claim gắn restoreBatchId, hoàn kho xong mới set stockRestored = true
+    private String restoreBatchId;
+    private Boolean stockRestored;
+    // SKU nóng của lô đã được hoàn vào allotment (ghi trên mọi reservation của lô) -> khôi phục lô không hoàn lại lần 2.
+    // Sản phẩm thường dùng marker Product.appliedBatchIds ghi cùng lệnh hoàn kho
+    private List<String> restoredProductIds;
+
+    // Confirm theo lô: gắn confirmBatchId để giảm reserved của các variant trong lô,
+    // giảm xong mới set stockSettled = true (sweeper khôi phục lô còn false)
+    private String confirmBatchId;
+    private Boolean stockSettled;
+
     public enum Status { PENDING, CONFIRMED, RELEASED, EXPIRED; }
 
     @Getter @Setter @NoArgsConstructor @AllArgsConstructor @Builder
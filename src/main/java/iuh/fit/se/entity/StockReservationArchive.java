@@ -0,0 +1,59 @@
+package iuh.fit.se.entity;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bản lưu trữ (cold) của reservation đã kết thúc. Tên field rút gọn để giảm dung lượng,
+ * chỉ giữ thông tin cần cho đối soát.
+ */
+@Document(collection = "stock_reservations_archive")
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class StockReservationArchive {
+    @Id
+    String id;
+
+    @Field("u")
+    String userId;
+
+    @Field("s")
+    StockReservation.Status status;
+
+    @Field("i")
+    List<Item> items;
+
+    @Field("c")
+    Instant createdAt;
+
+    @Field("t")
+    Instant terminalAt;
+
+    @Setter
+    @Getter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    @FieldDefaults(level = AccessLevel.PRIVATE)
+    public static class Item {
+        @Field("p")
+        String productId;
+
+        @Field("o")
+        Map<String, String> options;
+
+        @Field("q")
+        Integer qty;
+    }
+}
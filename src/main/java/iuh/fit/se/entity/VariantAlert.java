@@ -0,0 +1,39 @@
+package iuh.fit.se.entity;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Cảnh báo tồn kho đang hiệu lực của 1 biến thể (LOW_STOCK / OUT_OF_STOCK).
+ * Được cập nhật ngay trên luồng ghi kho, dashboard chỉ cần đọc tập này.
+ */
+@Document(collection = "variant_alerts")
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class VariantAlert {
+    @Id
+    String id; // productId|variantKey
+
+    // Index {sellerId}, {productId} được tạo trong InventoryAlertReconcileJob
+    String sellerId;
+
+    String productId;
+
+    String productName;
+    String imageUrl;
+    Map<String, String> variantOptions;
+    String variantLabel;
+    Integer currentStock;
+    String alertType; // LOW_STOCK | OUT_OF_STOCK
+    String message;
+    Instant updatedAt;
+}
@@ -5,5 +5,6 @@ public enum Status {
     OUT_OF_STOCK, // Hết hàng
     DISCONTINUED ,// Ngừng bán
     PENDING, // Đang chờ xử lý,
-    SUSPENDED // Bị tạm ngưng
+    SUSPENDED, // Bị tạm ngưng
+    PROCESSING // Đang xử lý ảnh (upload bất đồng bộ)
 }
\ No newline at end of file
@@ -5,6 +5,7 @@ import lombok.Builder;
 @Builder
 public record Image(
         String url,
-        Integer position
+        Integer position,
+        String hash         // SHA-256 nội dung ảnh (tính lúc upload), dùng để index ảnh tăng dần
 ) {
 }
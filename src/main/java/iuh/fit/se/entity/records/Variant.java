@@ -14,6 +14,14 @@ public record Variant(
         Map<String, String> options, // ví dụ {"Dung tích":"500ml"} hoặc {"RAM":"8GB","Storage":"256GB"}
         BigDecimal price,
         BigDecimal compareAtPrice,
-        Integer quantity,
+        Integer quantity,   // có thể bán (available-to-promise), đã trừ phần đang giữ trong reservation
+        Integer reserved,   // đang giữ bởi reservation PENDING; tồn thực tế = quantity + reserved
         Boolean available
-) {}
+) {
+    /**
+     * Tồn thực tế trong kho (chưa bán), gồm cả phần đang giữ trong giỏ
+     */
+    public int onHand() {
+        return (quantity == null ? 0 : quantity) + Math.max(0, reserved == null ? 0 : reserved);
+    }
+}
@@ -84,6 +84,8 @@ public enum ErrorCode {
     IMAGE_CONTENT_NOT_ALLOWED(1011, "Image contains inappropriate content", HttpStatus.BAD_REQUEST),
     FILE_NOT_EMPTY(1050, "File must not be empty", HttpStatus.BAD_REQUEST),
     INVALID_IMAGE_INDEX(1051, "Invalid image index", HttpStatus.BAD_REQUEST),
+    PRODUCT_MEDIA_PROCESSING(1052, "Product images are still being processed", HttpStatus.CONFLICT),
+    MEDIA_UPLOAD_TIMEOUT(1053, "Product image upload timed out", HttpStatus.GATEWAY_TIMEOUT),
     RESERVATION_ALREADY_EXISTS(409, "Stock reservation already exists for this payment", HttpStatus.CONFLICT),
     RESERVATION_NOT_FOUND(404, "Stock reservation not found", HttpStatus.NOT_FOUND),
     VARIANT_NOT_FOUND(404, "Product variant not found", HttpStatus.NOT_FOUND),
@@ -4,17 +4,26 @@ import iuh.fit.se.dto.request.ProductRequest;
 import iuh.fit.se.dto.response.ProductResponse;
 import iuh.fit.se.entity.Product;
 import iuh.fit.se.entity.ProductElastic;
+import iuh.fit.se.entity.records.Variant;
+import org.mapstruct.AfterMapping;
 import org.mapstruct.Mapper;
 import org.mapstruct.Mapping;
+import org.mapstruct.MappingTarget;
 import org.mapstruct.Named;
 import org.springframework.data.elasticsearch.core.suggest.Completion;
 
+import java.util.Map;
+
 @Mapper(componentModel = "spring")
 public interface ProductMapper {
     // Mapping từ Product (MongoDB) sang ProductResponse
+    @Mapping(target = "percentDiscount", expression = "java(ProductSearchFields.maxDiscountPercent(product.getVariants()))")
+    @Mapping(target = "bestDealOptions", expression = "java(bestDealOptions(product))")
     ProductResponse toProductResponse(Product product);
 
     // Mapping từ ProductRequest sang Product (MongoDB)
+    @Mapping(target = "hotStockIntents", ignore = true)
+    @Mapping(target = "appliedBatchIds", ignore = true)
     Product toProduct(ProductRequest productRequest);
 
     // Mapping từ ProductElastic (Elasticsearch) sang ProductResponse
@@ -39,8 +48,30 @@ public interface ProductMapper {
     @Mapping(target = "soldCount",source = "soldCount")
     @Mapping(target = "viewCount",source = "viewCount")
     @Mapping(target = "reUpdate", source = "reUpdate")
+    @Mapping(target = "percentDiscount", ignore = true)
+    @Mapping(target = "minPrice", ignore = true)
+    @Mapping(target = "maxPrice", ignore = true)
+    @Mapping(target = "inStock", ignore = true)
+    @Mapping(target = "totalQuantity", ignore = true)
+    @Mapping(target = "optionValues", ignore = true)
+    @Mapping(target = "bestDealPrice", ignore = true)
+    @Mapping(target = "bestDealCompareAtPrice", ignore = true)
+    @Mapping(target = "bestDealOptions", ignore = true)
     ProductElastic toProductElastic(Product product);
 
+    // Trường phẳng (giá, tồn kho, option, % giảm) tính từ variants / optionDefs; context + weight cho nameSuggest
+    @AfterMapping
+    default void fillSearchFields(Product product, @MappingTarget ProductElastic productElastic) {
+        ProductSearchFields.apply(productElastic, product.getVariants(), product.getOptionDefs());
+        ProductSearchFields.applySuggest(productElastic.getNameSuggest(), product.getCategoryId(),
+                productElastic.getStatus(), product.getSoldCount(), product.getViewCount());
+    }
+
+    default Map<String, String> bestDealOptions(Product product) {
+        Variant best = ProductSearchFields.bestDeal(product.getVariants());
+        return best == null ? null : best.options();
+    }
+
     // Phương thức default để chuyển đổi từ String sang Completion
     @Named("stringToCompletion")
     default Completion stringToCompletion(String name) {
@@ -0,0 +1,205 @@
+package iuh.fit.se.mapper;
+
+import iuh.fit.se.entity.ProductElastic;
+import iuh.fit.se.entity.records.OptionDef;
+import iuh.fit.se.entity.records.Variant;
+import org.springframework.data.elasticsearch.core.suggest.Completion;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Các trường phẳng (denormalized) trên ProductElastic, tính sẵn từ variants / optionDefs
+ * để lọc & sắp xếp không cần nested query.
+ */
+public final class ProductSearchFields {
+
+    private ProductSearchFields() {
+    }
+
+    /**
+     * Context (danh mục, trạng thái) và weight cho nameSuggest
+     */
+    public static void applySuggest(Completion suggest, String categoryId, String status,
+                                    Integer soldCount, Integer viewCount) {
+        if (suggest == null) {
+            return;
+        }
+        Map<String, List<String>> contexts = new HashMap<>();
+        if (categoryId != null) {
+            contexts.put(ProductElastic.SUGGEST_CATEGORY_CONTEXT, List.of(categoryId));
+        }
+        if (status != null) {
+            contexts.put(ProductElastic.SUGGEST_STATUS_CONTEXT, List.of(status));
+        }
+        suggest.setContexts(contexts);
+        suggest.setWeight(suggestWeight(soldCount, viewCount));
+    }
+
+    /**
+     * 1 lượt bán ~ 10 lượt xem; +1 để sản phẩm mới vẫn có weight dương
+     */
+    public static int suggestWeight(Integer soldCount, Integer viewCount) {
+        long sold = soldCount == null ? 0 : Math.max(0, soldCount);
+        long views = viewCount == null ? 0 : Math.max(0, viewCount);
+        return (int) Math.min(Integer.MAX_VALUE, 1 + sold * 10 + views);
+    }
+
+    public static void apply(ProductElastic target, List<Variant> variants, List<OptionDef> optionDefs) {
+        target.setMinPrice(minPrice(variants));
+        target.setMaxPrice(maxPrice(variants));
+        target.setTotalQuantity(totalQuantity(variants));
+        target.setInStock(inStock(variants));
+        target.setPercentDiscount(maxDiscountPercent(variants));
+        target.setOptionValues(optionValues(optionDefs));
+
+        Variant best = bestDeal(variants);
+        target.setBestDealPrice(best == null ? null : best.price().doubleValue());
+        target.setBestDealCompareAtPrice(best == null ? null : best.compareAtPrice().doubleValue());
+        target.setBestDealOptions(best == null ? null : best.options());
+    }
+
+    /**
+     * Các trường phụ thuộc tồn kho / giá, dùng cho partial update (ProductStockIndexer)
+     */
+    public static Map<String, Object> variantFields(List<Variant> variants) {
+        Map<String, Object> doc = new HashMap<>();
+        doc.put("variants", variants);
+        doc.put("minPrice", minPrice(variants));
+        doc.put("maxPrice", maxPrice(variants));
+        doc.put("totalQuantity", totalQuantity(variants));
+        doc.put("inStock", inStock(variants));
+        doc.put("percentDiscount", maxDiscountPercent(variants));
+
+        Variant best = bestDeal(variants);
+        doc.put("bestDealPrice", best == null ? null : best.price().doubleValue());
+        doc.put("bestDealCompareAtPrice", best == null ? null : best.compareAtPrice().doubleValue());
+        doc.put("bestDealOptions", best == null ? null : best.options());
+        return doc;
+    }
+
+    public static Double minPrice(List<Variant> variants) {
+        return prices(variants).min(BigDecimal::compareTo).map(BigDecimal::doubleValue).orElse(null);
+    }
+
+    public static Double maxPrice(List<Variant> variants) {
+        return prices(variants).max(BigDecimal::compareTo).map(BigDecimal::doubleValue).orElse(null);
+    }
+
+    // Tổng số lượng có thể bán (available-to-promise), không tính phần đang giữ
+    public static int totalQuantity(List<Variant> variants) {
+        if (variants == null) {
+            return 0;
+        }
+        return variants.stream()
+                .filter(Objects::nonNull)
+                .filter(v -> !Boolean.FALSE.equals(v.available()))
+                .mapToInt(v -> v.quantity() == null ? 0 : Math.max(0, v.quantity()))
+                .sum();
+    }
+
+    public static boolean inStock(List<Variant> variants) {
+        return totalQuantity(variants) > 0;
+    }
+
+    /**
+     * % giảm lớn nhất trong các variant còn bán được (compareAtPrice > price), làm tròn 1 chữ số thập phân
+     */
+    public static Double maxDiscountPercent(List<Variant> variants) {
+        if (variants == null) {
+            return null;
+        }
+        return variants.stream()
+                .filter(ProductSearchFields::sellable)
+                .map(ProductSearchFields::discountPercent)
+                .filter(Objects::nonNull)
+                .max(Double::compareTo)
+                .orElse(null);
+    }
+
+    /**
+     * Variant còn bán được giảm nhiều nhất (hoà thì lấy giá thấp hơn); null nếu không variant nào như vậy
+     */
+    public static Variant bestDeal(List<Variant> variants) {
+        if (variants == null) {
+            return null;
+        }
+        Variant best = null;
+        Double bestPercent = null;
+        for (Variant variant : variants) {
+            Double percent = sellable(variant) ? discountPercent(variant) : null;
+            if (percent == null) {
+                continue;
+            }
+            if (best == null || percent > bestPercent
+                    || (percent.equals(bestPercent) && variant.price().compareTo(best.price()) < 0)) {
+                best = variant;
+                bestPercent = percent;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Đang mở bán và còn hàng có thể đặt -> deal hết hàng không được quảng bá qua % giảm / bestDeal
+     */
+    public static boolean sellable(Variant variant) {
+        return variant != null
+                && !Boolean.FALSE.equals(variant.available())
+                && variant.quantity() != null && variant.quantity() > 0;
+    }
+
+    public static Double discountPercent(Variant variant) {
+        BigDecimal price = variant.price();
+        BigDecimal compareAt = variant.compareAtPrice();
+        if (price == null || compareAt == null || compareAt.signum() <= 0 || compareAt.compareTo(price) <= 0) {
+            return null;
+        }
+        return compareAt.subtract(price)
+                .multiply(BigDecimal.valueOf(100))
+                .divide(compareAt, 1, RoundingMode.HALF_UP)
+                .doubleValue();
+    }
+
+    /**
+     * "Tên:Giá trị" cho từng giá trị option, ví dụ "Color:Red", "RAM:8GB" (keyword, lọc bằng terms)
+     */
+    public static List<String> optionValues(List<OptionDef> optionDefs) {
+        if (optionDefs == null) {
+            return List.of();
+        }
+        Set<String> values = new LinkedHashSet<>();
+        for (OptionDef def : optionDefs) {
+            if (def == null || def.name() == null || def.values() == null) {
+                continue;
+            }
+            for (String value : def.values()) {
+                if (value != null && !value.isBlank()) {
+                    values.add(optionValue(def.name(), value));
+                }
+            }
+        }
+        return List.copyOf(values);
+    }
+
+    public static String optionValue(String name, String value) {
+        return name.trim() + ":" + value.trim();
+    }
+
+    private static Stream<BigDecimal> prices(List<Variant> variants) {
+        if (variants == null) {
+            return Stream.empty();
+        }
+        return variants.stream()
+                .filter(Objects::nonNull)
+                .map(Variant::price)
+                .filter(Objects::nonNull);
+    }
+}
@@ -0,0 +1,7 @@
+package iuh.fit.se.repository;
+
+import iuh.fit.se.entity.CleanupCheckpoint;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface CleanupCheckpointRepository extends MongoRepository<CleanupCheckpoint, String> {
+}
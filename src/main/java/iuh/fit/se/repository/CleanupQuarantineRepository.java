@@ -0,0 +1,12 @@
+package iuh.fit.se.repository;
+
+import iuh.fit.se.entity.CleanupQuarantine;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+
+public interface CleanupQuarantineRepository extends MongoRepository<CleanupQuarantine, String> {
+    List<CleanupQuarantine> findByFailuresGreaterThanEqual(int failures);
+
+    long countByFailuresGreaterThanEqual(int failures);
+}
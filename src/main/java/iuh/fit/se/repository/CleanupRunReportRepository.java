@@ -0,0 +1,7 @@
+package iuh.fit.se.repository;
+
+import iuh.fit.se.entity.CleanupRunReport;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface CleanupRunReportRepository extends MongoRepository<CleanupRunReport, String> {
+}
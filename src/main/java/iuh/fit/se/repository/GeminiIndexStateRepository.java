@@ -0,0 +1,7 @@
+package iuh.fit.se.repository;
+
+import iuh.fit.se.entity.GeminiIndexState;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface GeminiIndexStateRepository extends MongoRepository<GeminiIndexState, String> {
+}
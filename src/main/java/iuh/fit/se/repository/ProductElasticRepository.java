@@ -17,7 +17,15 @@ public interface ProductElasticRepository extends ElasticsearchRepository<Produc
     List<ProductElastic> findAllByOrderByCreatedAtDesc();
     // Tìm kiếm full-text trên originalName và description
     // Đã đổi "name" thành "originalName" cho chính xác
-    @Query("{\"multi_match\": {\"query\": \"?0\", \"fields\": [\"originalName\", \"description\"], \"fuzziness\": \"AUTO\"}}")
+    // Cùng trọng số với ProductSearchServiceImpl.textQuery: có dấu > bỏ dấu, cộng điểm đúng cụm (shingle) và gõ dở (prefix)
+    @Query("""
+            {"bool": {"should": [
+              {"multi_match": {"query": "?0", "type": "best_fields", "tie_breaker": 0.3,
+                "fields": ["originalName^3", "originalName.folded^2", "description", "description.folded^0.5"]}},
+              {"match": {"originalName.shingle": {"query": "?0", "boost": 2}}},
+              {"match": {"originalName.prefix": {"query": "?0", "operator": "and"}}}
+            ], "minimum_should_match": 1}}
+            """)
     List<ProductElastic> searchByNameOrDescription(String query);
     List<ProductElastic> findAllByOrderBySoldCountDesc();
     // Gợi ý tìm kiếm (autocomplete) dựa trên name
@@ -0,0 +1,14 @@
+package iuh.fit.se.repository;
+
+import iuh.fit.se.entity.S3DeleteLedgerEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+
+public interface S3DeleteLedgerRepository extends MongoRepository<S3DeleteLedgerEntry, String> {
+    List<S3DeleteLedgerEntry> findByAttemptsLessThanAndUrlGreaterThanOrderByUrlAsc(int attempts, String url,
+                                                                               Pageable pageable);
+
+    long countByAttemptsGreaterThanEqual(int attempts);
+}
@@ -15,4 +15,13 @@ public interface StockReservationRepository extends MongoRepository<StockReserva
             Instant expiresAt
     );
 
-    List<StockReservation> findByUserIdOrderByCreatedAtDesc(String userId);}
\ No newline at end of file
+    List<StockReservation> findByUserIdOrderByCreatedAtDesc(String userId);
+
+    Optional<StockReservation> findFirstByUserIdOrderByCreatedAtDesc(String userId);
+
+    // Dùng index {userId, status, createdAt}
+    Optional<StockReservation> findFirstByUserIdAndStatusOrderByCreatedAtDesc(
+            String userId,
+            StockReservation.Status status
+    );
+}
\ No newline at end of file
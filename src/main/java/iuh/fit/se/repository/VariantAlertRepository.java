@@ -0,0 +1,15 @@
+package iuh.fit.se.repository;
+
+import iuh.fit.se.entity.VariantAlert;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface VariantAlertRepository extends MongoRepository<VariantAlert, String> {
+    List<VariantAlert> findBySellerId(String sellerId);
+
+    List<VariantAlert> findByProductId(String productId);
+
+    void deleteByProductIdIn(Collection<String> productIds);
+}
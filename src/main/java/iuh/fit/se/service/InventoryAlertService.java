@@ -0,0 +1,39 @@
+package iuh.fit.se.service;
+
+import iuh.fit.se.dto.response.VariantAlertDto;
+import iuh.fit.se.entity.Product;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+public interface InventoryAlertService {
+
+    /**
+     * Gọi trên luồng ghi kho (trừ kho đơn hàng, đặt chỗ, hoàn kho) sau khi số lượng biến thể thay đổi.
+     * Nếu vượt ngưỡng (còn hàng -> sắp hết -> hết hàng hoặc ngược lại) sẽ phát event lên Kafka.
+     */
+    void onStockChanged(Product product, Map<String, String> options, int previousQuantity, int newQuantity);
+
+    /**
+     * Đồng bộ lại toàn bộ cảnh báo của 1 sản phẩm (khi tạo/sửa sản phẩm, đổi danh sách biến thể)
+     */
+    void syncProduct(Product product);
+
+    /**
+     * Xoá cảnh báo của các sản phẩm (khi sản phẩm bị xoá vĩnh viễn)
+     */
+    void removeProducts(Collection<String> productIds);
+
+    /**
+     * Tập cảnh báo đang hiệu lực của seller (đã tính sẵn)
+     */
+    List<VariantAlertDto> findBySeller(String sellerId);
+
+    /**
+     * Tính lại toàn bộ tập cảnh báo từ dữ liệu sản phẩm (đối soát định kỳ)
+     */
+    void rebuildAll();
+
+    int getLowStockThreshold();
+}
@@ -0,0 +1,13 @@
+package iuh.fit.se.service;
+
+import iuh.fit.se.dto.request.ProductSearchRequest;
+import iuh.fit.se.dto.response.ProductSearchResponse;
+
+public interface ProductSearchService {
+    ProductSearchResponse search(ProductSearchRequest request);
+
+    /**
+     * Sản phẩm đang giảm giá, sắp theo % giảm lớn nhất (chỉ đọc từ Elasticsearch)
+     */
+    ProductSearchResponse deals(String categoryId, Double minDiscount, Integer page, Integer size);
+}
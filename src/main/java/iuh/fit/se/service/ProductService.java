@@ -3,22 +3,33 @@ package iuh.fit.se.service;
 import iuh.fit.event.dto.OrderCreatedEvent;
 import iuh.fit.event.dto.OrderStatusChangedEvent;
 import iuh.fit.event.dto.ProductInvalid;
+import iuh.fit.event.dto.ProductMediaUploadedEvent;
 import iuh.fit.se.dto.request.ProductRequest;
 import iuh.fit.se.dto.request.ProductUpdateRequest;
 import iuh.fit.se.dto.request.SearchSizeAndIDRequest;
+import iuh.fit.se.dto.request.VariantPriceUpdateRequest;
 import iuh.fit.se.dto.response.OrderItemProductResponse;
 import iuh.fit.se.dto.response.ProductResponse;
 import iuh.fit.se.entity.enums.Status;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.IOException;
 import java.util.List;
 
 public interface ProductService {
     ProductResponse findById(String id);
     ProductResponse createProduct(ProductRequest request, List<MultipartFile> images);
+
+    /**
+     * Hoàn tất sản phẩm PROCESSING sau khi upload ảnh bất đồng bộ xong (hoặc thất bại)
+     */
+    void finalizeProductMedia(ProductMediaUploadedEvent event);
     ProductResponse updateProduct(ProductUpdateRequest request, List<MultipartFile> images);
+
+    /**
+     * Sửa giá các variant (price / compareAtPrice); ES chỉ được partial update phần variants và giá/giảm giá
+     */
+    ProductResponse updateVariantPrices(VariantPriceUpdateRequest request);
     void deleteProduct(ProductInvalid productInvalid);
     List<ProductResponse> findAllByCategory(String category);
     List<ProductResponse> findAllProducts();
@@ -37,7 +48,10 @@ public interface ProductService {
     //Elasticsearch
     List<ProductResponse> searchProducts(String query);
 
-    List<String> suggestProducts(String prefix) throws IOException;
+    /**
+     * Gợi ý tên sản phẩm đang bán theo prefix (không dấu vẫn khớp), lọc theo danh mục nếu có
+     */
+    List<String> suggestProducts(String prefix, String categoryId);
     void discontinueBySellerId(String sellerId, String reason);
 
     @Transactional
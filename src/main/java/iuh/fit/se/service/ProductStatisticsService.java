@@ -1,8 +1,14 @@
 package iuh.fit.se.service;
 
+import iuh.fit.se.dto.response.CacheMetrics;
+import iuh.fit.se.dto.response.PlatformStatistics;
 import iuh.fit.se.dto.response.SellerProductStatistics;
 
+import java.util.List;
+
 public interface ProductStatisticsService {
     SellerProductStatistics getSellerStatistics(String sellerId);
     SellerProductStatistics getSellerStatistics(String sellerId, Integer lowStockThreshold, Integer slowMovingDays);
+    PlatformStatistics getPlatformStatistics(Integer lowStockThreshold);
+    List<CacheMetrics> getCacheMetrics();
 }
\ No newline at end of file
@@ -0,0 +1,16 @@
+package iuh.fit.se.service;
+
+import iuh.fit.se.dto.response.SellerResponse;
+
+import java.util.concurrent.CompletableFuture;
+
+public interface SellerResolver {
+
+    /**
+     * Lấy thông tin seller (có cache). Các lookup đồng thời trong cùng cửa sổ batch được gộp lại,
+     * mỗi sellerId chỉ gọi user-service 1 lần.
+     */
+    CompletableFuture<SellerResponse> resolve(String sellerId);
+
+    void invalidate(String sellerId);
+}
@@ -1,8 +1,11 @@
 package iuh.fit.se.service;
 
 import iuh.fit.se.dto.request.ReserveStockRequest;
+import iuh.fit.se.dto.response.ReservationBatchResponse;
 import iuh.fit.se.entity.StockReservation;
 
+import java.util.Collection;
+
 public interface StockReservationService {
 
     /**
@@ -14,19 +17,52 @@ public interface StockReservationService {
 
     /**
      * Xác nhận đơn hàng thành công -> chuyển reservation sang CONFIRMED
+     * @param reservationId ID reservation (trả về khi reserve)
+     */
+    void confirmReservationById(String reservationId);
+
+    /**
+     * Huỷ/giải phóng số lượng đã đặt chỗ khi thanh toán thất bại
+     * @param reservationId ID reservation (trả về khi reserve)
+     */
+    void releaseReservationById(String reservationId);
+
+    /**
+     * Xác nhận reservation PENDING mới nhất của user (tương thích API cũ)
      * @param userId ID thanh toán (vnp_TxnRef)
      */
     void confirmReservation(String userId);
 
     /**
-     * Huỷ/giải phóng số lượng đã đặt chỗ khi thanh toán thất bại
+     * Giải phóng reservation PENDING mới nhất của user (tương thích API cũ)
      * @param userId ID thanh toán
      */
     void releaseReservation(String userId);
 
+    /**
+     * Xác nhận nhiều reservation 1 lần (callback thanh toán dồn dập)
+     * @param reservationIds ID reservation
+     * @return số reservation đã xác nhận / bỏ qua (không còn PENDING hoặc không tồn tại)
+     */
+    ReservationBatchResponse confirmReservations(Collection<String> reservationIds);
+
+    /**
+     * Giải phóng nhiều reservation 1 lần, hoàn kho gộp theo variant cho cả lô
+     * @param reservationIds ID reservation
+     * @return số reservation đã giải phóng / bỏ qua
+     */
+    ReservationBatchResponse releaseReservations(Collection<String> reservationIds);
+
     /**
      * Kiểm tra và giải phóng các reservation đã hết hạn
      * (Chạy bằng cron job)
      */
     void expireReservations();
+
+    /**
+     * Expire theo lô các reservation trong danh sách đã tới hạn và còn PENDING, hoàn kho gộp theo variant
+     * @param reservationIds ID reservation đến hạn
+     * @return số reservation đã expire
+     */
+    int expireReservations(Collection<String> reservationIds);
 }
\ No newline at end of file
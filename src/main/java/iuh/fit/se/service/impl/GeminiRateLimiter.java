@@ -0,0 +1,228 @@
+package iuh.fit.se.service.impl;
+
+import feign.FeignException;
+import iuh.fit.se.dto.response.GeminiRateLimiterMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Rate limiter dùng chung cho mọi lời gọi GeminiClient.
+ *
+ * - Token bucket: tốc độ currentRate (request/giây), burst tối đa = capacity
+ * - Trần tốc độ lấy từ quota của gemini-service (requests-per-minute / 60), không tăng vượt quota
+ * - AIMD: mỗi lần thành công tăng tốc độ thêm additive-increase, gặp 429 thì giảm theo multiplicative-decrease
+ * - Retry-After của gemini-service được tôn trọng: chặn cấp token tới hết thời gian chờ
+ *
+ * 429 của GeminiClient không được Feign retry (xem FeignConfig) mà do limiter xử lý ở đây.
+ */
+@Component
+@Slf4j
+public class GeminiRateLimiter {
+
+    private final ExecutorService geminiExecutor;
+
+    private final double maxRate;
+    private final double minRate;
+    private final double additiveIncrease;
+    private final double multiplicativeDecrease;
+    private final double capacity;
+    private final int maxAttempts;
+    private final long defaultRetryAfterMillis;
+
+    // --- Trạng thái bucket (guarded by this) ---
+    private double currentRate;
+    private double tokens;
+    private long lastRefillNanos;
+    private long blockedUntilMillis;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder retryAfterHonored = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder totalWaitMillis = new LongAdder();
+    private final LongAccumulator maxWaitMillis = new LongAccumulator(Long::max, 0);
+
+    public GeminiRateLimiter(
+            ExecutorService geminiExecutor,
+            @Value("${product.gemini.rate-limit.requests-per-minute:8}") double requestsPerMinute,
+            @Value("${product.gemini.rate-limit.min-rate-per-second:0.02}") double minRate,
+            @Value("${product.gemini.rate-limit.additive-increase:0.01}") double additiveIncrease,
+            @Value("${product.gemini.rate-limit.multiplicative-decrease:0.5}") double multiplicativeDecrease,
+            @Value("${product.gemini.rate-limit.burst:2}") double capacity,
+            @Value("${product.gemini.rate-limit.max-attempts:4}") int maxAttempts,
+            @Value("${product.gemini.rate-limit.default-retry-after-ms:10000}") long defaultRetryAfterMillis) {
+        this.geminiExecutor = geminiExecutor;
+        this.maxRate = requestsPerMinute / 60.0;
+        this.minRate = Math.min(minRate, this.maxRate);
+        this.additiveIncrease = additiveIncrease;
+        this.multiplicativeDecrease = multiplicativeDecrease;
+        this.capacity = capacity;
+        this.maxAttempts = maxAttempts;
+        this.defaultRetryAfterMillis = defaultRetryAfterMillis;
+
+        this.currentRate = maxRate;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Gọi GeminiClient qua limiter. Gặp 429 thì giảm tốc độ, chờ theo Retry-After rồi thử lại.
+     */
+    public <T> T execute(String operation, Supplier<T> call) {
+        for (int attempt = 1; ; attempt++) {
+            acquire();
+            try {
+                T result = call.get();
+                onSuccess();
+                return result;
+            } catch (FeignException.TooManyRequests e) {
+                onThrottled(operation, e);
+                if (attempt >= maxAttempts) {
+                    failures.increment();
+                    throw e;
+                }
+            } catch (RuntimeException e) {
+                failures.increment();
+                throw e;
+            }
+        }
+    }
+
+    public void run(String operation, Runnable call) {
+        execute(operation, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    /**
+     * Chờ tới khi có token (block thread gọi - chỉ dùng trên geminiExecutor / batch job)
+     */
+    public void acquire() {
+        long start = System.currentTimeMillis();
+        waiting.incrementAndGet();
+        try {
+            while (true) {
+                long sleepMillis;
+                synchronized (this) {
+                    long now = System.currentTimeMillis();
+                    if (now < blockedUntilMillis) {
+                        sleepMillis = blockedUntilMillis - now;
+                    } else {
+                        refill();
+                        if (tokens >= 1) {
+                            tokens -= 1;
+                            break;
+                        }
+                        sleepMillis = (long) Math.ceil((1 - tokens) / currentRate * 1000);
+                    }
+                }
+                try {
+                    Thread.sleep(Math.max(sleepMillis, 1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for Gemini permit", e);
+                }
+            }
+        } finally {
+            waiting.decrementAndGet();
+        }
+
+        long waited = System.currentTimeMillis() - start;
+        acquired.increment();
+        totalWaitMillis.add(waited);
+        maxWaitMillis.accumulate(waited);
+    }
+
+    public GeminiRateLimiterMetrics metrics() {
+        long acquiredCount = acquired.sum();
+        double rate;
+        double available;
+        long blockedFor;
+        synchronized (this) {
+            refill();
+            rate = currentRate;
+            available = tokens;
+            blockedFor = Math.max(0, blockedUntilMillis - System.currentTimeMillis());
+        }
+
+        return GeminiRateLimiterMetrics.builder()
+                .currentRatePerSecond(Math.round(rate * 1000.0) / 1000.0)
+                .maxRatePerSecond(maxRate)
+                .availableTokens(Math.round(available * 100.0) / 100.0)
+                .queueDepth(geminiExecutor instanceof ThreadPoolExecutor tpe ? tpe.getQueue().size() : null)
+                .waitingForPermit(waiting.get())
+                .acquired(acquiredCount)
+                .throttled(throttled.sum())
+                .retryAfterHonored(retryAfterHonored.sum())
+                .failures(failures.sum())
+                .averagePermitWaitMillis(acquiredCount > 0
+                        ? Math.round(totalWaitMillis.sum() * 100.0 / acquiredCount) / 100.0
+                        : 0.0)
+                .maxPermitWaitMillis(maxWaitMillis.get())
+                .blockedForMillis(blockedFor)
+                .build();
+    }
+
+    private synchronized void onSuccess() {
+        currentRate = Math.min(maxRate, currentRate + additiveIncrease);
+    }
+
+    private void onThrottled(String operation, FeignException e) {
+        throttled.increment();
+        Long retryAfter = parseRetryAfter(e.responseHeaders());
+        if (retryAfter != null) {
+            retryAfterHonored.increment();
+        }
+        long waitMillis = retryAfter != null ? retryAfter : defaultRetryAfterMillis;
+
+        synchronized (this) {
+            currentRate = Math.max(minRate, currentRate * multiplicativeDecrease);
+            tokens = 0;
+            blockedUntilMillis = Math.max(blockedUntilMillis, System.currentTimeMillis() + waitMillis);
+        }
+        log.warn("Gemini rate limited (429) on {} -> rate={}/s, pause {}ms{}",
+                operation, String.format("%.3f", currentRate), waitMillis,
+                retryAfter != null ? " (Retry-After)" : "");
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double elapsedSeconds = (now - lastRefillNanos) / 1_000_000_000.0;
+        tokens = Math.min(capacity, tokens + elapsedSeconds * currentRate);
+        lastRefillNanos = now;
+    }
+
+    /**
+     * Retry-After dạng số giây (gemini-service trả dạng này); dạng HTTP-date thì bỏ qua
+     */
+    private Long parseRetryAfter(Map<String, Collection<String>> headers) {
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, Collection<String>> header : headers.entrySet()) {
+            if (!"retry-after".equalsIgnoreCase(header.getKey()) || header.getValue() == null) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                try {
+                    return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,703 @@
+package iuh.fit.se.service.impl;
+
+import iuh.fit.se.entity.Product;
+import iuh.fit.se.exception.AppException;
+import iuh.fit.se.exception.ErrorCode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Sổ tồn kho in-memory cho SKU "nóng" (flash sale).
+ *
+ * Mỗi replica giữ 1 phần tồn kho (allotment) của variant nóng: lấy trước theo chunk từ Product.variants
+ * bằng $inc có điều kiện, sau đó đặt chỗ / hoàn trả chỉ trừ cộng trong bộ nhớ, không chạm document sản phẩm.
+ * Tổng tồn kho luôn bằng quantity trong Mongo + allotment các replica đang giữ, nên replica nào hoàn trả
+ * cũng được (hoàn vào allotment của nó, hoặc vào Mongo nếu sản phẩm không nóng ở replica đó).
+ *
+ * - Allotment không dùng tới quá idle-return-ms, hoặc dư quá 2 chunk, được trả về Mongo định kỳ (write-back)
+ * - Mọi thay đổi được ghi vào write-ahead log trên đĩa local trước khi xác nhận; fsync theo group commit
+ *   (các request đồng thời chờ chung 1 lần fsync, không fsync trong lock của sản phẩm).
+ *   Khởi động lại -> replay WAL để biết allotment còn giữ và trả hết về Mongo rồi xoá WAL
+ * - Lấy từ Mongo: ghi + fsync TAKE (intent) trước, $inc kèm marker intentId trên Product, rồi ghi LEASE.
+ *   Crash giữa $inc và LEASE -> recovery tra marker để biết phần đã trừ và trả lại, không mất tồn kho
+ * - Trả về Mongo: RETURN fsync xong mới $inc -> crash ở giữa chỉ bán thiếu, không bán vượt
+ * - WAL vượt wal-compact-bytes -> flush viết lại thành snapshot (HELD còn giữ / variant + TAKE còn treo),
+ *   đổi file atomic, nên WAL không phình theo số lượt đặt chỗ khi replica chạy lâu
+ *
+ * - Mỗi dòng đặt chỗ phải khớp đúng 1 variant (VariantMatching.resolve trên snapshot variants của sản phẩm,
+ *   làm mới mỗi lần flush); lấy / trả Mongo dùng arrayFilter theo options nên không trúng nhầm variant khác
+ *
+ * Lưu ý: khi bật, quantity trong Mongo của SKU nóng là phần chưa được replica nào giữ.
+ * Sổ không cập nhật variants.reserved và không gọi ProductStockIndexer khi lấy / trả allotment
+ * (đồng bộ lúc đó sẽ làm ES báo hết hàng trong khi replica vẫn còn giữ) -> tồn kho trên ES của SKU nóng
+ * chỉ mới lại khi sản phẩm được lưu / reindex đầy đủ.
+ *
+ * stock:
+ *   hot:
+ *     enabled: false
+ *     products: "id1,id2"      # mọi variant của các sản phẩm này
+ *     chunk-size: 50
+ *     flush-interval-ms: 5000
+ *     idle-return-ms: 60000
+ *     wal-path: /tmp/product-service/hot-stock.wal
+ *     wal-sync: true
+ *     wal-compact-bytes: 4194304
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class HotStockLedger {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${stock.hot.enabled:false}")
+    private boolean enabled;
+
+    @Value("${stock.hot.products:}")
+    private Set<String> hotProducts;
+
+    @Value("${stock.hot.chunk-size:50}")
+    private int chunkSize;
+
+    @Value("${stock.hot.idle-return-ms:60000}")
+    private long idleReturnMs;
+
+    @Value("${stock.hot.wal-path:/tmp/product-service/hot-stock.wal}")
+    private String walPath;
+
+    @Value("${stock.hot.wal-sync:true}")
+    private boolean walSync;
+
+    @Value("${stock.hot.wal-compact-bytes:4194304}")
+    private long walCompactBytes;
+
+    // Marker trên Product: id các lần lấy từ Mongo chưa được gỡ (xem take / recover)
+    private static final String INTENTS_FIELD = "hotStockIntents";
+    private static final String NO_INTENT = "-";
+
+    private final Map<String, ProductLedger> ledgers = new ConcurrentHashMap<>();
+    // Intent đã có LEASE trong WAL, chờ gỡ marker khỏi Product.hotStockIntents (gộp ở flush)
+    private final Map<String, List<String>> settledIntents = new ConcurrentHashMap<>();
+    // $inc lỗi giữa chừng (timeout...) -> chưa biết đã trừ Mongo hay chưa, flush đối chiếu theo marker
+    private final Map<String, PendingTake> unresolvedTakes = new ConcurrentHashMap<>();
+
+    private final Object walLock = new Object();
+    private final Object syncLock = new Object();
+    private FileChannel wal;
+    private long written;           // offset cuối đã ghi vào WAL (theo walLock)
+    private volatile long synced;   // offset đã fsync
+
+    @PostConstruct
+    void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Path path = Path.of(walPath);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        wal = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        written = wal.size();
+        synced = written;
+        recover(path);
+        log.info("[HotStock] Enabled for {} product(s), chunk={}", hotProducts.size(), chunkSize);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (!enabled) {
+            return;
+        }
+        // Tắt bình thường -> trả hết allotment về Mongo
+        List<PendingReturn> returns = new ArrayList<>();
+        ledgers.values().forEach(ledger -> ledger.returnAll(returns));
+        applyReturns(returns);
+        clearSettledIntents();
+        try {
+            wal.truncate(0);
+            wal.close();
+        } catch (IOException e) {
+            log.warn("[HotStock] Close WAL failed: {}", e.getMessage());
+        }
+    }
+
+    public boolean isHot(String productId) {
+        return enabled && productId != null && hotProducts.contains(productId);
+    }
+
+    /**
+     * Đặt chỗ tất cả variant của 1 sản phẩm trong bộ nhớ (đủ hết hoặc không trừ gì).
+     * Options không xác định đúng 1 variant -> VARIANT_NOT_FOUND.
+     * Chờ WAL fsync ngoài lock của sản phẩm -> các lượt đặt chỗ đồng thời dùng chung 1 lần fsync.
+     */
+    public void reserve(String productId, Map<Map<String, String>, Integer> variants) {
+        awaitDurable(ledgers.computeIfAbsent(productId, ProductLedger::new).reserve(variants));
+    }
+
+    /**
+     * Hoàn trả vào allotment của replica này
+     *
+     * @return false nếu sản phẩm không nóng (hoàn trả theo luồng Mongo bình thường)
+     */
+    public boolean release(String productId, Map<String, String> options, int qty) {
+        if (!isHot(productId)) {
+            return false;
+        }
+        awaitDurable(ledgers.computeIfAbsent(productId, ProductLedger::new).release(options, qty));
+        return true;
+    }
+
+    /**
+     * Write-back định kỳ: trả allotment không dùng tới / dư nhiều về Product.variants,
+     * đối chiếu các lần lấy từ Mongo chưa rõ kết quả và gỡ marker intent đã ghi LEASE
+     */
+    @Scheduled(fixedDelayString = "${stock.hot.flush-interval-ms:5000}")
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        resolveUnresolvedTakes();
+
+        long now = System.currentTimeMillis();
+        List<PendingReturn> returns = new ArrayList<>();
+        ledgers.values().forEach(ledger -> ledger.returnExcess(now, returns));
+        applyReturns(returns);
+        // Variants có thể đã đổi (seller sửa sản phẩm) -> lần đặt chỗ sau đọc lại
+        ledgers.values().forEach(ProductLedger::invalidateVariants);
+
+        clearSettledIntents();
+        compactIfNeeded();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final class ProductLedger {
+        private final String productId;
+        private final Map<Map<String, String>, Integer> held = new HashMap<>();
+        private final Map<Map<String, String>, Long> lastUsed = new HashMap<>();
+        // Snapshot options của các variant (để resolve), null -> đọc lại ở lần đặt chỗ tới
+        private Product variantsSnapshot;
+
+        ProductLedger(String productId) {
+            this.productId = productId;
+        }
+
+        /**
+         * @return offset WAL cần fsync trước khi xác nhận
+         */
+        synchronized long reserve(Map<Map<String, String>, Integer> variants) {
+            Product snapshot = variantsSnapshot();
+            variants.keySet().forEach(options -> {
+                if (VariantMatching.resolve(snapshot, canonical(options)) == null) {
+                    throw new AppException(ErrorCode.VARIANT_NOT_FOUND);
+                }
+            });
+
+            // Thiếu ở variant nào thì lấy thêm từ Mongo trước, chưa trừ gì cho tới khi đủ hết
+            variants.forEach((options, qty) -> {
+                Map<String, String> key = canonical(options);
+                int available = held.getOrDefault(key, 0);
+                if (available < qty) {
+                    lease(key, qty - available);
+                }
+            });
+
+            long now = System.currentTimeMillis();
+            long offset = 0;
+            for (Map.Entry<Map<String, String>, Integer> entry : variants.entrySet()) {
+                Map<String, String> key = canonical(entry.getKey());
+                offset = append("RESERVE", productId, key, entry.getValue(), NO_INTENT);
+                held.merge(key, -entry.getValue(), Integer::sum);
+                lastUsed.put(key, now);
+            }
+            return offset;
+        }
+
+        synchronized void invalidateVariants() {
+            variantsSnapshot = null;
+        }
+
+        private Product variantsSnapshot() {
+            if (variantsSnapshot == null) {
+                Query query = new Query(Criteria.where("_id").is(productId));
+                query.fields().include("variants.options");
+                variantsSnapshot = mongoTemplate.findOne(query, Product.class);
+                if (variantsSnapshot == null) {
+                    throw new AppException(ErrorCode.PRODUCT_NOT_FOUND);
+                }
+            }
+            return variantsSnapshot;
+        }
+
+        synchronized long release(Map<String, String> options, int qty) {
+            Map<String, String> key = canonical(options);
+            long offset = append("RELEASE", productId, key, qty, NO_INTENT);
+            held.merge(key, qty, Integer::sum);
+            lastUsed.put(key, System.currentTimeMillis());
+            return offset;
+        }
+
+        synchronized void returnExcess(long now, List<PendingReturn> returns) {
+            new HashMap<>(held).forEach((key, units) -> {
+                if (units <= 0) {
+                    return;
+                }
+                boolean idle = now - lastUsed.getOrDefault(key, 0L) > idleReturnMs;
+                int excess = idle ? units : units - 2 * chunkSize;
+                if (excess > 0) {
+                    giveBack(key, excess, returns);
+                }
+            });
+        }
+
+        synchronized void returnAll(List<PendingReturn> returns) {
+            new HashMap<>(held).forEach((key, units) -> {
+                if (units > 0) {
+                    giveBack(key, units, returns);
+                }
+            });
+        }
+
+        /**
+         * Đối chiếu xong: Mongo đã trừ -> đưa vào allotment như 1 lần LEASE bình thường
+         */
+        synchronized void credit(Map<String, String> key, int units, String intentId) {
+            append("LEASE", productId, key, units, intentId);
+            held.merge(key, units, Integer::sum);
+            settle(productId, intentId);
+        }
+
+        /**
+         * Lấy ít nhất {@code needed} đơn vị từ Mongo (ưu tiên lấy cả chunk để các lần sau không cần chạm DB)
+         */
+        private void lease(Map<String, String> key, int needed) {
+            int leased = Math.max(chunkSize, needed);
+            if (!take(key, leased)) {
+                if (leased == needed || !take(key, needed)) {
+                    throw new AppException(ErrorCode.INSUFFICIENT_STOCK);
+                }
+                leased = needed;
+            }
+            held.merge(key, leased, Integer::sum);
+            log.debug("[HotStock] Leased {} unit(s) of {} {}", leased, productId, key);
+        }
+
+        /**
+         * TAKE (intent) được fsync trước $inc; $inc đánh dấu intentId lên Product.
+         * Crash sau $inc mà chưa kịp ghi LEASE -> recovery thấy TAKE treo, tra marker để biết đã trừ Mongo chưa.
+         */
+        private boolean take(Map<String, String> key, int units) {
+            String intentId = UUID.randomUUID().toString();
+            awaitDurable(append("TAKE", productId, key, units, intentId));
+            boolean taken;
+            try {
+                taken = takeFromMongo(productId, key, units, intentId);
+            } catch (RuntimeException e) {
+                unresolvedTakes.put(intentId, new PendingTake(productId, key, units));
+                throw e;
+            }
+            if (taken) {
+                append("LEASE", productId, key, units, intentId);
+                settle(productId, intentId);
+            } else {
+                append("ABORT", productId, key, units, intentId);
+            }
+            return taken;
+        }
+
+        private void giveBack(Map<String, String> key, int units, List<PendingReturn> returns) {
+            held.merge(key, -units, Integer::sum);
+            append("RETURN", productId, key, units, NO_INTENT);
+            returns.add(new PendingReturn(productId, key, units));
+        }
+    }
+
+    /**
+     * RETURN phải bền trước khi cộng lại vào Mongo (crash ở giữa -> bán thiếu chứ không bán vượt)
+     */
+    private void applyReturns(List<PendingReturn> returns) {
+        if (returns.isEmpty()) {
+            return;
+        }
+        awaitDurable(currentOffset());
+        for (PendingReturn pending : returns) {
+            returnToMongo(pending.productId(), pending.key(), pending.units());
+            log.debug("[HotStock] Returned {} unit(s) of {} {}", pending.units(), pending.productId(), pending.key());
+        }
+    }
+
+    private void resolveUnresolvedTakes() {
+        for (String intentId : List.copyOf(unresolvedTakes.keySet())) {
+            PendingTake pending = unresolvedTakes.get(intentId);
+            try {
+                if (intentApplied(pending.productId(), intentId)) {
+                    ledgers.computeIfAbsent(pending.productId(), ProductLedger::new)
+                            .credit(pending.key(), pending.units(), intentId);
+                    log.warn("[HotStock] Reconciled take {} of {} {}: {} unit(s) credited",
+                            intentId, pending.productId(), pending.key(), pending.units());
+                } else {
+                    append("ABORT", pending.productId(), pending.key(), pending.units(), intentId);
+                }
+                unresolvedTakes.remove(intentId);
+            } catch (RuntimeException e) {
+                log.warn("[HotStock] Reconcile take {} failed, retry next flush: {}", intentId, e.getMessage());
+            }
+        }
+    }
+
+    private void settle(String productId, String intentId) {
+        settledIntents.compute(productId, (id, intents) -> {
+            List<String> list = intents == null ? new ArrayList<>() : intents;
+            list.add(intentId);
+            return list;
+        });
+    }
+
+    /**
+     * Gỡ marker của các intent đã có LEASE bền trong WAL (1 lệnh / sản phẩm)
+     */
+    private void clearSettledIntents() {
+        Map<String, List<String>> batch = new HashMap<>();
+        for (String productId : List.copyOf(settledIntents.keySet())) {
+            List<String> intents = settledIntents.remove(productId);
+            if (intents != null) {
+                batch.put(productId, intents);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        // Marker chỉ được gỡ khi LEASE tương ứng đã fsync
+        awaitDurable(currentOffset());
+        batch.forEach(this::pullIntents);
+    }
+
+    /**
+     * key đã được resolve ra đúng 1 variant (reserve) -> arrayFilter theo options chỉ trúng variant đó
+     */
+    private boolean takeFromMongo(String productId, Map<String, String> key, int units, String intentId) {
+        Query query = new Query(Criteria.where("_id").is(productId)
+                .and("variants").elemMatch(VariantMatching.elemMatch(key).and("quantity").gte(units)));
+        Update update = new Update()
+                .inc("variants.$[v].quantity", -units)
+                .inc("version", 1)
+                .push(INTENTS_FIELD, intentId)
+                .filterArray(VariantMatching.arrayFilter("v", key).and("v.quantity").gte(units));
+        return mongoTemplate.updateFirst(query, update, Product.class).getModifiedCount() > 0;
+    }
+
+    private boolean intentApplied(String productId, String intentId) {
+        return mongoTemplate.exists(
+                new Query(Criteria.where("_id").is(productId).and(INTENTS_FIELD).is(intentId)), Product.class);
+    }
+
+    private void pullIntents(String productId, Collection<String> intentIds) {
+        try {
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(productId)),
+                    new Update().pullAll(INTENTS_FIELD, intentIds.toArray()), Product.class);
+        } catch (RuntimeException e) {
+            // Marker thừa vô hại: recovery chỉ tra marker của TAKE còn treo trong WAL
+            log.warn("[HotStock] Clear {} intent marker(s) of {} failed: {}", intentIds.size(), productId, e.getMessage());
+        }
+    }
+
+    private void returnToMongo(String productId, Map<String, String> key, int units) {
+        Query query = new Query(Criteria.where("_id").is(productId)
+                .and("variants").elemMatch(VariantMatching.elemMatch(key)));
+        Update update = new Update()
+                .inc("variants.$[v].quantity", units)
+                .inc("version", 1)
+                .filterArray(VariantMatching.arrayFilter("v", key));
+        if (mongoTemplate.updateFirst(query, update, Product.class).getModifiedCount() == 0) {
+            log.error("[HotStock] Return {} unit(s) of {} {} failed (variant not found)", units, productId, key);
+        }
+    }
+
+    private Map<String, String> canonical(Map<String, String> options) {
+        return options == null ? new TreeMap<>() : new TreeMap<>(options);
+    }
+
+    private record PendingReturn(String productId, Map<String, String> key, int units) {
+    }
+
+    private record PendingTake(String productId, Map<String, String> key, int units) {
+    }
+
+    // --- Write-ahead log ------------------------------------------------------------------------
+
+    /**
+     * 1 dòng / thay đổi: OP \t productId \t options(url-encoded k=v&...) \t qty \t intentId.
+     * Chỉ write (page cache), không fsync; người gọi cần bền thì {@link #awaitDurable(long)} với offset trả về.
+     *
+     * @return offset cuối WAL sau khi ghi dòng này
+     */
+    private long append(String op, String productId, Map<String, String> options, int qty, String intentId) {
+        byte[] line = line(op, productId, options, qty, intentId).getBytes(StandardCharsets.UTF_8);
+        synchronized (walLock) {
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(line);
+                while (buffer.hasRemaining()) {
+                    wal.write(buffer);
+                }
+                written += line.length;
+                return written;
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot write hot stock WAL", e);
+            }
+        }
+    }
+
+    private long currentOffset() {
+        synchronized (walLock) {
+            return written;
+        }
+    }
+
+    /**
+     * Group commit: 1 thread fsync cho mọi dòng đã ghi tới lúc đó, các thread chờ cùng lúc
+     * thấy offset của mình đã bền thì trả về luôn, không fsync thêm.
+     */
+    private void awaitDurable(long offset) {
+        if (!walSync || synced >= offset) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (synced >= offset) {
+                return; // lần fsync trước đã bao gồm dòng này
+            }
+            long target = currentOffset();
+            try {
+                wal.force(false);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot sync hot stock WAL", e);
+            }
+            synced = target;
+        }
+    }
+
+    private String line(String op, String productId, Map<String, String> options, int qty, String intentId) {
+        return op + "\t" + productId + "\t" + encode(options) + "\t" + qty + "\t" + intentId + "\n";
+    }
+
+    private void compactIfNeeded() {
+        if (currentOffset() < walCompactBytes) {
+            return;
+        }
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            // WAL cũ vẫn nguyên vẹn (chỉ bị thay khi file snapshot đã fsync) -> thử lại ở flush sau
+            log.warn("[HotStock] Compact WAL failed, retry next flush: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Snapshot allotment: viết lại WAL thành HELD (phần còn giữ / variant) + TAKE còn treo (chưa LEASE / ABORT)
+     * + SETTLED (marker chưa gỡ khỏi Product), ghi ra file tạm, fsync rồi đổi tên đè lên WAL.
+     * Giữ syncLock + walLock suốt lúc đổi file -> không dòng nào được ghi / fsync vào file cũ sau khi đã đọc.
+     */
+    private void compact() throws IOException {
+        Path path = Path.of(walPath);
+        Path snapshotPath = path.resolveSibling(path.getFileName() + ".snapshot");
+        synchronized (syncLock) {
+            synchronized (walLock) {
+                long before = written;
+                WalState state = replay(readLines(path));
+
+                StringBuilder snapshot = new StringBuilder();
+                state.remaining().forEach((productId, variants) -> variants.forEach((key, qty) -> {
+                    if (qty > 0) {
+                        snapshot.append(line("HELD", productId, key, qty, NO_INTENT));
+                    }
+                }));
+                state.pendingTakes().values()
+                        .forEach(parts -> snapshot.append(String.join("\t", parts)).append('\n'));
+                for (String productId : List.copyOf(settledIntents.keySet())) {
+                    settledIntents.computeIfPresent(productId, (id, intents) -> {
+                        intents.forEach(intentId -> snapshot.append(line("SETTLED", id, Map.of(), 0, intentId)));
+                        return intents;
+                    });
+                }
+
+                byte[] bytes = snapshot.toString().getBytes(StandardCharsets.UTF_8);
+                try (FileChannel out = FileChannel.open(snapshotPath, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    out.force(true);
+                }
+                Files.move(snapshotPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+                wal.close();
+                wal = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                written = wal.size();
+                // File snapshot đã fsync trước khi đổi tên -> mọi dòng trước đó đều bền
+                synced = written;
+                log.info("[HotStock] Compacted WAL {} -> {} byte(s) ({} pending take(s))",
+                        before, written, state.pendingTakes().size());
+            }
+        }
+    }
+
+    private List<String> readLines(Path path) throws IOException {
+        String content = Files.readString(path, StandardCharsets.UTF_8);
+        if (content.isEmpty()) {
+            return List.of();
+        }
+        List<String> lines = new ArrayList<>(List.of(content.split("\n")));
+        if (!content.endsWith("\n")) {
+            lines.remove(lines.size() - 1); // dòng ghi dở khi crash
+        }
+        return lines;
+    }
+
+    /**
+     * allotment = HELD + LEASE - RESERVE + RELEASE - RETURN; TAKE chưa có LEASE / ABORT đi kèm là còn treo.
+     * intentsByProduct: mọi intent có thể còn marker trên Product (TAKE / SETTLED).
+     */
+    private WalState replay(List<String> lines) {
+        Map<String, Map<Map<String, String>, Integer>> remaining = new LinkedHashMap<>();
+        Map<String, String[]> pendingTakes = new LinkedHashMap<>();
+        Map<String, Set<String>> intentsByProduct = new LinkedHashMap<>();
+        for (String line : lines) {
+            String[] parts = line.split("\t");
+            if (parts.length < 4) {
+                continue;
+            }
+            String intentId = parts.length > 4 ? parts[4] : NO_INTENT;
+            int qty = Integer.parseInt(parts[3]);
+            int delta = 0;
+            switch (parts[0]) {
+                case "TAKE" -> {
+                    pendingTakes.put(intentId, parts);
+                    intentsByProduct.computeIfAbsent(parts[1], id -> new LinkedHashSet<>()).add(intentId);
+                }
+                case "SETTLED" -> intentsByProduct.computeIfAbsent(parts[1], id -> new LinkedHashSet<>()).add(intentId);
+                case "ABORT" -> pendingTakes.remove(intentId);
+                case "LEASE" -> {
+                    pendingTakes.remove(intentId);
+                    delta = qty;
+                }
+                case "HELD", "RELEASE" -> delta = qty;
+                case "RESERVE", "RETURN" -> delta = -qty;
+                default -> {
+                }
+            }
+            if (delta != 0) {
+                remaining.computeIfAbsent(parts[1], id -> new LinkedHashMap<>())
+                        .merge(decode(parts[2]), delta, Integer::sum);
+            }
+        }
+        return new WalState(remaining, pendingTakes, intentsByProduct);
+    }
+
+    private record WalState(Map<String, Map<Map<String, String>, Integer>> remaining,
+                            Map<String, String[]> pendingTakes,
+                            Map<String, Set<String>> intentsByProduct) {
+    }
+
+    /**
+     * Replay WAL (snapshot + các dòng sau đó, xem {@link #replay(List)}).
+     * TAKE còn treo (crash quanh lệnh $inc) -> tra marker trên Product:
+     * có marker nghĩa là Mongo đã trừ, tính như LEASE.
+     * Phần còn giữ được ghi RETURN rồi trả về Mongo, gỡ marker, sau đó WAL được làm rỗng.
+     */
+    private void recover(Path path) throws IOException {
+        List<String> lines = readLines(path);
+        if (lines.isEmpty()) {
+            return;
+        }
+        WalState state = replay(lines);
+        Map<String, Map<Map<String, String>, Integer>> remaining = state.remaining();
+
+        int reconciled = 0;
+        for (var take : state.pendingTakes().entrySet()) {
+            String[] parts = take.getValue();
+            if (intentApplied(parts[1], take.getKey())) {
+                int qty = Integer.parseInt(parts[3]);
+                remaining.computeIfAbsent(parts[1], id -> new LinkedHashMap<>())
+                        .merge(decode(parts[2]), qty, Integer::sum);
+                reconciled += qty;
+            }
+        }
+
+        int returned = 0;
+        List<PendingReturn> returns = new ArrayList<>();
+        for (var product : remaining.entrySet()) {
+            for (var variant : product.getValue().entrySet()) {
+                if (variant.getValue() > 0) {
+                    append("RETURN", product.getKey(), variant.getKey(), variant.getValue(), NO_INTENT);
+                    returns.add(new PendingReturn(product.getKey(), variant.getKey(), variant.getValue()));
+                    returned += variant.getValue();
+                }
+            }
+        }
+        applyReturns(returns);
+        state.intentsByProduct().forEach(this::pullIntents);
+
+        wal.truncate(0);
+        wal.force(true);
+        synchronized (walLock) {
+            written = 0;
+        }
+        synced = 0;
+        log.warn("[HotStock] Recovered WAL ({} entries, {} pending take(s), {} unit(s) reconciled), returned {} unit(s) to Mongo",
+                lines.size(), state.pendingTakes().size(), reconciled, returned);
+    }
+
+    private String encode(Map<String, String> options) {
+        return options.entrySet().stream()
+                .map(e -> URLEncoder.encode(e.getKey(), StandardCharsets.UTF_8) + "="
+                        + URLEncoder.encode(e.getValue(), StandardCharsets.UTF_8))
+                .collect(Collectors.joining("&"));
+    }
+
+    private Map<String, String> decode(String encoded) {
+        Map<String, String> options = new TreeMap<>();
+        if (encoded.isEmpty()) {
+            return options;
+        }
+        for (String pair : encoded.split("&")) {
+            int eq = pair.indexOf('=');
+            options.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return options;
+    }
+}
@@ -0,0 +1,54 @@
+package iuh.fit.se.service.impl;
+
+import iuh.fit.se.entity.records.Image;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Hash nội dung ảnh sản phẩm.
+ * Ảnh cũ chưa có hash thì dùng hash của URL (URL S3 đổi khi ảnh đổi).
+ */
+public final class ImageHashing {
+
+    private ImageHashing() {
+    }
+
+    public static String sha256(MultipartFile file) {
+        try (InputStream in = file.getInputStream()) {
+            MessageDigest digest = newDigest();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static String sha256(String value) {
+        return HexFormat.of().formatHex(newDigest().digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public static String hashOf(Image image) {
+        if (image.hash() != null) {
+            return image.hash();
+        }
+        return image.url() != null ? "url:" + sha256(image.url()) : null;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package iuh.fit.se.service.impl;
+
+import iuh.fit.event.dto.SellerProductChangedEvent;
+import iuh.fit.se.dto.response.VariantAlertDto;
+import iuh.fit.se.entity.Product;
+import iuh.fit.se.entity.VariantAlert;
+import iuh.fit.se.entity.records.Variant;
+import iuh.fit.se.repository.VariantAlertRepository;
+import iuh.fit.se.service.InventoryAlertService;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@Service
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@RequiredArgsConstructor
+@Slf4j
+public class InventoryAlertServiceImpl implements InventoryAlertService {
+
+    VariantAlertRepository variantAlertRepository;
+    MongoTemplate mongoTemplate;
+    KafkaTemplate<String, Object> kafkaTemplate;
+    ApplicationEventPublisher eventPublisher;
+
+    static String LOW_STOCK = "LOW_STOCK";
+    static String OUT_OF_STOCK = "OUT_OF_STOCK";
+    static String RESOLVED = "RESOLVED";
+    static int PRUNE_CHUNK_SIZE = 500;
+
+    @NonFinal
+    @Value("${product.inventory.alert.low-stock-threshold:10}")
+    int lowStockThreshold;
+
+    @NonFinal
+    @Value("${product.inventory.alert.topic:inventory-alert}")
+    String alertTopic;
+
+    @Override
+    public void onStockChanged(Product product, Map<String, String> options, int previousQuantity, int newQuantity) {
+        if (product == null || product.getVariants() == null) {
+            return;
+        }
+        Variant variant = findVariant(product, options);
+        if (variant == null) {
+            return;
+        }
+
+        String before = alertTypeOf(previousQuantity);
+        String after = alertTypeOf(newQuantity);
+        if (before == null && after == null) {
+            return; // vẫn đủ hàng, không có gì thay đổi
+        }
+
+        String id = alertId(product.getId(), variant.options());
+        if (after == null) {
+            variantAlertRepository.deleteById(id);
+        } else {
+            variantAlertRepository.save(buildAlert(product, variant, newQuantity, after));
+        }
+
+        if (!Objects.equals(before, after)) {
+            publish(product, variant, newQuantity, after);
+        }
+    }
+
+    @Override
+    public void syncProduct(Product product) {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+
+        Map<String, VariantAlert> existing = variantAlertRepository.findByProductId(product.getId()).stream()
+                .collect(Collectors.toMap(VariantAlert::getId, Function.identity(), (a, b) -> a));
+
+        List<VariantAlert> toSave = new ArrayList<>();
+        if (product.getVariants() != null) {
+            for (Variant variant : product.getVariants()) {
+                int quantity = variant.quantity() != null ? variant.quantity() : 0;
+                String type = alertTypeOf(quantity);
+                String id = alertId(product.getId(), variant.options());
+                VariantAlert previous = existing.remove(id);
+
+                if (type != null) {
+                    toSave.add(buildAlert(product, variant, quantity, type));
+                }
+                String previousType = previous != null ? previous.getAlertType() : null;
+                if (!Objects.equals(previousType, type)) {
+                    publish(product, variant, quantity, type);
+                }
+            }
+        }
+
+        if (!toSave.isEmpty()) {
+            variantAlertRepository.saveAll(toSave);
+        }
+        // Biến thể không còn tồn tại / đã đủ hàng -> bỏ cảnh báo
+        if (!existing.isEmpty()) {
+            variantAlertRepository.deleteAllById(existing.keySet());
+        }
+    }
+
+    @Override
+    public void removeProducts(Collection<String> productIds) {
+        if (productIds == null || productIds.isEmpty()) {
+            return;
+        }
+        variantAlertRepository.deleteByProductIdIn(productIds);
+    }
+
+    @Override
+    public List<VariantAlertDto> findBySeller(String sellerId) {
+        return variantAlertRepository.findBySellerId(sellerId).stream()
+                .map(this::toDto)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void rebuildAll() {
+        log.info("[InventoryAlert] Rebuilding variant alerts, threshold={}", lowStockThreshold);
+        long start = System.currentTimeMillis();
+
+        Query query = new Query();
+        query.fields().include("sellerId", "name", "images", "variants");
+
+        long processed = 0;
+        try (var stream = mongoTemplate.stream(query, Product.class)) {
+            Iterator<Product> it = stream.iterator();
+            while (it.hasNext()) {
+                syncProduct(it.next());
+                processed++;
+            }
+        }
+
+        // syncProduct đã bỏ cảnh báo của biến thể không còn; còn lại cảnh báo của sản phẩm không còn tồn tại
+        long pruned = pruneOrphans();
+
+        log.info("[InventoryAlert] Rebuilt alerts for {} products, pruned {} orphaned alert(s) in {}ms",
+                processed, pruned, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Xoá cảnh báo có productId không còn trong products (sản phẩm bị xoá ngoài luồng dọn / sửa tay DB).
+     * Duyệt theo tập productId của variant_alerts (nhỏ) thay vì giữ toàn bộ id sản phẩm đã quét.
+     */
+    private long pruneOrphans() {
+        List<String> alertProductIds = mongoTemplate
+                .findDistinct(new Query(), "productId", VariantAlert.class, String.class)
+                .stream()
+                .filter(Objects::nonNull)
+                .toList();
+
+        long removed = 0;
+        for (int i = 0; i < alertProductIds.size(); i += PRUNE_CHUNK_SIZE) {
+            List<String> chunk = alertProductIds.subList(i, Math.min(i + PRUNE_CHUNK_SIZE, alertProductIds.size()));
+            Query existing = new Query(Criteria.where("_id").in(chunk));
+            existing.fields().include("_id");
+            Set<String> found = mongoTemplate.find(existing, Product.class).stream()
+                    .map(Product::getId)
+                    .collect(Collectors.toSet());
+
+            List<String> orphans = chunk.stream().filter(id -> !found.contains(id)).toList();
+            if (!orphans.isEmpty()) {
+                removed += mongoTemplate.remove(new Query(Criteria.where("productId").in(orphans)), VariantAlert.class)
+                        .getDeletedCount();
+            }
+        }
+        removed += mongoTemplate.remove(new Query(Criteria.where("productId").is(null)), VariantAlert.class)
+                .getDeletedCount();
+        return removed;
+    }
+
+    @Override
+    public int getLowStockThreshold() {
+        return lowStockThreshold;
+    }
+
+    // ========== Helper Methods ==========
+
+    private String alertTypeOf(int quantity) {
+        if (quantity <= 0) return OUT_OF_STOCK;
+        if (quantity <= lowStockThreshold) return LOW_STOCK;
+        return null;
+    }
+
+    private void publish(Product product, Variant variant, int quantity, String type) {
+        VariantAlertDto event = VariantAlertDto.builder()
+                .sellerId(product.getSellerId())
+                .productId(product.getId())
+                .productName(product.getName())
+                .imageUrl(firstImage(product))
+                .variantOptions(variant.options())
+                .variantLabel(formatVariantLabel(variant.options()))
+                .currentStock(quantity)
+                .alertType(type != null ? type : RESOLVED)
+                .message(messageOf(type, quantity))
+                .build();
+
+        kafkaTemplate.send(alertTopic, product.getSellerId(), event);
+        log.info("[InventoryAlert] {} for product {} (variant: {}), stock={}",
+                event.getAlertType(), product.getId(), variant.options(), quantity);
+
+        // dashboard đọc tập cảnh báo -> bỏ cache thống kê của seller
+        if (product.getSellerId() != null) {
+            eventPublisher.publishEvent(SellerProductChangedEvent.builder()
+                    .sellerId(product.getSellerId())
+                    .productId(product.getId())
+                    .build());
+        }
+    }
+
+    private VariantAlert buildAlert(Product product, Variant variant, int quantity, String type) {
+        return VariantAlert.builder()
+                .id(alertId(product.getId(), variant.options()))
+                .sellerId(product.getSellerId())
+                .productId(product.getId())
+                .productName(product.getName())
+                .imageUrl(firstImage(product))
+                .variantOptions(variant.options())
+                .variantLabel(formatVariantLabel(variant.options()))
+                .currentStock(quantity)
+                .alertType(type)
+                .message(messageOf(type, quantity))
+                .updatedAt(Instant.now())
+                .build();
+    }
+
+    private VariantAlertDto toDto(VariantAlert alert) {
+        return VariantAlertDto.builder()
+                .sellerId(alert.getSellerId())
+                .productId(alert.getProductId())
+                .productName(alert.getProductName())
+                .imageUrl(alert.getImageUrl())
+                .variantOptions(alert.getVariantOptions())
+                .variantLabel(alert.getVariantLabel())
+                .currentStock(alert.getCurrentStock())
+                .alertType(alert.getAlertType())
+                .message(alert.getMessage())
+                .build();
+    }
+
+    private String messageOf(String type, int quantity) {
+        if (OUT_OF_STOCK.equals(type)) return "Biến thể đã hết hàng";
+        if (LOW_STOCK.equals(type)) return String.format("Biến thể sắp hết hàng (còn %d)", quantity);
+        return String.format("Biến thể đã có hàng trở lại (còn %d)", quantity);
+    }
+
+    private Variant findVariant(Product product, Map<String, String> options) {
+        if (options == null) {
+            return null;
+        }
+        return product.getVariants().stream()
+                .filter(v -> v.options() != null && v.options().equals(options))
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Key ổn định cho biến thể: options sắp xếp theo tên -> "productId|Color=Red|Size=M"
+     */
+    private String alertId(String productId, Map<String, String> options) {
+        StringBuilder sb = new StringBuilder(productId);
+        if (options != null) {
+            new TreeMap<>(options).forEach((k, v) -> sb.append('|').append(k).append('=').append(v));
+        }
+        return sb.toString();
+    }
+
+    private String firstImage(Product product) {
+        return (product.getImages() != null && !product.getImages().isEmpty())
+                ? product.getImages().get(0).url()
+                : null;
+    }
+
+    private String formatVariantLabel(Map<String, String> options) {
+        if (options == null || options.isEmpty()) {
+            return "Không có biến thể";
+        }
+        return options.entrySet().stream()
+                .map(e -> e.getKey() + " " + e.getValue())
+                .collect(Collectors.joining(" - "));
+    }
+}
@@ -1,64 +1,520 @@
 // src/main/java/iuh/fit/se/service/impl/ProductIndexConsumer.java
 package iuh.fit.se.service.impl;
 
+import feign.FeignException;
+import iuh.fit.event.dto.GeminiIndexDeadLetter;
 import iuh.fit.event.dto.ProductIndexEvent;
 import iuh.fit.event.dto.ProductRemoveGeminiEvent;
 import iuh.fit.se.dto.request.*;
+import iuh.fit.se.entity.GeminiIndexState;
+import iuh.fit.se.entity.Product;
+import iuh.fit.se.entity.records.Image;
+import iuh.fit.se.entity.records.OptionDef;
+import iuh.fit.se.entity.records.Variant;
+import iuh.fit.se.repository.GeminiIndexStateRepository;
+import iuh.fit.se.repository.ProductRepository;
 import iuh.fit.se.repository.httpclient.GeminiClient;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
+/**
+ * Consumer index/remove Gemini.
+ *
+ * Index và remove của 1 sản phẩm đi chung topic product-index-request với key = productId, nên mọi ý định
+ * của sản phẩm nằm trên cùng 1 partition -> cùng 1 replica, đúng thứ tự gửi. Nhờ đó việc gộp (pending)
+ * và tuần tự hoá theo sản phẩm (inFlight) trong bộ nhớ của replica là đủ.
+ * Topic cũ product-remove-gemini-request chỉ còn được đọc để chuyển tiếp (có key) sang topic chung.
+ *
+ * Các event của cùng 1 productId trong cửa sổ debounce được gộp lại, chỉ giữ ý định cuối cùng
+ * (index hoặc remove), các event bị thay thế được bỏ. Khi index, nếu hash nội dung không đổi so với
+ * lần index thành công trước thì bỏ qua (embedding là lời gọi đắt nhất).
+ *
+ * Mỗi productId chỉ có tối đa 1 task đang chạy: ý định mới đến trong lúc đó được giữ trong pending
+ * và chỉ flush sau khi task trước xong, nên index chậm không thể chạy xong sau 1 remove mới hơn.
+ *
+ * Offset chỉ được ack sau khi task Gemini xong (kể cả các event đã bị gộp), nên restart không mất việc.
+ * geminiExecutor có queue giới hạn: khi đầy / quá nhiều ý định đang chờ thì tạm dừng listener (backpressure).
+ * Lỗi vĩnh viễn hoặc hết số lần thử -> đẩy sang topic product-index-dlt, chỉ ack khi broker đã xác nhận ghi.
+ */
 @Component
 @Slf4j
 @RequiredArgsConstructor
 public class ProductIndexConsumer {
 
+    static final String INDEX_LISTENER_ID = "gemini-index-listener";
+    static final String REMOVE_LISTENER_ID = "gemini-remove-listener";
+    static final String DEAD_LETTER_TOPIC = "product-index-dlt";
+    public static final String INDEX_TOPIC = "product-index-request";
+    static final String LEGACY_REMOVE_TOPIC = "product-remove-gemini-request";
+
     private final GeminiClient geminiClient;
     private final ExecutorService geminiExecutor;
+    private final GeminiRateLimiter geminiRateLimiter;
+    private final ProductRepository productRepository;
+    private final GeminiIndexStateRepository geminiIndexStateRepository;
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry;
+
+    @Value("${product.gemini.coalesce.debounce-ms:5000}")
+    private long debounceMs;
+
+    @Value("${product.gemini.backpressure.max-pending:1000}")
+    private int maxPending;
+
+    @Value("${product.gemini.retry.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${product.gemini.retry.backoff-ms:30000}")
+    private long retryBackoffMs;
+
+    @Value("${product.gemini.retry.dead-letter-timeout-ms:10000}")
+    private long deadLetterTimeoutMs;
 
-    @KafkaListener(topics = "product-index-request", groupId = "product-index-group")
-    public void handleIndexRequest(ProductIndexEvent event) {
-        log.info("Received INDEX request for product {}", event.getProductId());
-        geminiExecutor.submit(() -> processIndex(event));
+    // Ý định mới nhất theo productId, chờ hết cửa sổ debounce
+    private final Map<String, IndexIntent> pending = new ConcurrentHashMap<>();
+    // productId đang có task chạy trên geminiExecutor (chỉ sửa bên trong pending.compute của cùng key)
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final LongAdder superseded = new LongAdder();
+    private final LongAdder skippedUnchanged = new LongAdder();
+    private ScheduledExecutorService debounceScheduler;
+    private volatile boolean paused;
+
+    @PostConstruct
+    void init() {
+        debounceScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "gemini-index-debounce");
+            t.setDaemon(true);
+            return t;
+        });
+        // Listener có thể đang pause khi không còn task nào chạy -> kiểm tra định kỳ để resume
+        debounceScheduler.scheduleWithFixedDelay(this::resumeIfDrained, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        debounceScheduler.shutdownNow();
+    }
+
+    @KafkaListener(id = INDEX_LISTENER_ID, topics = INDEX_TOPIC, groupId = "product-index-group",
+            containerFactory = "geminiIndexListenerContainerFactory")
+    public void handleRequest(ConsumerRecord<String, Object> record, Acknowledgment ack) {
+        if (record.value() instanceof ProductIndexEvent event) {
+            log.info("Received INDEX request for product {}", event.getProductId());
+            enqueue(IndexIntent.of(event.getProductId(), IntentType.INDEX, event.isForceReindex(), ack));
+        } else if (record.value() instanceof ProductRemoveGeminiEvent event) {
+            log.info("Received REMOVE request for product {}", event.getProductId());
+            enqueue(IndexIntent.of(event.getProductId(), IntentType.REMOVE, false, ack));
+        } else {
+            log.warn("Unknown Gemini request on {} (key={}): {}", INDEX_TOPIC, record.key(), record.value());
+            ack.acknowledge();
+        }
     }
 
-    @KafkaListener(topics = "product-remove-gemini-request", groupId = "product-index-group")
-    public void handleRemoveRequest(ProductRemoveGeminiEvent event) {
-        log.info("Received REMOVE request for product {}", event.getProductId());
-        geminiExecutor.submit(() -> processRemove(event));
+    /**
+     * Event remove gửi trước khi gộp topic: chuyển tiếp sang topic chung với key = productId,
+     * chỉ ack khi broker đã xác nhận ghi
+     */
+    @KafkaListener(id = REMOVE_LISTENER_ID, topics = LEGACY_REMOVE_TOPIC, groupId = "product-index-group",
+            containerFactory = "geminiIndexListenerContainerFactory")
+    public void handleLegacyRemoveRequest(ProductRemoveGeminiEvent event, Acknowledgment ack) throws Exception {
+        kafkaTemplate.send(INDEX_TOPIC, event.getProductId(), event)
+                .get(deadLetterTimeoutMs, TimeUnit.MILLISECONDS);
+        ack.acknowledge();
+        log.info("Forwarded legacy REMOVE request for product {} to {}", event.getProductId(), INDEX_TOPIC);
     }
 
-    private void processIndex(ProductIndexEvent event) {
+    public long getCoalescedCount() {
+        return superseded.sum();
+    }
+
+    public long getSkippedUnchangedCount() {
+        return skippedUnchanged.sum();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    private void enqueue(IndexIntent intent) {
+        boolean[] scheduled = {false};
+        pending.compute(intent.productId(), (id, previous) -> {
+            if (previous == null) {
+                scheduled[0] = true;
+                return intent;
+            }
+            superseded.increment();
+            log.debug("Coalesced {} -> {} for product {}", previous.type(), intent.type(), id);
+            return previous.supersededBy(intent);
+        });
+        if (scheduled[0]) {
+            debounceScheduler.schedule(() -> flush(intent.productId()), debounceMs, TimeUnit.MILLISECONDS);
+        }
+        if (isSaturated()) {
+            pauseListeners();
+        }
+    }
+
+    private void flush(String productId) {
+        IndexIntent[] claimed = {null};
+        pending.compute(productId, (id, intent) -> {
+            if (intent == null || inFlight.contains(id)) {
+                return intent; // đang có task chạy -> giữ lại, flush khi task đó xong
+            }
+            inFlight.add(id);
+            claimed[0] = intent;
+            return null;
+        });
+        IndexIntent intent = claimed[0];
+        if (intent == null) {
+            return;
+        }
         try {
-            geminiClient.indexSingleProduct(IndexSingleProductRequest.builder()
-                    .product_id(event.getProductId())
-                    .force_reindex(event.isForceReindex())
-                    .build());
-            geminiClient.indexSingleProductImages(IndexSingleProductImagesRequest.builder()
-                    .product_id(event.getProductId())
-                    .force_reindex(event.isForceReindex())
-                    .build());
-            log.info("Successfully indexed product {} via Kafka", event.getProductId());
-        } catch (Exception e) {
-            log.error("Failed to index product {}: {}", event.getProductId(), e.getMessage(), e);
+            geminiExecutor.execute(() -> process(intent));
+        } catch (RejectedExecutionException e) {
+            log.warn("geminiExecutor saturated, delay {} for product {}", intent.type(), productId);
+            pauseListeners();
+            complete(productId, intent, debounceMs);
+        }
+    }
+
+    /**
+     * Task của productId kết thúc: bỏ khỏi inFlight, gộp ý định cần thử lại (nếu có) với ý định mới hơn
+     * đang chờ (ý định mới thắng) rồi lên lịch flush
+     */
+    private void complete(String productId, IndexIntent retry, long retryDelayMs) {
+        boolean[] scheduled = {false};
+        pending.compute(productId, (id, parked) -> {
+            inFlight.remove(id);
+            IndexIntent next = retry == null ? parked
+                    : parked == null ? retry : retry.supersededBy(parked);
+            scheduled[0] = next != null;
+            return next;
+        });
+        if (scheduled[0]) {
+            long delayMs = retry != null ? retryDelayMs : 0;
+            debounceScheduler.schedule(() -> flush(productId), delayMs, TimeUnit.MILLISECONDS);
         }
     }
 
-    private void processRemove(ProductRemoveGeminiEvent event) {
+    private void process(IndexIntent intent) {
+        IndexIntent retry = null;
         try {
-            geminiClient.removeSingleProduct(RemoveSingleProductRequest.builder()
-                    .product_id(event.getProductId())
-                    .build());
-            geminiClient.removeProductImages(RemoveProductImagesRequest.builder()
-                    .product_id(event.getProductId())
-                    .build());
-            log.info("Successfully removed product {} from Gemini via Kafka", event.getProductId());
+            if (intent.type() == IntentType.INDEX) {
+                processIndex(intent);
+            } else {
+                processRemove(intent);
+            }
+            intent.acknowledgeAll();
         } catch (Exception e) {
-            log.error("Failed to remove product {} from Gemini: {}", event.getProductId(), e.getMessage(), e);
+            int attempts = intent.attempts() + 1;
+            if (isPermanent(e) || attempts >= maxAttempts) {
+                log.error("{} product {} failed permanently after {} attempt(s): {}",
+                        intent.type(), intent.productId(), attempts, e.getMessage());
+                if (sendToDeadLetter(intent, attempts, e)) {
+                    intent.acknowledgeAll();
+                } else {
+                    // Chưa ghi được DLT -> không ack, giữ ý định để gửi lại sau
+                    retry = intent.withAttempts(intent.attempts());
+                }
+            } else {
+                log.warn("{} product {} failed (attempt {}/{}), retry in {}ms: {}",
+                        intent.type(), intent.productId(), attempts, maxAttempts, retryBackoffMs, e.getMessage());
+                retry = intent.withAttempts(attempts);
+            }
+        } finally {
+            complete(intent.productId(), retry, retryBackoffMs);
+            resumeIfDrained();
+        }
+    }
+
+    private void processIndex(IndexIntent intent) {
+        String productId = intent.productId();
+        Product product = productRepository.findById(productId).orElse(null);
+        if (product == null) {
+            log.info("Product {} no longer exists, skip Gemini index", productId);
+            return;
+        }
+
+        String textHash = textHash(product);
+        Map<String, String> imageHashes = imageHashes(product);
+        GeminiIndexState state = geminiIndexStateRepository.findById(productId).orElse(null);
+
+        // 1) Text: chỉ embed lại khi nội dung text đổi
+        boolean textChanged = state == null || !textHash.equals(state.getTextHash());
+        if (textChanged) {
+            geminiRateLimiter.run("indexSingleProduct", () ->
+                    geminiClient.indexSingleProduct(IndexSingleProductRequest.builder()
+                            .product_id(productId)
+                            .force_reindex(intent.forceReindex())
+                            .build()));
+        }
+
+        // 2) Ảnh: chưa có trạng thái trước -> index toàn bộ; có rồi -> chỉ upsert/remove các vị trí thay đổi
+        int imageCalls;
+        if (state == null || state.getImageHashes() == null) {
+            geminiRateLimiter.run("indexSingleProductImages", () ->
+                    geminiClient.indexSingleProductImages(IndexSingleProductImagesRequest.builder()
+                            .product_id(productId)
+                            .force_reindex(intent.forceReindex())
+                            .build()));
+            imageCalls = -1;
+        } else {
+            imageCalls = syncChangedImages(product, state.getImageHashes(), imageHashes);
+        }
+
+        if (!textChanged && imageCalls == 0) {
+            skippedUnchanged.increment();
+            log.info("Product {} content unchanged since last index, skip Gemini embedding", productId);
+            return;
+        }
+
+        geminiIndexStateRepository.save(GeminiIndexState.builder()
+                .productId(productId)
+                .textHash(textHash)
+                .imageHashes(imageHashes)
+                .indexedAt(Instant.now())
+                .build());
+        log.info("Successfully indexed product {} via Kafka (text={}, images={})", productId,
+                textChanged ? "reindexed" : "unchanged",
+                imageCalls < 0 ? "full" : imageCalls + " changed");
+    }
+
+    /**
+     * So sánh hash ảnh theo vị trí, chỉ gọi Gemini cho vị trí thêm mới / đổi ảnh / bị xoá
+     */
+    private int syncChangedImages(Product product, Map<String, String> previous, Map<String, String> current) {
+        String productId = product.getId();
+        int calls = 0;
+
+        if (product.getImages() != null) {
+            for (Image image : product.getImages()) {
+                String key = String.valueOf(image.position());
+                if (Objects.equals(previous.get(key), current.get(key))) {
+                    continue;
+                }
+                geminiRateLimiter.run("upsertSingleImageJson", () ->
+                        geminiClient.upsertSingleImageJson(UpsertSingleImageJsonRequest.builder()
+                                .product_id(productId)
+                                .position(image.position())
+                                .image_url(image.url())
+                                .build()));
+                calls++;
+            }
+        }
+
+        for (String key : previous.keySet()) {
+            if (current.containsKey(key)) {
+                continue;
+            }
+            geminiRateLimiter.run("removeSingleImage", () ->
+                    geminiClient.removeSingleImage(RemoveSingleImageRequest.builder()
+                            .product_id(productId)
+                            .position(Integer.valueOf(key))
+                            .build()));
+            calls++;
+        }
+        return calls;
+    }
+
+    private void processRemove(IndexIntent intent) {
+        String productId = intent.productId();
+        geminiRateLimiter.run("removeSingleProduct", () ->
+                geminiClient.removeSingleProduct(RemoveSingleProductRequest.builder()
+                        .product_id(productId)
+                        .build()));
+        geminiRateLimiter.run("removeProductImages", () ->
+                geminiClient.removeProductImages(RemoveProductImagesRequest.builder()
+                        .product_id(productId)
+                        .build()));
+        // Lần index sau phải embed lại từ đầu
+        geminiIndexStateRepository.deleteById(productId);
+        log.info("Successfully removed product {} from Gemini via Kafka", productId);
+    }
+
+    /**
+     * 4xx (trừ 408/429) là lỗi của chính request -> thử lại cũng vô ích
+     */
+    private boolean isPermanent(Exception e) {
+        if (e instanceof FeignException fe) {
+            int status = fe.status();
+            return status >= 400 && status < 500 && status != 408 && status != 429;
+        }
+        return false;
+    }
+
+    /**
+     * Chờ broker xác nhận đã ghi DLT trước khi ack, gửi lỗi -> false (offset chưa được commit)
+     */
+    private boolean sendToDeadLetter(IndexIntent intent, int attempts, Exception e) {
+        try {
+            kafkaTemplate.send(DEAD_LETTER_TOPIC, intent.productId(), GeminiIndexDeadLetter.builder()
+                            .productId(intent.productId())
+                            .action(intent.type().name())
+                            .forceReindex(intent.forceReindex())
+                            .attempts(attempts)
+                            .error(e.getMessage())
+                            .failedAt(Instant.now())
+                            .build())
+                    .get(deadLetterTimeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while sending product {} to {}", intent.productId(), DEAD_LETTER_TOPIC);
+            return false;
+        } catch (Exception sendError) {
+            log.error("Failed to send product {} to {}, will retry: {}",
+                    intent.productId(), DEAD_LETTER_TOPIC, sendError.getMessage());
+            return false;
+        }
+    }
+
+    // ========== Backpressure ==========
+
+    private boolean isSaturated() {
+        if (pending.size() >= maxPending) {
+            return true;
+        }
+        return geminiExecutor instanceof ThreadPoolExecutor tpe && tpe.getQueue().remainingCapacity() == 0;
+    }
+
+    private boolean isDrained() {
+        if (pending.size() > maxPending / 2) {
+            return false;
+        }
+        if (geminiExecutor instanceof ThreadPoolExecutor tpe) {
+            int size = tpe.getQueue().size();
+            return size <= (size + tpe.getQueue().remainingCapacity()) / 2;
+        }
+        return true;
+    }
+
+    private synchronized void pauseListeners() {
+        if (paused) {
+            return;
+        }
+        paused = true;
+        forEachListener(MessageListenerContainer::pause);
+        log.warn("Gemini pipeline saturated (pending={}) -> paused Kafka listeners", pending.size());
+    }
+
+    private synchronized void resumeIfDrained() {
+        if (!paused || !isDrained()) {
+            return;
+        }
+        paused = false;
+        forEachListener(MessageListenerContainer::resume);
+        log.info("Gemini pipeline drained (pending={}) -> resumed Kafka listeners", pending.size());
+    }
+
+    private void forEachListener(Consumer<MessageListenerContainer> action) {
+        for (String id : List.of(INDEX_LISTENER_ID, REMOVE_LISTENER_ID)) {
+            MessageListenerContainer container = kafkaListenerEndpointRegistry.getListenerContainer(id);
+            if (container != null) {
+                action.accept(container);
+            }
+        }
+    }
+
+    /**
+     * Hash phần text mà Gemini embed. Đổi giá/tồn kho không làm thay đổi hash.
+     */
+    private String textHash(Product product) {
+        StringBuilder sb = new StringBuilder()
+                .append(product.getName()).append('\u0001')
+                .append(product.getDescription()).append('\u0001')
+                .append(product.getCategoryId()).append('\u0001');
+        if (product.getOptionDefs() != null) {
+            for (OptionDef def : product.getOptionDefs()) {
+                sb.append(def.name()).append('=').append(def.values()).append(';');
+            }
+        }
+        sb.append('\u0001');
+        if (product.getVariants() != null) {
+            product.getVariants().stream()
+                    .map(Variant::options)
+                    .map(o -> o == null ? "" : new TreeMap<>(o).toString())
+                    .sorted()
+                    .forEach(o -> sb.append(o).append(';'));
+        }
+        return ImageHashing.sha256(sb.toString());
+    }
+
+    private Map<String, String> imageHashes(Product product) {
+        Map<String, String> hashes = new TreeMap<>();
+        if (product.getImages() != null) {
+            for (Image image : product.getImages()) {
+                if (image.position() != null) {
+                    hashes.put(String.valueOf(image.position()), ImageHashing.hashOf(image));
+                }
+            }
+        }
+        return hashes;
+    }
+
+    private enum IntentType { INDEX, REMOVE }
+
+    /**
+     * Ý định index/remove của 1 sản phẩm kèm ack của mọi event Kafka đã gộp vào nó
+     */
+    private record IndexIntent(String productId, IntentType type, boolean forceReindex,
+                               List<Acknowledgment> acks, int attempts) {
+
+        static IndexIntent of(String productId, IntentType type, boolean forceReindex, Acknowledgment ack) {
+            List<Acknowledgment> acks = new ArrayList<>();
+            if (ack != null) {
+                acks.add(ack);
+            }
+            return new IndexIntent(productId, type, forceReindex, acks, 0);
+        }
+
+        /**
+         * Ý định mới thắng; index nối tiếp index giữ cờ force của lần trước
+         */
+        IndexIntent supersededBy(IndexIntent newer) {
+            List<Acknowledgment> merged = new ArrayList<>(acks);
+            merged.addAll(newer.acks());
+            boolean force = newer.forceReindex()
+                    || (type == IntentType.INDEX && newer.type() == IntentType.INDEX && forceReindex);
+            return new IndexIntent(productId, newer.type(), force, merged, newer.attempts());
+        }
+
+        IndexIntent withAttempts(int attempts) {
+            return new IndexIntent(productId, type, forceReindex, acks, attempts);
+        }
+
+        void acknowledgeAll() {
+            acks.forEach(Acknowledgment::acknowledge);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,111 @@
+package iuh.fit.se.service.impl;
+
+import iuh.fit.event.dto.ProductInvalidNotify;
+import iuh.fit.se.entity.Product;
+import iuh.fit.se.service.SellerResolver;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gửi thông báo sản phẩm bị từ chối / tạm khoá cho seller.
+ * Email seller được resolve bất đồng bộ phía producer -> luồng kiểm duyệt không phải chờ user-service.
+ *
+ * Resolve seller hoặc gửi Kafka lỗi -> thử lại với backoff luỹ thừa (retry-backoff-ms, x2 mỗi lần)
+ * tới max-attempts; seller không tồn tại / không có email thì bỏ qua, không thử lại.
+ *
+ * product:
+ *   invalid-notify:
+ *     max-attempts: 5
+ *     retry-backoff-ms: 1000
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ProductInvalidNotifier {
+
+    private static final String TOPIC = "product-invalid-notify";
+
+    private final SellerResolver sellerResolver;
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+
+    @Value("${product.invalid-notify.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${product.invalid-notify.retry-backoff-ms:1000}")
+    private long retryBackoffMs;
+
+    private ScheduledExecutorService retryScheduler;
+
+    @PostConstruct
+    void init() {
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "invalid-notify-retry");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        retryScheduler.shutdownNow();
+    }
+
+    public void notifyAsync(Product product, String reason) {
+        send(new Notice(product.getId(), product.getName(), product.getSellerId(), reason), 1);
+    }
+
+    private void send(Notice notice, int attempt) {
+        sellerResolver.resolve(notice.sellerId())
+                .thenCompose(seller -> {
+                    if (seller == null || seller.getEmail() == null) {
+                        log.warn("Seller {} has no email, skip invalid notify for product {}",
+                                notice.sellerId(), notice.productId());
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return kafkaTemplate.send(TOPIC, ProductInvalidNotify.builder()
+                                    .productId(notice.productId())
+                                    .productName(notice.productName())
+                                    .reason(notice.reason())
+                                    .email(seller.getEmail())
+                                    .build())
+                            .thenAccept(result -> log.info("Sent invalid notify for product {} to seller {}",
+                                    notice.productId(), notice.sellerId()));
+                })
+                .exceptionally(ex -> {
+                    retry(notice, attempt, ex);
+                    return null;
+                });
+    }
+
+    private void retry(Notice notice, int attempt, Throwable cause) {
+        if (attempt >= maxAttempts) {
+            log.error("Failed to notify seller {} for product {} after {} attempt(s), giving up: {}",
+                    notice.sellerId(), notice.productId(), attempt, cause.getMessage());
+            return;
+        }
+        long delay = retryBackoffMs * (1L << Math.min(attempt - 1, 10));
+        log.warn("Failed to notify seller {} for product {} (attempt {}/{}), retry in {} ms: {}",
+                notice.sellerId(), notice.productId(), attempt, maxAttempts, delay, cause.getMessage());
+        try {
+            retryScheduler.schedule(() -> send(notice, attempt + 1), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Đang tắt
+            log.error("Failed to notify seller {} for product {}: retry not scheduled",
+                    notice.sellerId(), notice.productId());
+        }
+    }
+
+    private record Notice(String productId, String productName, String sellerId, String reason) {
+    }
+}
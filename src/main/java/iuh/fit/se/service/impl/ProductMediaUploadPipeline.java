@@ -0,0 +1,276 @@
+package iuh.fit.se.service.impl;
+
+import iuh.fit.event.dto.ProductMediaUploadedEvent;
+import iuh.fit.se.dto.request.DeleteRequest;
+import iuh.fit.se.dto.response.FileClientResponse;
+import iuh.fit.se.exception.AppException;
+import iuh.fit.se.exception.ErrorCode;
+import iuh.fit.se.repository.httpclient.FileClient;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Pipeline upload ảnh sản phẩm bất đồng bộ:
+ * 1. Request tạo sản phẩm spool ảnh xuống đĩa rồi trả về ngay (sản phẩm ở trạng thái PROCESSING)
+ * 2. Mỗi ảnh được upload riêng lên file-service, song song có giới hạn (mediaUploadExecutor)
+ * 3. Xong hết -> phát event product-media-uploaded để hoàn tất sản phẩm (ảnh, mediaByOption, index)
+ *
+ * Sản phẩm kẹt PROCESSING (replica chết giữa chừng, event mất) và file spool mồ côi
+ * được ProductMediaSweepJob dọn định kỳ.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class ProductMediaUploadPipeline {
+
+    public static final String MEDIA_UPLOADED_TOPIC = "product-media-uploaded";
+
+    static final String SPOOL_PREFIX = "upload-";
+    static final String SPOOL_SUFFIX = ".tmp";
+
+    FileClient fileClient;
+    KafkaTemplate<String, Object> kafkaTemplate;
+    ExecutorService mediaUploadExecutor;
+
+    // File spool đang chờ / đang upload trên replica này, sweeper không được xoá
+    Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+
+    @NonFinal
+    @Value("${product.media.spool-dir:${java.io.tmpdir}/product-media}")
+    String spoolDir;
+
+    /**
+     * Ghi ảnh của request xuống thư mục spool (chạy trên request thread, chỉ là copy local).
+     * Ảnh null / rỗng bị bỏ qua, các ảnh còn lại giữ nguyên thứ tự; index ảnh trong mediaByOption
+     * phải được đổi theo danh sách đã spool (ProductServiceImpl.createProduct làm việc này).
+     */
+    public List<SpooledMultipartFile> spool(List<MultipartFile> images) {
+        List<SpooledMultipartFile> spooled = new ArrayList<>();
+        try {
+            Path dir = Files.createDirectories(Paths.get(spoolDir));
+            for (MultipartFile image : images) {
+                if (isBlank(image)) {
+                    continue;
+                }
+                Path target = Files.createTempFile(dir, SPOOL_PREFIX, SPOOL_SUFFIX);
+                inFlight.add(target);
+                // Thêm vào danh sách trước khi copy -> copy lỗi thì discard vẫn xoá file này
+                spooled.add(new SpooledMultipartFile("files", image.getOriginalFilename(),
+                        image.getContentType(), target));
+                image.transferTo(target);
+            }
+            return spooled;
+        } catch (IOException e) {
+            log.error("Failed to spool images: {}", e.getMessage());
+            discard(spooled);
+            throw new AppException(ErrorCode.FILE_PROCESSING_ERROR);
+        }
+    }
+
+    /**
+     * Bắt đầu upload sau khi transaction tạo sản phẩm commit (nếu có), tránh event tới trước khi document tồn tại
+     */
+    public void submitAfterCommit(String productId, List<SpooledMultipartFile> files) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        submit(productId, files);
+                    } else {
+                        discard(files);
+                    }
+                }
+            });
+        } else {
+            submit(productId, files);
+        }
+    }
+
+    private void submit(String productId, List<SpooledMultipartFile> files) {
+        log.info("Uploading {} image(s) for product {} in background", files.size(), productId);
+        long start = System.currentTimeMillis();
+
+        List<CompletableFuture<String>> uploads = new ArrayList<>();
+        for (SpooledMultipartFile file : files) {
+            try {
+                uploads.add(CompletableFuture.supplyAsync(() -> uploadOne(file), mediaUploadExecutor));
+            } catch (RejectedExecutionException e) {
+                log.warn("Upload executor saturated, reject image {} of product {}", file.getOriginalFilename(), productId);
+                uploads.add(CompletableFuture.failedFuture(new AppException(ErrorCode.UPLOAD_FILE_FAILED)));
+            }
+        }
+
+        CompletableFuture.allOf(uploads.toArray(new CompletableFuture[0]))
+                .whenComplete((ignored, ex) -> {
+                    try {
+                        List<String> urls = uploads.stream()
+                                .filter(f -> !f.isCompletedExceptionally())
+                                .map(CompletableFuture::join)
+                                .toList();
+
+                        if (ex != null) {
+                            // 1 ảnh lỗi -> cả sản phẩm lỗi, dọn các ảnh đã lên S3
+                            cleanupUploaded(urls);
+                            publish(ProductMediaUploadedEvent.builder()
+                                    .productId(productId)
+                                    .success(false)
+                                    .errorCode(errorCodeOf(ex).name())
+                                    .build());
+                            return;
+                        }
+
+                        log.info("Uploaded {} image(s) for product {} in {}ms",
+                                urls.size(), productId, System.currentTimeMillis() - start);
+                        // Hash nội dung tính từ file spool (ảnh gốc) để index Gemini tăng dần
+                        List<String> hashes = files.stream()
+                                .map(ImageHashing::sha256)
+                                .toList();
+
+                        publish(ProductMediaUploadedEvent.builder()
+                                .productId(productId)
+                                .success(true)
+                                .urls(urls)
+                                .hashes(hashes)
+                                .build());
+                    } finally {
+                        discard(files);
+                    }
+                });
+    }
+
+    private String uploadOne(SpooledMultipartFile file) {
+        FileClientResponse response;
+        try {
+            response = fileClient.uploadFile(List.of(file));
+        } catch (feign.FeignException.BadRequest e) {
+            String errorMsg = e.contentUTF8();
+            log.error("File upload validation failed ({}): {}", file.getOriginalFilename(), errorMsg);
+            if (errorMsg.contains("inappropriate") || errorMsg.contains("not allowed")) {
+                throw new AppException(ErrorCode.IMAGE_CONTENT_NOT_ALLOWED);
+            } else if (errorMsg.contains("not valid") || errorMsg.contains("format")) {
+                throw new AppException(ErrorCode.FILE_NOT_VALID);
+            }
+            throw new AppException(ErrorCode.UPLOAD_FILE_FAILED);
+        } catch (feign.FeignException e) {
+            log.error("File service error: {}", e.getMessage());
+            throw new AppException(ErrorCode.FEIGN_CLIENT_ERROR);
+        }
+
+        if (response == null || response.getResult() == null || response.getResult().isEmpty()) {
+            throw new AppException(ErrorCode.FILE_PROCESSING_ERROR);
+        }
+        return response.getResult().get(0);
+    }
+
+    public static boolean isBlank(MultipartFile image) {
+        return image == null || image.isEmpty();
+    }
+
+    /**
+     * Sản phẩm PROCESSING quá hạn: phát event thất bại, finalizeProductMedia xử lý như upload lỗi
+     * (bỏ qua nếu sản phẩm đã hoàn tất, cùng key nên không đua với event thật)
+     */
+    public void publishUploadTimeout(String productId) {
+        publish(ProductMediaUploadedEvent.builder()
+                .productId(productId)
+                .success(false)
+                .errorCode(ErrorCode.MEDIA_UPLOAD_TIMEOUT.name())
+                .build());
+    }
+
+    /**
+     * Xoá file spool mồ côi (upload bị bỏ dở do restart / lỗi) cũ hơn olderThan, trừ file đang xử lý
+     *
+     * @return số file đã xoá
+     */
+    public int sweepSpool(Duration olderThan) {
+        Path dir = Paths.get(spoolDir);
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        Instant cutoff = Instant.now().minus(olderThan);
+        int deleted = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SPOOL_PREFIX + "*" + SPOOL_SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    if (!inFlight.contains(file)
+                            && Files.getLastModifiedTime(file).toInstant().isBefore(cutoff)
+                            && Files.deleteIfExists(file)) {
+                        deleted++;
+                    }
+                } catch (IOException e) {
+                    log.warn("Failed to sweep spooled file {}: {}", file, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to list spool dir {}: {}", dir, e.getMessage());
+        }
+        return deleted;
+    }
+
+    private void publish(ProductMediaUploadedEvent event) {
+        kafkaTemplate.send(MEDIA_UPLOADED_TOPIC, event.getProductId(), event);
+    }
+
+    private ErrorCode errorCodeOf(Throwable ex) {
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        if (cause instanceof AppException appException) {
+            return appException.getErrorCode();
+        }
+        log.error("Unexpected upload error: {}", cause.getMessage(), cause);
+        return ErrorCode.UPLOAD_FILE_FAILED;
+    }
+
+    private void cleanupUploaded(List<String> urls) {
+        List<String> toDelete = urls.stream().filter(Objects::nonNull).toList();
+        if (toDelete.isEmpty()) {
+            return;
+        }
+        try {
+            fileClient.deleteByUrl(DeleteRequest.builder().urls(toDelete).build());
+            log.info("Rolled back {} uploaded image(s)", toDelete.size());
+        } catch (Exception e) {
+            log.error("Failed to cleanup uploaded files: {}", e.getMessage());
+        }
+    }
+
+    public void discard(List<SpooledMultipartFile> files) {
+        for (SpooledMultipartFile file : files) {
+            try {
+                Files.deleteIfExists(file.getPath());
+            } catch (IOException e) {
+                log.warn("Failed to delete spooled file {}: {}", file.getPath(), e.getMessage());
+            } finally {
+                inFlight.remove(file.getPath());
+            }
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package iuh.fit.se.service.impl;
+
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SortOptions;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregation;
+import co.elastic.clients.elasticsearch._types.aggregations.StringTermsBucket;
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.Operator;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch._types.query_dsl.TextQueryType;
+import co.elastic.clients.json.JsonData;
+import iuh.fit.se.dto.request.ProductSearchRequest;
+import iuh.fit.se.dto.response.FacetBucket;
+import iuh.fit.se.dto.response.ProductResponse;
+import iuh.fit.se.dto.response.ProductSearchResponse;
+import iuh.fit.se.entity.ProductElastic;
+import iuh.fit.se.entity.enums.Status;
+import iuh.fit.se.exception.AppException;
+import iuh.fit.se.exception.ErrorCode;
+import iuh.fit.se.mapper.ProductMapper;
+import iuh.fit.se.mapper.ProductSearchFields;
+import iuh.fit.se.service.ProductSearchService;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.client.elc.ElasticsearchAggregation;
+import org.springframework.data.elasticsearch.client.elc.ElasticsearchAggregations;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Tìm kiếm sản phẩm có lọc / sắp xếp / phân trang, facet trả về cùng 1 lần gọi Elasticsearch.
+ *
+ * - Từ khoá: bool/multi_match (chấm điểm) trên originalName / description và các subfield bỏ dấu, n-gram, shingle
+ * - Người bán, trạng thái, giá, còn hàng: nằm trong filter context của query (không chấm điểm, được cache)
+ * - Danh mục, option: nằm trong post_filter -> facet của chính nhóm đó không bị bộ lọc của nó thu hẹp,
+ *   các giá trị cùng nhóm vẫn đếm được (chọn "Color:Red" vẫn thấy số lượng "Color:Blue")
+ * - Giá / option / tồn kho dùng các trường phẳng tính sẵn (minPrice, maxPrice, optionValues, inStock),
+ *   không cần nested query. Khoảng giá: khoảng [minPrice, maxPrice] của sản phẩm giao với khoảng lọc
+ * - Facet (filter aggregation): danh mục đếm theo các bộ lọc option; mỗi option đang lọc đếm theo danh mục +
+ *   các option khác; option chưa lọc và min/max giá đếm theo toàn bộ bộ lọc
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class ProductSearchServiceImpl implements ProductSearchService {
+
+    static final int MAX_PAGE_SIZE = 100;
+    static final int MAX_RESULT_WINDOW = 10_000;
+    static final int MAX_OPTION_BUCKETS = 500;
+    static final List<String> TEXT_FIELDS = List.of(
+            "originalName^3", "originalName.folded^2", "description", "description.folded^0.5");
+
+    ElasticsearchOperations elasticsearchOperations;
+    ProductMapper productMapper;
+
+    @Override
+    public ProductSearchResponse search(ProductSearchRequest request) {
+        int page = request.getPage() == null ? 0 : Math.max(0, request.getPage());
+        int size = request.getSize() == null ? 20 : Math.min(Math.max(1, request.getSize()), MAX_PAGE_SIZE);
+        if ((long) (page + 1) * size > MAX_RESULT_WINDOW) {
+            throw new AppException(ErrorCode.INVALID_ARGUMENT);
+        }
+
+        Query categoryFilter = request.getCategoryId() == null || request.getCategoryId().isBlank()
+                ? null
+                : Query.of(q -> q.term(t -> t.field("categoryId").value(request.getCategoryId())));
+        Map<String, Query> optionFilters = optionFilters(parseOptions(request.getOptions()));
+        List<String> filteredOptions = List.copyOf(optionFilters.keySet());
+
+        NativeQueryBuilder query = NativeQuery.builder()
+                .withQuery(buildQuery(request))
+                .withFilter(allOf(categoryFilter, optionFilters, null))
+                .withSort(buildSort(request))
+                .withPageable(PageRequest.of(page, size))
+                .withTrackTotalHits(true)
+                .withAggregation("categories", filtered(allOf(null, optionFilters, null), Aggregation.of(a -> a
+                        .terms(t -> t.field("categoryId").size(50)))))
+                .withAggregation("options", filtered(allOf(categoryFilter, optionFilters, null), optionTerms()))
+                .withAggregation("price", Aggregation.of(a -> a
+                        .filter(allOf(categoryFilter, optionFilters, null))
+                        .aggregations("min", m -> m.min(v -> v.field("minPrice")))
+                        .aggregations("max", m -> m.max(v -> v.field("maxPrice")))));
+        // Option đang lọc: đếm không tính bộ lọc của chính nó
+        for (int i = 0; i < filteredOptions.size(); i++) {
+            query.withAggregation("options_" + i,
+                    filtered(allOf(categoryFilter, optionFilters, filteredOptions.get(i)), optionTerms()));
+        }
+
+        SearchHits<ProductElastic> hits = elasticsearchOperations.search(query.build(), ProductElastic.class);
+
+        List<ProductResponse> items = hits.getSearchHits().stream()
+                .map(SearchHit::getContent)
+                .map(productMapper::toProductResponse)
+                .toList();
+
+        ProductSearchResponse.ProductSearchResponseBuilder response = ProductSearchResponse.builder()
+                .items(items)
+                .total(hits.getTotalHits())
+                .page(page)
+                .size(size);
+        readFacets(hits, filteredOptions, response);
+        return response.build();
+    }
+
+    @Override
+    public ProductSearchResponse deals(String categoryId, Double minDiscount, Integer page, Integer size) {
+        int pageNumber = page == null ? 0 : Math.max(0, page);
+        int pageSize = size == null ? 20 : Math.min(Math.max(1, size), MAX_PAGE_SIZE);
+        if ((long) (pageNumber + 1) * pageSize > MAX_RESULT_WINDOW) {
+            throw new AppException(ErrorCode.INVALID_ARGUMENT);
+        }
+
+        // Chỉ sản phẩm đang bán, còn hàng và có giảm giá (percentDiscount chỉ có khi compareAtPrice > price)
+        BoolQuery.Builder bool = new BoolQuery.Builder()
+                .filter(f -> f.term(t -> t.field("status").value(Status.AVAILABLE.name())))
+                .filter(f -> f.term(t -> t.field("inStock").value(true)))
+                .filter(f -> f.range(r -> r.field("percentDiscount")
+                        .gte(JsonData.of(minDiscount == null ? 0 : Math.max(0, minDiscount)))));
+        if (categoryId != null && !categoryId.isBlank()) {
+            bool.filter(f -> f.term(t -> t.field("categoryId").value(categoryId)));
+        }
+
+        NativeQuery query = NativeQuery.builder()
+                .withQuery(Query.of(q -> q.bool(bool.build())))
+                .withSort(SortOptions.of(s -> s.field(f -> f.field("percentDiscount").order(SortOrder.Desc))))
+                .withSort(SortOptions.of(s -> s.field(f -> f.field("soldCount").order(SortOrder.Desc))))
+                .withPageable(PageRequest.of(pageNumber, pageSize))
+                .withTrackTotalHits(true)
+                .build();
+
+        SearchHits<ProductElastic> hits = elasticsearchOperations.search(query, ProductElastic.class);
+        return ProductSearchResponse.builder()
+                .items(hits.getSearchHits().stream()
+                        .map(SearchHit::getContent)
+                        .map(productMapper::toProductResponse)
+                        .toList())
+                .total(hits.getTotalHits())
+                .page(pageNumber)
+                .size(pageSize)
+                .build();
+    }
+
+    private Query buildQuery(ProductSearchRequest request) {
+        BoolQuery.Builder bool = new BoolQuery.Builder();
+
+        if (request.getQ() != null && !request.getQ().isBlank()) {
+            bool.must(textQuery(request.getQ().trim()));
+        }
+
+        List<String> statuses = request.getStatus() == null || request.getStatus().isEmpty()
+                ? List.of(Status.AVAILABLE.name())
+                : request.getStatus();
+        bool.filter(f -> f.terms(t -> t
+                .field("status")
+                .terms(v -> v.value(statuses.stream().map(FieldValue::of).toList()))));
+
+        if (request.getSellerId() != null && !request.getSellerId().isBlank()) {
+            bool.filter(f -> f.term(t -> t.field("sellerId").value(request.getSellerId())));
+        }
+
+        // Giao khoảng: maxPrice >= min và minPrice <= max
+        if (request.getMinPrice() != null) {
+            bool.filter(f -> f.range(r -> r.field("maxPrice").gte(JsonData.of(request.getMinPrice()))));
+        }
+        if (request.getMaxPrice() != null) {
+            bool.filter(f -> f.range(r -> r.field("minPrice").lte(JsonData.of(request.getMaxPrice()))));
+        }
+
+        if (Boolean.TRUE.equals(request.getInStock())) {
+            bool.filter(f -> f.term(t -> t.field("inStock").value(true)));
+        }
+
+        return Query.of(q -> q.bool(bool.build()));
+    }
+
+    /**
+     * Cùng tên option -> OR các giá trị (1 terms query / tên); khác tên -> AND (xem allOf)
+     */
+    private Map<String, Query> optionFilters(Map<String, List<String>> options) {
+        Map<String, Query> filters = new LinkedHashMap<>();
+        options.forEach((name, values) -> filters.put(name, Query.of(q -> q.terms(t -> t
+                .field("optionValues")
+                .terms(v -> v.value(values.stream()
+                        .map(value -> FieldValue.of(ProductSearchFields.optionValue(name, value)))
+                        .toList()))))));
+        return filters;
+    }
+
+    /**
+     * AND của bộ lọc danh mục (nếu có) và các bộ lọc option, bỏ option {@code exceptOption}
+     */
+    private Query allOf(Query categoryFilter, Map<String, Query> optionFilters, String exceptOption) {
+        BoolQuery.Builder bool = new BoolQuery.Builder();
+        if (categoryFilter != null) {
+            bool.filter(categoryFilter);
+        }
+        optionFilters.forEach((name, filter) -> {
+            if (!name.equals(exceptOption)) {
+                bool.filter(filter);
+            }
+        });
+        return Query.of(q -> q.bool(bool.build()));
+    }
+
+    private Aggregation filtered(Query filter, Aggregation values) {
+        return Aggregation.of(a -> a.filter(filter).aggregations("values", values));
+    }
+
+    private Aggregation optionTerms() {
+        return Aggregation.of(a -> a.terms(t -> t.field("optionValues").size(MAX_OPTION_BUCKETS)));
+    }
+
+    /**
+     * Chấm điểm từ khoá trên các subfield của originalName / description (không dùng fuzziness):
+     * - có dấu khớp đúng điểm cao nhất, bản bỏ dấu (.folded) thấp hơn một chút
+     * - .shingle: cộng điểm khi khớp đúng cụm từ liền nhau
+     * - .prefix: từ cuối đang gõ dở ("dien tho") vẫn khớp
+     */
+    static Query textQuery(String text) {
+        return Query.of(q -> q.bool(b -> b
+                .should(s -> s.multiMatch(mm -> mm
+                        .query(text)
+                        .type(TextQueryType.BestFields)
+                        .tieBreaker(0.3)
+                        .fields(TEXT_FIELDS)))
+                .should(s -> s.match(m -> m
+                        .field("originalName.shingle")
+                        .query(text)
+                        .boost(2.0f)))
+                .should(s -> s.match(m -> m
+                        .field("originalName.prefix")
+                        .query(text)
+                        .operator(Operator.And)))
+                .minimumShouldMatch("1")));
+    }
+
+    private Map<String, List<String>> parseOptions(List<String> options) {
+        Map<String, List<String>> parsed = new LinkedHashMap<>();
+        if (options == null) {
+            return parsed;
+        }
+        for (String option : options) {
+            int sep = option == null ? -1 : option.indexOf(':');
+            if (sep <= 0 || sep == option.length() - 1) {
+                throw new AppException(ErrorCode.INVALID_ARGUMENT);
+            }
+            parsed.computeIfAbsent(option.substring(0, sep).trim(), k -> new ArrayList<>())
+                    .add(option.substring(sep + 1).trim());
+        }
+        return parsed;
+    }
+
+    private SortOptions buildSort(ProductSearchRequest request) {
+        boolean hasText = request.getQ() != null && !request.getQ().isBlank();
+        String sort = request.getSort() == null ? (hasText ? "relevance" : "newest") : request.getSort();
+
+        return switch (sort) {
+            case "relevance" -> SortOptions.of(s -> s.score(sc -> sc.order(SortOrder.Desc)));
+            case "price_asc" -> SortOptions.of(s -> s.field(f -> f.field("minPrice").order(SortOrder.Asc)));
+            case "price_desc" -> SortOptions.of(s -> s.field(f -> f.field("maxPrice").order(SortOrder.Desc)));
+            case "sold" -> SortOptions.of(s -> s.field(f -> f.field("soldCount").order(SortOrder.Desc)));
+            case "newest" -> SortOptions.of(s -> s.field(f -> f.field("createdAt").order(SortOrder.Desc)));
+            default -> throw new AppException(ErrorCode.INVALID_ARGUMENT);
+        };
+    }
+
+    private void readFacets(SearchHits<ProductElastic> hits, List<String> filteredOptions,
+                            ProductSearchResponse.ProductSearchResponseBuilder response) {
+        if (!(hits.getAggregations() instanceof ElasticsearchAggregations aggregations)) {
+            return;
+        }
+        Map<String, ElasticsearchAggregation> byName = aggregations.aggregationsAsMap();
+
+        ElasticsearchAggregation categories = byName.get("categories");
+        if (categories != null) {
+            response.categories(toBuckets(values(categories)));
+        }
+
+        // "Tên:Giá trị" -> nhóm theo tên option; option đang lọc lấy từ aggregation riêng của nó
+        ElasticsearchAggregation options = byName.get("options");
+        if (options != null) {
+            Map<String, List<FacetBucket>> facets = new LinkedHashMap<>();
+            addOptionBuckets(values(options), name -> !filteredOptions.contains(name), facets);
+            for (int i = 0; i < filteredOptions.size(); i++) {
+                String filtered = filteredOptions.get(i);
+                ElasticsearchAggregation own = byName.get("options_" + i);
+                if (own != null) {
+                    addOptionBuckets(values(own), filtered::equals, facets);
+                }
+            }
+            response.options(facets);
+        }
+
+        ElasticsearchAggregation price = byName.get("price");
+        if (price != null) {
+            Map<String, Aggregate> bounds = price.aggregation().getAggregate().filter().aggregations();
+            response.minPrice(finite(bounds.get("min").min().value()));
+            response.maxPrice(finite(bounds.get("max").max().value()));
+        }
+    }
+
+    private Aggregate values(ElasticsearchAggregation aggregation) {
+        return aggregation.aggregation().getAggregate().filter().aggregations().get("values");
+    }
+
+    private void addOptionBuckets(Aggregate aggregate, Predicate<String> accept,
+                                  Map<String, List<FacetBucket>> facets) {
+        for (StringTermsBucket bucket : aggregate.sterms().buckets().array()) {
+            String key = bucket.key().stringValue();
+            int sep = key.indexOf(':');
+            if (sep <= 0 || !accept.test(key.substring(0, sep))) {
+                continue;
+            }
+            facets.computeIfAbsent(key.substring(0, sep), k -> new ArrayList<>())
+                    .add(FacetBucket.builder()
+                            .value(key.substring(sep + 1))
+                            .count(bucket.docCount())
+                            .build());
+        }
+    }
+
+    private List<FacetBucket> toBuckets(Aggregate aggregate) {
+        return aggregate.sterms().buckets().array().stream()
+                .map(bucket -> FacetBucket.builder()
+                        .value(bucket.key().stringValue())
+                        .count(bucket.docCount())
+                        .build())
+                .toList();
+    }
+
+    // Tập rỗng -> min/max trả về Infinity
+    private Double finite(double value) {
+        return Double.isFinite(value) ? value : null;
+    }
+}
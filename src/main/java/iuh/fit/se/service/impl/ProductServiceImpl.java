@@ -3,7 +3,6 @@ package iuh.fit.se.service.impl;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
 import co.elastic.clients.elasticsearch.core.search.Suggestion;
-import feign.FeignException;
 import iuh.fit.event.dto.*;
 import iuh.fit.se.dto.request.*;
 import iuh.fit.se.dto.response.*;
@@ -16,12 +15,13 @@ import iuh.fit.se.entity.records.Variant;
 import iuh.fit.se.exception.AppException;
 import iuh.fit.se.exception.ErrorCode;
 import iuh.fit.se.mapper.ProductMapper;
+import iuh.fit.se.mapper.ProductSearchFields;
 import iuh.fit.se.repository.ProductElasticRepository;
 import iuh.fit.se.repository.ProductRepository;
 import iuh.fit.se.repository.httpclient.FileClient;
-import iuh.fit.se.repository.httpclient.GeminiClient;
-import iuh.fit.se.repository.httpclient.UserClient;
+import iuh.fit.se.service.InventoryAlertService;
 import iuh.fit.se.service.ProductService;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
@@ -29,6 +29,8 @@ import lombok.experimental.FieldDefaults;
 import lombok.experimental.NonFinal;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.FindAndReplaceOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
@@ -39,9 +41,11 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.text.Normalizer;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -60,9 +64,42 @@ public class ProductServiceImpl implements ProductService {
     FileClient fileClient;
     MongoTemplate mongoTemplate;
     KafkaTemplate<String, Object> kafkaTemplate;
-    UserClient userClient;
-    GeminiClient geminiClient;
-    private final ExecutorService geminiExecutor;
+    ProductInvalidNotifier productInvalidNotifier;
+    ProductMediaUploadPipeline productMediaUploadPipeline;
+    ApplicationEventPublisher eventPublisher;
+    InventoryAlertService inventoryAlertService;
+    ProductStockIndexer productStockIndexer;
+    ExecutorService suggestExecutor;
+
+    // --- Cache gợi ý theo prefix đã chuẩn hoá (+ danh mục) ---
+    @NonFinal
+    @Value("${product.suggest.size:8}")
+    int suggestSize;
+
+    @NonFinal
+    @Value("${product.suggest.cache.ttl-seconds:60}")
+    long suggestCacheTtlSeconds;
+
+    @NonFinal
+    @Value("${product.suggest.cache.stale-seconds:300}")
+    long suggestCacheStaleSeconds;
+
+    @NonFinal
+    @Value("${product.suggest.cache.max-entries:10000}")
+    int suggestCacheMaxEntries;
+
+    @NonFinal
+    StaleWhileRevalidateCache<SuggestKey, List<String>> suggestCache;
+
+    @PostConstruct
+    void initSuggestCache() {
+        suggestCache = new StaleWhileRevalidateCache<>(
+                "product-suggest",
+                suggestCacheTtlSeconds * 1000,
+                suggestCacheStaleSeconds * 1000,
+                suggestCacheMaxEntries,
+                suggestExecutor);
+    }
 
     @Override
     public ProductResponse findById(String id) {
@@ -80,115 +117,122 @@ public class ProductServiceImpl implements ProductService {
             throw new AppException(ErrorCode.FILE_NOT_EMPTY);
         }
 
-        // Validate mediaByOption reference hợp lệ
-        if (request.getMediaByOption() != null) {
-            for (OptionMediaGroup media : request.getMediaByOption()) {
-                int imageIndex = parseImageIndex(media.image());
-                if (imageIndex < 0 || imageIndex >= images.size()) {
-                    throw new AppException(ErrorCode.INVALID_IMAGE_INDEX);
-                }
-            }
+        // Validate mediaByOption reference hợp lệ, đổi index theo danh sách ảnh sẽ được spool
+        List<OptionMediaGroup> mediaByOption = remapImageIndexes(request.getMediaByOption(), images);
+
+        // 2. Spool ảnh xuống đĩa, giải phóng buffer của request
+        List<SpooledMultipartFile> spooled = productMediaUploadPipeline.spool(images);
+        if (spooled.isEmpty()) {
+            throw new AppException(ErrorCode.FILE_NOT_EMPTY);
         }
 
-        List<String> uploadedUrls = null;
+        // 3. Map DTO -> Entity. Ảnh chưa có URL: mediaByOption tạm giữ index ảnh,
+        //    sẽ được map sang URL khi upload xong (finalizeProductMedia)
+        Product product = productMapper.toProduct(request);
+        product.setImages(new ArrayList<>());
+        product.setMediaByOption(mediaByOption);
+        product.setStatus(Status.PROCESSING);
+        product.setViewCount(0);
+        product.setSoldCount(0);
 
+        // 4. Lưu DB
         try {
-            // 2. Upload TẤT CẢ ảnh lên AWS
-            log.info("Uploading {} image(s) to file service", images.size());
-            FileClientResponse fileClientResponse;
-
-            try {
-                fileClientResponse = fileClient.uploadFile(images);
-            } catch (feign.FeignException.BadRequest e) {
-                String errorMsg = e.contentUTF8();
-                log.error("File upload validation failed: {}", errorMsg);
-
-                if (errorMsg.contains("inappropriate") || errorMsg.contains("not allowed")) {
-                    throw new AppException(ErrorCode.IMAGE_CONTENT_NOT_ALLOWED);
-                } else if (errorMsg.contains("not valid") || errorMsg.contains("format")) {
-                    throw new AppException(ErrorCode.FILE_NOT_VALID);
-                }
-                throw new AppException(ErrorCode.UPLOAD_FILE_FAILED);
-            } catch (feign.FeignException e) {
-                log.error("File service error: {}", e.getMessage());
-                throw new AppException(ErrorCode.FEIGN_CLIENT_ERROR);
-            }
-
-            if (fileClientResponse == null || fileClientResponse.getResult() == null) {
-                throw new AppException(ErrorCode.FILE_PROCESSING_ERROR);
-            }
-
-            uploadedUrls = fileClientResponse.getResult();
-
-            if (uploadedUrls.isEmpty()) {
-                throw new AppException(ErrorCode.FILE_PROCESSING_ERROR);
-            }
+            product = productRepository.save(product);
+        } catch (RuntimeException e) {
+            productMediaUploadPipeline.discard(spooled);
+            throw e;
+        }
+        log.info("Product saved to database with ID: {} (PROCESSING)", product.getId());
 
-            log.info("Successfully uploaded {} image(s)", uploadedUrls.size());
+        // 5. Upload từng ảnh song song ở background
+        productMediaUploadPipeline.submitAfterCommit(product.getId(), spooled);
+        publishSellerProductChanged(product.getSellerId(), product.getId());
+        return productMapper.toProductResponse(product);
+    }
 
-            // 3. Tạo danh sách Image TỔNG (tất cả ảnh của sản phẩm)
-            List<Image> allImages = new ArrayList<>();
-            for (int i = 0; i < uploadedUrls.size(); i++) {
-                allImages.add(Image.builder()
-                        .url(uploadedUrls.get(i))
-                        .position(i + 1)
-                        .build());
+    @Override
+    public void finalizeProductMedia(ProductMediaUploadedEvent event) {
+        Product product = productRepository.findById(event.getProductId()).orElse(null);
+        if (product == null) {
+            log.warn("Product {} not found when finalizing media", event.getProductId());
+            if (event.isSuccess() && event.getUrls() != null) {
+                cleanupUploadedFiles(event.getUrls());
             }
-
-            // 4. Map mediaByOption: từ imageIndex -> URL thực tế
-            List<OptionMediaGroup> mappedMediaByOption = new ArrayList<>();
-            if (request.getMediaByOption() != null) {
-                for (OptionMediaGroup mediaGroup : request.getMediaByOption()) {
-                    int imageIndex = parseImageIndex(mediaGroup.image());
-
-                    // Lấy URL từ uploadedUrls theo index
-                    String imageUrl = uploadedUrls.get(imageIndex);
-
-                    mappedMediaByOption.add(OptionMediaGroup.builder()
-                            .optionName(mediaGroup.optionName())
-                            .optionValue(mediaGroup.optionValue())
-                            .image(imageUrl)  // URL đầy đủ
-                            .build());
+            return;
+        }
+        if (product.getStatus() != Status.PROCESSING) {
+            log.info("Product {} is {} -> media already finalized, skip", product.getId(), product.getStatus());
+            // Upload xong sau khi sản phẩm đã bị đánh lỗi (quá hạn) -> ảnh không được dùng, dọn khỏi S3
+            if (event.isSuccess() && event.getUrls() != null) {
+                Set<String> current = product.getImages() == null ? Set.of() : product.getImages().stream()
+                        .map(Image::url)
+                        .collect(Collectors.toSet());
+                List<String> orphaned = event.getUrls().stream()
+                        .filter(url -> !current.contains(url))
+                        .toList();
+                if (!orphaned.isEmpty()) {
+                    cleanupUploadedFiles(orphaned);
                 }
             }
+            return;
+        }
 
-            // 5. Map DTO -> Entity
-            Product product = productMapper.toProduct(request);
-            product.setImages(allImages);  // TẤT CẢ ảnh
-            product.setMediaByOption(mappedMediaByOption);  // Ánh xạ ảnh -> option
-            product.setStatus(Status.AVAILABLE);
-            product.setViewCount(0);
-            product.setSoldCount(0);
+        if (!event.isSuccess()) {
+            log.warn("Image upload failed for product {}: {}", product.getId(), event.getErrorCode());
+            product.setStatus(Status.DISCONTINUED);
+            product.setReasonDelete(event.getErrorCode());
+            product.setDeleteAt(Instant.now());
+            productRepository.save(product);
+            publishSellerProductChanged(product.getSellerId(), product.getId());
+            return;
+        }
 
-            // 6. Lưu DB
-            product = productRepository.save(product);
-            log.info("Product saved to database with ID: {}", product.getId());
+        List<String> uploadedUrls = event.getUrls();
 
-            // 7. Lưu elasticsearch
-            ProductElastic productElastic = productElasticRepository.save(
-                    productMapper.toProductElastic(product)
-            );
-            log.info("Product indexed in Elasticsearch with ID: {}", productElastic.getId());
-            kafkaTemplate.send("product-index-request", ProductIndexEvent.builder()
-                    .productId(product.getId())
-                    .forceReindex(true)
+        // Tạo danh sách Image TỔNG (tất cả ảnh của sản phẩm)
+        List<Image> allImages = new ArrayList<>();
+        List<String> hashes = event.getHashes();
+        for (int i = 0; i < uploadedUrls.size(); i++) {
+            allImages.add(Image.builder()
+                    .url(uploadedUrls.get(i))
+                    .position(i + 1)
+                    .hash(hashes != null && i < hashes.size() ? hashes.get(i) : null)
                     .build());
-            log.info("Sent index request for product {}", product.getId());
-            return productMapper.toProductResponse(product);
+        }
 
-        } catch (AppException e) {
-            if (uploadedUrls != null && !uploadedUrls.isEmpty()) {
-                log.warn("Rolling back uploaded files due to error: {}", e.getMessage());
-                cleanupUploadedFiles(uploadedUrls);
-            }
-            throw e;
-        } catch (Exception e) {
-            if (uploadedUrls != null && !uploadedUrls.isEmpty()) {
-                log.error("Unexpected error, rolling back uploaded files", e);
-                cleanupUploadedFiles(uploadedUrls);
+        // Map mediaByOption: từ imageIndex -> URL thực tế
+        List<OptionMediaGroup> mappedMediaByOption = new ArrayList<>();
+        if (product.getMediaByOption() != null) {
+            for (OptionMediaGroup mediaGroup : product.getMediaByOption()) {
+                int imageIndex = parseImageIndex(mediaGroup.image());
+                if (imageIndex < 0 || imageIndex >= uploadedUrls.size()) {
+                    log.warn("Drop mediaByOption {}={} with invalid image ref {}",
+                            mediaGroup.optionName(), mediaGroup.optionValue(), mediaGroup.image());
+                    continue;
+                }
+                mappedMediaByOption.add(OptionMediaGroup.builder()
+                        .optionName(mediaGroup.optionName())
+                        .optionValue(mediaGroup.optionValue())
+                        .image(uploadedUrls.get(imageIndex))
+                        .build());
             }
-            throw new AppException(ErrorCode.FILE_PROCESSING_ERROR);
         }
+
+        product.setImages(allImages);
+        product.setMediaByOption(mappedMediaByOption);
+        product.setStatus(Status.AVAILABLE);
+        product = productRepository.save(product);
+        log.info("Finalized {} image(s) for product {}", allImages.size(), product.getId());
+
+        // Lưu elasticsearch
+        ProductElastic productElastic = productElasticRepository.save(
+                productMapper.toProductElastic(product)
+        );
+        log.info("Product indexed in Elasticsearch with ID: {}", productElastic.getId());
+        requestGeminiIndex(product.getId());
+        log.info("Sent index request for product {}", product.getId());
+        publishSellerProductChanged(product.getSellerId(), product.getId());
+        inventoryAlertService.syncProduct(product);
     }
 
     /**
@@ -208,6 +252,35 @@ public class ProductServiceImpl implements ProductService {
         }
     }
 
+    /**
+     * Ảnh null / rỗng không được spool (ProductMediaUploadPipeline.spool) -> index trong request
+     * phải đổi sang vị trí trong danh sách đã spool, nếu không mediaByOption sẽ trỏ lệch ảnh
+     */
+    private List<OptionMediaGroup> remapImageIndexes(List<OptionMediaGroup> mediaByOption, List<MultipartFile> images) {
+        if (mediaByOption == null) {
+            return new ArrayList<>();
+        }
+        int[] spooledIndex = new int[images.size()];
+        int next = 0;
+        for (int i = 0; i < images.size(); i++) {
+            spooledIndex[i] = ProductMediaUploadPipeline.isBlank(images.get(i)) ? -1 : next++;
+        }
+
+        List<OptionMediaGroup> remapped = new ArrayList<>(mediaByOption.size());
+        for (OptionMediaGroup media : mediaByOption) {
+            int imageIndex = parseImageIndex(media.image());
+            if (imageIndex < 0 || imageIndex >= images.size() || spooledIndex[imageIndex] < 0) {
+                throw new AppException(ErrorCode.INVALID_IMAGE_INDEX);
+            }
+            remapped.add(OptionMediaGroup.builder()
+                    .optionName(media.optionName())
+                    .optionValue(media.optionValue())
+                    .image(String.valueOf(spooledIndex[imageIndex]))
+                    .build());
+        }
+        return remapped;
+    }
+
     private int parseImageIndex(String imageRef) {
         if (imageRef == null || imageRef.isEmpty()) {
             return -1;
@@ -226,6 +299,10 @@ public class ProductServiceImpl implements ProductService {
     public ProductResponse updateProduct(ProductUpdateRequest request, List<MultipartFile> images) {
         Product product = productRepository.findById(request.getId())
                 .orElseThrow(() -> new AppException(ErrorCode.PRODUCT_NOT_FOUND));
+        // Ảnh đang upload: finalizeProductMedia sẽ ghi đè images / mediaByOption -> chờ xong mới cho sửa
+        if (product.getStatus() == Status.PROCESSING) {
+            throw new AppException(ErrorCode.PRODUCT_MEDIA_PROCESSING);
+        }
 
         // 0) Lọc file hợp lệ
         List<MultipartFile> validFiles = (images == null) ? List.of()
@@ -244,7 +321,7 @@ public class ProductServiceImpl implements ProductService {
         List<Image> normalized = new ArrayList<>(working.size());
         for (int i = 0; i < working.size(); i++) {
             Image img = working.get(i);
-            normalized.add(Image.builder().url(img.url()).position(i + 1).build());
+            normalized.add(Image.builder().url(img.url()).position(i + 1).hash(img.hash()).build());
         }
         working = normalized;
 
@@ -294,15 +371,16 @@ public class ProductServiceImpl implements ProductService {
                 throw new AppException(ErrorCode.FILE_PROCESSING_ERROR);
             }
             int nextPos = working.size() + 1;
-            for (String url : urls) {
-                working.add(Image.builder().url(url).position(nextPos++).build());
+            for (int i = 0; i < urls.size(); i++) {
+                String hash = i < validFiles.size() ? ImageHashing.sha256(validFiles.get(i)) : null;
+                working.add(Image.builder().url(urls.get(i)).position(nextPos++).hash(hash).build());
             }
         }
 
         // 4) Normalize lại position 1..n lần cuối
         List<Image> finalImages = new ArrayList<>(working.size());
         for (int i = 0; i < working.size(); i++) {
-            finalImages.add(Image.builder().url(working.get(i).url()).position(i + 1).build());
+            finalImages.add(Image.builder().url(working.get(i).url()).position(i + 1).hash(working.get(i).hash()).build());
         }
         product.setImages(finalImages);
 
@@ -318,7 +396,7 @@ public class ProductServiceImpl implements ProductService {
         if (request.getStatus() != null) product.setStatus(request.getStatus());
         if (request.getCategoryId() != null) product.setCategoryId(request.getCategoryId());
         if (request.getOptionDefs() != null) product.setOptionDefs(request.getOptionDefs());
-        if (request.getVariants() != null) product.setVariants(request.getVariants());
+        if (request.getVariants() != null) product.setVariants(keepReserved(product.getVariants(), request.getVariants()));
 
         // 6) **XỬ LÝ mediaByOption THÔNG MINH**
         if (request.getMediaByOption() != null) {
@@ -375,11 +453,10 @@ public class ProductServiceImpl implements ProductService {
                 .upsert();     // Only update, do not create a new document
 
         Product saved = mongoTemplate.findAndReplace(query, product, options, "products");
-        kafkaTemplate.send("product-index-request", ProductIndexEvent.builder()
-                .productId(saved.getId())
-                .forceReindex(true)
-                .build());
+        requestGeminiIndex(saved.getId());
         log.info("Sent index update request for product {}", saved.getId());
+        publishSellerProductChanged(saved.getSellerId(), saved.getId());
+        inventoryAlertService.syncProduct(saved);
 
         log.info("Updated product {}. images={}, optionDefs={}, mediaByOption={}, variants={}",
                 saved.getId(),
@@ -392,6 +469,51 @@ public class ProductServiceImpl implements ProductService {
         return productMapper.toProductResponse(saved);
     }
 
+    @Override
+    public ProductResponse updateVariantPrices(VariantPriceUpdateRequest request) {
+        Product snapshot = productRepository.findById(request.getProductId())
+                .orElseThrow(() -> new AppException(ErrorCode.PRODUCT_NOT_FOUND));
+        if (snapshot.getStatus() == Status.PROCESSING) {
+            throw new AppException(ErrorCode.PRODUCT_MEDIA_PROCESSING);
+        }
+
+        List<Criteria> guards = new ArrayList<>();
+        guards.add(Criteria.where("_id").is(request.getProductId()));
+        Update update = new Update().inc("version", 1).set("updatedAt", Instant.now());
+        int i = 0;
+        for (VariantPriceUpdateRequest.VariantPrice variant : request.getVariants()) {
+            if (variant.getCompareAtPrice() != null && variant.getCompareAtPrice().compareTo(variant.getPrice()) < 0) {
+                throw new AppException(ErrorCode.INVALID_ARGUMENT);
+            }
+            // Mỗi entry phải khớp đúng 1 variant (options đầy đủ), tránh arrayFilter sửa giá nhiều variant
+            if (VariantMatching.resolve(snapshot, variant.getOptions()) == null) {
+                throw new AppException(ErrorCode.VARIANT_NOT_FOUND);
+            }
+            String id = "v" + i++;
+            guards.add(Criteria.where("variants").elemMatch(VariantMatching.elemMatch(variant.getOptions())));
+            update.set("variants.$[" + id + "].price", variant.getPrice());
+            update.set("variants.$[" + id + "].compareAtPrice", variant.getCompareAtPrice());
+            update.filterArray(VariantMatching.arrayFilter(id, variant.getOptions()));
+        }
+
+        Product updated = mongoTemplate.findAndModify(
+                new Query(new Criteria().andOperator(guards.toArray(new Criteria[0]))), update,
+                FindAndModifyOptions.options().returnNew(true), Product.class);
+        if (updated == null) {
+            // Sản phẩm bị xoá hoặc variant bị đổi giữa lúc đọc và lúc ghi
+            if (!productRepository.existsById(request.getProductId())) {
+                throw new AppException(ErrorCode.PRODUCT_NOT_FOUND);
+            }
+            throw new AppException(ErrorCode.VARIANT_NOT_FOUND);
+        }
+
+        // Chỉ đổi giá: partial update variants + minPrice / maxPrice / percentDiscount / bestDeal trên ES
+        productStockIndexer.syncVariants(updated);
+        publishSellerProductChanged(updated.getSellerId(), updated.getId());
+        log.info("Updated prices of {} variant(s) for product {}", request.getVariants().size(), updated.getId());
+        return productMapper.toProductResponse(updated);
+    }
+
     /**
      * Resolve 'image' trong mediaByOption thành URL hợp lệ dựa trên danh sách ảnh hiện có.
      * Hỗ trợ cả:
@@ -427,37 +549,39 @@ public class ProductServiceImpl implements ProductService {
     @Override
     public void deleteProduct(ProductInvalid productInvalid) {
         Product product = productRepository.findById(productInvalid.getProductId()).orElseThrow(() -> new AppException(ErrorCode.PRODUCT_NOT_FOUND));
+        // Ảnh đang upload: đổi trạng thái lúc này thì finalizeProductMedia coi ảnh là mồ côi và xoá khỏi S3
+        if (product.getStatus() == Status.PROCESSING) {
+            throw new AppException(ErrorCode.PRODUCT_MEDIA_PROCESSING);
+        }
         product.setStatus(Status.SUSPENDED);
         product.setReUpdate(true);
 //        product.setReasonDelete(productInvalid.getReason());
 //        product.setDeleteAt(Instant.now());
         productRepository.save(product);
         productElasticRepository.deleteById(productInvalid.getProductId());
-        kafkaTemplate.send("product-remove-gemini-request", ProductRemoveGeminiEvent.builder()
-                .productId(product.getId())
-                .build());
+        invalidateSuggestions();
+        requestGeminiRemoval(product.getId());
         log.info("Sent remove Gemini request for product {}", product.getId());
-        ApiResponse<SellerResponse> seller = userClient.searchBySellerId(product.getSellerId());
-        kafkaTemplate.send("product-invalid-notify", ProductInvalidNotify.builder()
-                .productId(product.getId())
-                .productName(product.getName())
-                .reason(productInvalid.getReason())
-                .email(seller.getResult().getEmail())
-                .build());
+        productInvalidNotifier.notifyAsync(product, productInvalid.getReason());
+        publishSellerProductChanged(product.getSellerId(), product.getId());
     }
 
     @Override
     public void deleteProductBySeller(ProductInvalid productInvalid) {
         Product product = productRepository.findById(productInvalid.getProductId()).orElseThrow(() -> new AppException(ErrorCode.PRODUCT_NOT_FOUND));
+        // Ảnh đang upload: đổi trạng thái lúc này thì finalizeProductMedia coi ảnh là mồ côi và xoá khỏi S3
+        if (product.getStatus() == Status.PROCESSING) {
+            throw new AppException(ErrorCode.PRODUCT_MEDIA_PROCESSING);
+        }
         product.setStatus(Status.DISCONTINUED);
         product.setReasonDelete(productInvalid.getReason());
         product.setDeleteAt(Instant.now());
         productRepository.save(product);
         productElasticRepository.deleteById(productInvalid.getProductId());
-        kafkaTemplate.send("product-remove-gemini-request", ProductRemoveGeminiEvent.builder()
-                .productId(product.getId())
-                .build());
+        invalidateSuggestions();
+        requestGeminiRemoval(product.getId());
         log.info("Sent remove Gemini request for product {}", product.getId());
+        publishSellerProductChanged(product.getSellerId(), product.getId());
     }
 
     @Override
@@ -501,6 +625,8 @@ public class ProductServiceImpl implements ProductService {
                 .compareAtPrice(selected != null ? selected.compareAtPrice() : null)
                 .available(selected != null ? Boolean.TRUE.equals(selected.available()) : null)
                 .stock(selected != null ? selected.quantity() : null)
+                .reserved(selected != null ? Math.max(0, selected.reserved() == null ? 0 : selected.reserved()) : null)
+                .onHand(selected != null ? selected.onHand() : null)
                 .status(product.getStatus().name())
                 .build();
     }
@@ -512,6 +638,28 @@ public class ProductServiceImpl implements ProductService {
                 .orElse(null);
     }
 
+    /**
+     * reserved do luồng đặt chỗ quản lý: giữ nguyên giá trị cũ theo options, bỏ giá trị client gửi lên
+     */
+    private List<Variant> keepReserved(List<Variant> current, List<Variant> incoming) {
+        Map<Map<String, String>, Integer> reservedByOptions = new HashMap<>();
+        if (current != null) {
+            current.stream()
+                    .filter(v -> v.options() != null && v.reserved() != null)
+                    .forEach(v -> reservedByOptions.put(v.options(), v.reserved()));
+        }
+        return incoming.stream()
+                .map(v -> Variant.builder()
+                        .options(v.options())
+                        .price(v.price())
+                        .compareAtPrice(v.compareAtPrice())
+                        .quantity(v.quantity())
+                        .reserved(v.options() != null ? reservedByOptions.get(v.options()) : null)
+                        .available(v.available())
+                        .build())
+                .collect(Collectors.toList());
+    }
+
     private boolean variantMatches(Variant v, Map<String, String> reqOptions) {
         if (v == null || v.options() == null) return false;
         // yêu cầu: mọi cặp (k,v) trong reqOptions phải có trong v.options()
@@ -583,6 +731,7 @@ public class ProductServiceImpl implements ProductService {
                     .price(target.price())
                     .compareAtPrice(target.compareAtPrice())
                     .quantity(newQty)
+                    .reserved(target.reserved())
                     .available(newQty > 0)
                     .build());
 
@@ -601,8 +750,13 @@ public class ProductServiceImpl implements ProductService {
                 throw new AppException(ErrorCode.CONCURRENT_MODIFICATION);
             }
 
+            product.setVariants(newVariants);
+            productStockIndexer.syncVariants(product);
+
             log.info("Đã cập nhật kho cho sản phẩm {} (options: {}, giảm: {}, soldCount+={})",
                     item.getProductId(), reqOptions, item.getQuantity(), item.getQuantity());
+            publishSellerProductChanged(product.getSellerId(), product.getId());
+            inventoryAlertService.onStockChanged(product, target.options(), currentQty, newQty);
         }
     }
 
@@ -668,6 +822,7 @@ public class ProductServiceImpl implements ProductService {
                     .price(target.price())
                     .compareAtPrice(target.compareAtPrice())
                     .quantity(newQty)
+                    .reserved(target.reserved())
                     .available(true)
                     .build());
 
@@ -686,8 +841,13 @@ public class ProductServiceImpl implements ProductService {
                 throw new AppException(ErrorCode.CONCURRENT_MODIFICATION);
             }
 
+            product.setVariants(newVariants);
+            productStockIndexer.syncVariants(product);
+
             log.info("Đã hoàn kho cho sản phẩm {} (options: {}, tăng: {}, soldCount-={})",
                     item.getProductId(), reqOptions, item.getQuantity(), item.getQuantity());
+            publishSellerProductChanged(product.getSellerId(), product.getId());
+            inventoryAlertService.onStockChanged(product, target.options(), currentQty, newQty);
         }
     }
 
@@ -728,23 +888,46 @@ public class ProductServiceImpl implements ProductService {
                 .map(productMapper::toProductResponse)
                 .collect(Collectors.toList());
     }
-    public List<String> suggestProducts(String prefix) {
+    @Override
+    public List<String> suggestProducts(String prefix, String categoryId) {
         if (prefix == null || prefix.trim().isEmpty()) {
             return List.of();
         }
 
-        String queryText = prefix.trim();
+        // Key đã chuẩn hoá (bỏ dấu, lowercase): "Điện", "dien" dùng chung 1 entry, prefix phổ biến không gọi ES
+        SuggestKey key = new SuggestKey(normalizePrefix(prefix),
+                categoryId == null || categoryId.isBlank() ? null : categoryId.trim());
+        try {
+            return suggestCache.get(key, () -> fetchSuggestions(key));
+        } catch (Exception e) {
+            log.error("Suggest error with prefix '{}': {}", key.prefix(), e.getMessage(), e);
+            return List.of();
+        }
+    }
+
+    /**
+     * Completion suggester chỉ lấy sản phẩm AVAILABLE (context status), lọc theo danh mục nếu có.
+     * Lỗi được ném ra để không cache kết quả rỗng.
+     */
+    private List<String> fetchSuggestions(SuggestKey key) {
+        Map<String, List<co.elastic.clients.elasticsearch.core.search.CompletionContext>> contexts = new HashMap<>();
+        contexts.put(ProductElastic.SUGGEST_STATUS_CONTEXT, List.of(completionContext(Status.AVAILABLE.name())));
+        if (key.categoryId() != null) {
+            contexts.put(ProductElastic.SUGGEST_CATEGORY_CONTEXT, List.of(completionContext(key.categoryId())));
+        }
 
         try {
             SearchResponse<Void> resp = elasticsearchClient.search(s -> s
                             .index("products")
+                            .source(src -> src.fetch(false))
                             .suggest(sug -> sug
-                                    .text(queryText)
+                                    .text(key.prefix())
                                     .suggesters("product-suggest", cs -> cs
                                             .completion(c -> c
                                                     .field("nameSuggest")
                                                     .skipDuplicates(true)
-                                                    .size(8)
+                                                    .size(suggestSize)
+                                                    .contexts(contexts)
                                             )
                                     )
                             ),
@@ -761,15 +944,38 @@ public class ProductServiceImpl implements ProductService {
                     .flatMap(sug -> sug.completion().options().stream())
                     .map(opt -> opt.text())
                     .distinct()
-                    .limit(10)
+                    .limit(suggestSize)
                     .toList();
-
-        } catch (Exception e) {
-            log.error("Suggest error with prefix '{}': {}", queryText, e.getMessage(), e);
-            return List.of();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
+    private co.elastic.clients.elasticsearch.core.search.CompletionContext completionContext(String value) {
+        return co.elastic.clients.elasticsearch.core.search.CompletionContext.of(cc -> cc
+                .context(ctx -> ctx.category(value)));
+    }
+
+    // Bỏ dấu (kể cả đ), lowercase, gộp khoảng trắng — khớp với vietnamese_suggest_analyzer
+    static String normalizePrefix(String prefix) {
+        String folded = Normalizer.normalize(prefix.trim(), Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .replace('đ', 'd')
+                .replace('Đ', 'D');
+        return folded.toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+    }
+
+    private record SuggestKey(String prefix, String categoryId) {
+    }
+
+    /**
+     * Entry gợi ý theo prefix / danh mục, không biết chứa sản phẩm nào -> sản phẩm rời khỏi ES thì bỏ cả cache,
+     * để tên sản phẩm bị gỡ không còn được gợi ý tới hết TTL + stale
+     */
+    private void invalidateSuggestions() {
+        suggestCache.invalidateAll();
+    }
+
     @Override
     @Transactional
     public void discontinueBySellerId(String sellerId, String reason) {
@@ -792,6 +998,7 @@ public class ProductServiceImpl implements ProductService {
         var result = mongoTemplate.updateMulti(q, u, Product.class);
         log.info("Discontinued products of seller {}, matched={}, modified={}",
                 sellerId, result.getMatchedCount(), result.getModifiedCount());
+        publishSellerProductChanged(sellerId, null);
 
         // 2. Delete Elasticsearch indices
         List<String> ids = productRepository.findBySellerId(sellerId).stream()
@@ -802,21 +1009,9 @@ public class ProductServiceImpl implements ProductService {
         if (!ids.isEmpty()) {
             productElasticRepository.deleteAllById(ids);
             log.info("Deleted {} product indices from Elasticsearch", ids.size());
-            for ( String id: ids
-                 ) {
-                try {
-                    log.info("Removing product {} from Gemini index", id);
-                    geminiClient.removeSingleProduct(RemoveSingleProductRequest.builder()
-                            .product_id(id)
-                            .build());
-                    log.info("Removing image product {} from Gemini index",id);
-                    geminiClient.removeProductImages(RemoveProductImagesRequest.builder()
-                            .product_id(id)
-                            .build());
-                } catch (FeignException e){
-                    log.error("Gemini removing index error for product {}: {}",id, e.getMessage());
-                };
-            }
+            invalidateSuggestions();
+            // Gemini: đẩy qua pipeline Kafka (rate limit ở ProductIndexConsumer)
+            requestGeminiRemoval(ids);
         }
     }
 
@@ -842,6 +1037,8 @@ public class ProductServiceImpl implements ProductService {
         // 2) Đồng bộ viewCount sang Elasticsearch (nếu có)
         productElasticRepository.findById(productId).ifPresent(pe -> {
             pe.setViewCount(updated.getViewCount());
+            ProductSearchFields.applySuggest(pe.getNameSuggest(), pe.getCategoryId(), pe.getStatus(),
+                    updated.getSoldCount(), updated.getViewCount());
             productElasticRepository.save(pe);
         });
 
@@ -877,6 +1074,10 @@ public class ProductServiceImpl implements ProductService {
 //        if (product.getStatus() != Status.PENDING) {
 //            throw new AppException(ErrorCode.UNCATEGORIZED_EXCEPTION); // Có thể tạo ErrorCode.INVALID_STATUS
 //        }
+        // Ảnh đang upload: đổi trạng thái lúc này thì finalizeProductMedia coi ảnh là mồ côi và xoá khỏi S3
+        if (product.getStatus() == Status.PROCESSING) {
+            throw new AppException(ErrorCode.PRODUCT_MEDIA_PROCESSING);
+        }
 
         // Validate status phải là AVAILABLE hoặc DISCONTINUED
         if (status != Status.AVAILABLE && status != Status.DISCONTINUED) {
@@ -896,36 +1097,27 @@ public class ProductServiceImpl implements ProductService {
 
             // Xóa khỏi Elasticsearch
             productElasticRepository.deleteById(productId);
+            invalidateSuggestions();
 
             // Xóa khỏi Gemini index
-            kafkaTemplate.send("product-remove-gemini-request", ProductRemoveGeminiEvent.builder()
-                    .productId(product.getId())
-                    .build());
+            requestGeminiRemoval(product.getId());
             log.info("Sent remove Gemini request for rejected product {}", productId);
 
             // Gửi thông báo cho seller
-            ApiResponse<SellerResponse> seller = userClient.searchBySellerId(product.getSellerId());
-            kafkaTemplate.send("product-invalid-notify", ProductInvalidNotify.builder()
-                    .productId(product.getId())
-                    .productName(product.getName())
-                    .reason(reason)
-                    .email(seller.getResult().getEmail())
-                    .build());
+            productInvalidNotifier.notifyAsync(product, reason);
         } else {
             // Nếu chấp nhận, thêm vào Elasticsearch
             productElasticRepository.save(productMapper.toProductElastic(product));
 
             // Index vào Gemini
             // Thay sync call bằng Kafka
-            kafkaTemplate.send("product-index-request", ProductIndexEvent.builder()
-                    .productId(product.getId())
-                    .forceReindex(true)
-                    .build());
+            requestGeminiIndex(product.getId());
             log.info("Sent index request after approve for product {}", product.getId());
         }
         product.setReUpdate(false);
         Product saved = productRepository.save(product);
         log.info("Product {} approved with status: {}", productId, status);
+        publishSellerProductChanged(saved.getSellerId(), saved.getId());
 
         return productMapper.toProductResponse(saved);
     }
@@ -948,22 +1140,16 @@ public class ProductServiceImpl implements ProductService {
         product.setReUpdate(true);
         // Xóa khỏi Elasticsearch (tạm thời không cho tìm kiếm)
         productElasticRepository.deleteById(productId);
+        invalidateSuggestions();
 
         // Xóa khỏi Gemini index
-        kafkaTemplate.send("product-remove-gemini-request", ProductRemoveGeminiEvent.builder()
-                .productId(product.getId())
-                .build());
+        requestGeminiRemoval(product.getId());
         log.info("Sent remove Gemini request for product {}", product.getId());
 
         Product saved = productRepository.save(product);
         log.info("Product {} suspended with reason: {}", productId, reason);
-        ApiResponse<SellerResponse> seller = userClient.searchBySellerId(product.getSellerId());
-        kafkaTemplate.send("product-invalid-notify", ProductInvalidNotify.builder()
-                .productId(product.getId())
-                .productName(product.getName())
-                .reason(reason)
-                .email(seller.getResult().getEmail())
-                .build());
+        publishSellerProductChanged(saved.getSellerId(), saved.getId());
+        productInvalidNotifier.notifyAsync(saved, reason);
         return productMapper.toProductResponse(saved);
     }
 
@@ -992,6 +1178,7 @@ public class ProductServiceImpl implements ProductService {
         var result = mongoTemplate.updateMulti(q, u, Product.class);
         log.info("Suspended products of seller {}, matched={}, modified={}",
                 sellerId, result.getMatchedCount(), result.getModifiedCount());
+        publishSellerProductChanged(sellerId, null);
 
         // 2. Lấy danh sách ID sản phẩm vừa bị suspend
         List<Product> suspendedProducts = productRepository.findBySellerIdAndStatus(sellerId, Status.SUSPENDED.name());
@@ -1004,118 +1191,13 @@ public class ProductServiceImpl implements ProductService {
             // Xóa Elasticsearch ngay (không có quota limit)
             productElasticRepository.deleteAllById(ids);
             log.info("Deleted {} product indices from Elasticsearch", ids.size());
+            invalidateSuggestions();
 
-            // 3. Xóa khỏi Gemini index với rate limiting + retry
-            removeFromGeminiWithRateLimit(ids);
-        }
-    }
-
-    private ExecutorService getOrCreateExecutor() {
-        return geminiExecutor;
-    }
-    /**
-     * Xóa products từ Gemini index với rate limiting
-     * - Xử lý theo batch 5 products
-     * - Delay 8 giây giữa các batch (tuân thủ 8 requests/minute của Python)
-     * - Xử lý parallel trong mỗi batch
-     * - Tự động retry khi gặp lỗi 429 (nhờ FeignConfig)
-     */
-    private void removeFromGeminiWithRateLimit(List<String> productIds) {
-        final int BATCH_SIZE = 5;
-        final long DELAY_MS = 8000;
-
-        int totalBatches = (productIds.size() + BATCH_SIZE - 1) / BATCH_SIZE;
-        int successCount = 0;
-        int failCount = 0;
-
-        // Dùng geminiExecutor thay vì executorService cũ
-        log.info("Starting Gemini index removal for {} products in {} batches", productIds.size(), totalBatches);
-
-        for (int i = 0; i < productIds.size(); i += BATCH_SIZE) {
-            int batchNumber = (i / BATCH_SIZE) + 1;
-            int end = Math.min(i + BATCH_SIZE, productIds.size());
-            List<String> batch = productIds.subList(i, end);
-
-            log.info("Processing Gemini removal batch {}/{}: {} products", batchNumber, totalBatches, batch.size());
-
-            List<CompletableFuture<Boolean>> futures = batch.stream()
-                    .map(id -> CompletableFuture.supplyAsync(() -> removeProductFromGemini(id), geminiExecutor))
-                    .collect(Collectors.toList());
-
-            List<Boolean> results = futures.stream()
-                    .map(CompletableFuture::join)
-                    .collect(Collectors.toList());
-
-            long batchSuccess = results.stream().filter(r -> r).count();
-            long batchFail = results.size() - batchSuccess;
-            successCount += batchSuccess;
-            failCount += batchFail;
-
-            log.info("Batch {}/{} completed: {} success, {} failed", batchNumber, totalBatches, batchSuccess, batchFail);
-
-            if (end < productIds.size()) {
-                try {
-                    log.info("Waiting {}ms before next batch to respect rate limit...", DELAY_MS);
-                    Thread.sleep(DELAY_MS);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    log.error("Thread interrupted during delay", e);
-                    break;
-                }
-            }
+            // 3. Xóa khỏi Gemini index: đẩy qua pipeline Kafka, request trả về ngay
+            requestGeminiRemoval(ids);
         }
-
-        log.info("Gemini index removal completed: {} total, {} success, {} failed",
-                productIds.size(), successCount, failCount);
     }
 
-    /**
-     * Xóa 1 product từ Gemini index (text + images)
-     * Return true nếu thành công, false nếu thất bại
-     * FeignConfig sẽ tự động retry khi gặp lỗi 429
-     */
-    private boolean removeProductFromGemini(String productId) {
-        try {
-            // Xóa text embedding
-            log.debug("Removing text embedding for product {}", productId);
-            geminiClient.removeSingleProduct(RemoveSingleProductRequest.builder()
-                    .product_id(productId)
-                    .build());
-
-            // Xóa image embeddings
-            log.debug("Removing image embeddings for product {}", productId);
-            geminiClient.removeProductImages(RemoveProductImagesRequest.builder()
-                    .product_id(productId)
-                    .build());
-
-            log.info("Successfully removed product {} from Gemini index", productId);
-            return true;
-
-        } catch (FeignException.TooManyRequests e) {
-            // Lỗi 429 sau khi retry hết (FeignConfig đã retry 3 lần)
-            log.error("Rate limit exceeded for product {} after retries: {}",
-                    productId, e.getMessage());
-            return false;
-
-        } catch (FeignException.ServiceUnavailable e) {
-            // Lỗi 503 sau khi retry hết
-            log.error("Gemini service unavailable for product {} after retries: {}",
-                    productId, e.getMessage());
-            return false;
-
-        } catch (FeignException e) {
-            // Các lỗi Feign khác
-            log.error("Feign error removing product {} from Gemini: {} - {}",
-                    productId, e.status(), e.getMessage());
-            return false;
-
-        } catch (Exception e) {
-            // Lỗi không xác định
-            log.error("Unexpected error removing product {} from Gemini: {}",
-                    productId, e.getMessage(), e);
-            return false;
-        }
-    }
     @Override
     @Transactional
     public void activateAllProductsBySeller(String sellerId) {
@@ -1139,6 +1221,7 @@ public class ProductServiceImpl implements ProductService {
         var result = mongoTemplate.updateMulti(q, u, Product.class);
         log.info("Activated products of seller {}, matched={}, modified={}",
                 sellerId, result.getMatchedCount(), result.getModifiedCount());
+        publishSellerProductChanged(sellerId, null);
 
         // 2. Thêm lại vào Elasticsearch
         List<Product> products = productRepository.findBySellerIdAndStatus(sellerId, Status.AVAILABLE.name());
@@ -1151,97 +1234,43 @@ public class ProductServiceImpl implements ProductService {
             productElasticRepository.saveAll(elasticProducts);
             log.info("Indexed {} products to Elasticsearch", elasticProducts.size());
 
-            // 3. Index lại vào Gemini với rate limiting
+            // 3. Index lại vào Gemini: đẩy qua pipeline Kafka, request trả về ngay
             List<String> productIds = products.stream()
                     .map(Product::getId)
                     .filter(Objects::nonNull)
                     .toList();
 
-            indexToGeminiWithRateLimit(productIds);
+            requestGeminiIndex(productIds);
         }
     }
-    private void indexToGeminiWithRateLimit(List<String> productIds) {
-        int totalBatches = (productIds.size() + 5 - 1) / 5;
-        int successCount = 0;
-        int failCount = 0;
-
-        log.info("Starting Gemini indexing for {} products in {} batches (batch_size=5, delay=8000ms)",
-                productIds.size(), totalBatches);
 
-        for (int i = 0; i < productIds.size(); i += 5) {
-            int batchNumber = (i / 5) + 1;
-            int end = Math.min(i + 5, productIds.size());
-            List<String> batch = productIds.subList(i, end);
-
-            log.info("Processing Gemini indexing batch {}/{}: {} products", batchNumber, totalBatches, batch.size());
-
-            List<CompletableFuture<Boolean>> futures = batch.stream()
-                    .map(id -> CompletableFuture.supplyAsync(() -> indexProductToGemini(id), geminiExecutor))
-                    .collect(Collectors.toList());
-
-            List<Boolean> results = futures.stream()
-                    .map(CompletableFuture::join)
-                    .collect(Collectors.toList());
-
-            long batchSuccess = results.stream().filter(r -> r).count();
-            long batchFail = results.size() - batchSuccess;
-            successCount += batchSuccess;
-            failCount += batchFail;
-
-            log.info("Batch {}/{} completed: {} success, {} failed", batchNumber, totalBatches, batchSuccess, batchFail);
-
-            if (end < productIds.size()) {
-                try {
-                    log.info("Waiting 8000ms before next batch to respect rate limit...");
-                    Thread.sleep(8000);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    log.error("Thread interrupted during delay", e);
-                    break;
-                }
-            }
-        }
-
-        log.info("Gemini indexing completed: {} total, {} success, {} failed",
-                productIds.size(), successCount, failCount);
+    /**
+     * Gemini có quota thấp: mỗi sản phẩm 1 event, ProductIndexConsumer xử lý qua GeminiRateLimiter
+     */
+    private void requestGeminiIndex(List<String> productIds) {
+        productIds.forEach(this::requestGeminiIndex);
+        log.info("Queued {} Gemini index request(s)", productIds.size());
     }
-    private boolean indexProductToGemini(String productId) {
-        try {
-            log.debug("Indexing text embedding for product {}", productId);
-            geminiClient.indexSingleProduct(IndexSingleProductRequest.builder()
-                    .product_id(productId)
-                    .force_reindex(true)
-                    .build());
-
-            log.debug("Indexing image embeddings for product {}", productId);
-            geminiClient.indexSingleProductImages(IndexSingleProductImagesRequest.builder()
-                    .product_id(productId)
-                    .force_reindex(true)
-                    .build());
-
-            log.info("Successfully indexed product {} to Gemini", productId);
-            return true;
 
-        } catch (FeignException.TooManyRequests e) {
-            log.error("Rate limit exceeded for product {} after retries: {}",
-                    productId, e.getMessage());
-            return false;
-
-        } catch (FeignException.ServiceUnavailable e) {
-            log.error("Gemini service unavailable for product {} after retries: {}",
-                    productId, e.getMessage());
-            return false;
+    private void requestGeminiRemoval(List<String> productIds) {
+        productIds.forEach(this::requestGeminiRemoval);
+        log.info("Queued {} Gemini remove request(s)", productIds.size());
+    }
 
-        } catch (FeignException e) {
-            log.error("Feign error indexing product {} to Gemini: {} - {}",
-                    productId, e.status(), e.getMessage());
-            return false;
+    /**
+     * Index / remove của 1 sản phẩm đi chung 1 topic, key = productId -> cùng partition, cùng consumer, đúng thứ tự
+     */
+    private void requestGeminiIndex(String productId) {
+        kafkaTemplate.send(ProductIndexConsumer.INDEX_TOPIC, productId, ProductIndexEvent.builder()
+                .productId(productId)
+                .forceReindex(true)
+                .build());
+    }
 
-        } catch (Exception e) {
-            log.error("Unexpected error indexing product {} to Gemini: {}",
-                    productId, e.getMessage(), e);
-            return false;
-        }
+    private void requestGeminiRemoval(String productId) {
+        kafkaTemplate.send(ProductIndexConsumer.INDEX_TOPIC, productId, ProductRemoveGeminiEvent.builder()
+                .productId(productId)
+                .build());
     }
     @Override
     @Transactional
@@ -1274,7 +1303,7 @@ public class ProductServiceImpl implements ProductService {
         List<Image> normalized = new ArrayList<>(working.size());
         for (int i = 0; i < working.size(); i++) {
             Image img = working.get(i);
-            normalized.add(Image.builder().url(img.url()).position(i + 1).build());
+            normalized.add(Image.builder().url(img.url()).position(i + 1).hash(img.hash()).build());
         }
         working = normalized;
 
@@ -1317,15 +1346,16 @@ public class ProductServiceImpl implements ProductService {
                 throw new AppException(ErrorCode.FILE_PROCESSING_ERROR);
             }
             int nextPos = working.size() + 1;
-            for (String url : urls) {
-                working.add(Image.builder().url(url).position(nextPos++).build());
+            for (int i = 0; i < urls.size(); i++) {
+                String hash = i < validFiles.size() ? ImageHashing.sha256(validFiles.get(i)) : null;
+                working.add(Image.builder().url(urls.get(i)).position(nextPos++).hash(hash).build());
             }
         }
 
         // 4) Normalize lại position 1..n lần cuối
         List<Image> finalImages = new ArrayList<>(working.size());
         for (int i = 0; i < working.size(); i++) {
-            finalImages.add(Image.builder().url(working.get(i).url()).position(i + 1).build());
+            finalImages.add(Image.builder().url(working.get(i).url()).position(i + 1).hash(working.get(i).hash()).build());
         }
         product.setImages(finalImages);
 
@@ -1338,7 +1368,7 @@ public class ProductServiceImpl implements ProductService {
         if (request.getDescription() != null) product.setDescription(request.getDescription());
         if (request.getCategoryId() != null) product.setCategoryId(request.getCategoryId());
         if (request.getOptionDefs() != null) product.setOptionDefs(request.getOptionDefs());
-        if (request.getVariants() != null) product.setVariants(request.getVariants());
+        if (request.getVariants() != null) product.setVariants(keepReserved(product.getVariants(), request.getVariants()));
         // KHÔNG cho client set status ở flow này
 
         // 6) mediaByOption
@@ -1381,13 +1411,13 @@ public class ProductServiceImpl implements ProductService {
         } catch (Exception ignore) { }
 
         // 9) Đảm bảo không còn trong Gemini index
-        kafkaTemplate.send("product-remove-gemini-request", ProductRemoveGeminiEvent.builder()
-                .productId(product.getId())
-                .build());
+        requestGeminiRemoval(product.getId());
         log.info("Sent remove Gemini request before reregister for product {}", product.getId());
 
         // 10) Lưu Mongo
         Product saved = productRepository.save(product);
+        publishSellerProductChanged(saved.getSellerId(), saved.getId());
+        inventoryAlertService.syncProduct(saved);
 
         log.info("Product {} re-registered. Status=PENDING, images={}, optionDefs={}, mediaByOption={}, variants={}",
                 saved.getId(),
@@ -1400,4 +1430,17 @@ public class ProductServiceImpl implements ProductService {
         return productMapper.toProductResponse(saved);
     }
 
-}
\ No newline at end of file
+    /**
+     * Báo cho các cache theo seller (thống kê...) biết dữ liệu đã thay đổi.
+     * Không publish cho updateView vì lượt xem thay đổi liên tục, để TTL của cache tự xử lý.
+     */
+    private void publishSellerProductChanged(String sellerId, String productId) {
+        if (sellerId == null) {
+            return;
+        }
+        eventPublisher.publishEvent(SellerProductChangedEvent.builder()
+                .sellerId(sellerId)
+                .productId(productId)
+                .build());
+    }
+}
@@ -1,22 +1,35 @@
 package iuh.fit.se.service.impl;
 
+import iuh.fit.event.dto.SellerProductChangedEvent;
 import iuh.fit.se.dto.response.*;
 import iuh.fit.se.entity.Product;
 import iuh.fit.se.entity.enums.Status;
 import iuh.fit.se.entity.records.Variant;
 import iuh.fit.se.exception.AppException;
 import iuh.fit.se.exception.ErrorCode;
+import iuh.fit.se.repository.CategoryRepository;
 import iuh.fit.se.repository.ProductRepository;
+import iuh.fit.se.service.InventoryAlertService;
 import iuh.fit.se.service.ProductStatisticsService;
+import jakarta.annotation.PostConstruct;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 @Service
@@ -26,10 +39,64 @@ import java.util.stream.Collectors;
 public class ProductStatisticsServiceImpl implements ProductStatisticsService {
 
     ProductRepository productRepository;
+    CategoryRepository categoryRepository;
+    MongoTemplate mongoTemplate;
+    ExecutorService statisticsExecutor;
+    ForkJoinPool adminStatisticsPool;
+    InventoryAlertService inventoryAlertService;
 
     private static final int DEFAULT_LOW_STOCK_THRESHOLD = 10;
     private static final int DEFAULT_SLOW_MOVING_DAYS = 30;
 
+    // --- Cache kết quả thống kê theo (sellerId, lowStockThreshold, slowMovingDays) ---
+    @NonFinal
+    @Value("${product.statistics.cache.ttl-seconds:30}")
+    long cacheTtlSeconds;
+
+    @NonFinal
+    @Value("${product.statistics.cache.stale-seconds:120}")
+    long cacheStaleSeconds;
+
+    @NonFinal
+    @Value("${product.statistics.cache.max-entries:5000}")
+    int cacheMaxEntries;
+
+    @NonFinal
+    StaleWhileRevalidateCache<SellerStatisticsKey, SellerProductStatistics> sellerStatisticsCache;
+
+    // --- Thống kê toàn sàn (admin) ---
+    @NonFinal
+    @Value("${product.statistics.admin.ttl-seconds:60}")
+    long adminTtlSeconds;
+
+    @NonFinal
+    @Value("${product.statistics.admin.stale-seconds:300}")
+    long adminStaleSeconds;
+
+    @NonFinal
+    @Value("${product.statistics.admin.max-low-stock-alerts:100}")
+    int maxPlatformLowStockAlerts;
+
+    @NonFinal
+    StaleWhileRevalidateCache<Integer, PlatformStatistics> platformStatisticsCache;
+
+    @PostConstruct
+    void initCache() {
+        sellerStatisticsCache = new StaleWhileRevalidateCache<>(
+                "seller-statistics",
+                cacheTtlSeconds * 1000,
+                cacheStaleSeconds * 1000,
+                cacheMaxEntries,
+                statisticsExecutor,
+                SellerStatisticsKey::sellerId);
+        platformStatisticsCache = new StaleWhileRevalidateCache<>(
+                "platform-statistics",
+                adminTtlSeconds * 1000,
+                adminStaleSeconds * 1000,
+                16,
+                statisticsExecutor);
+    }
+
     @Override
     public SellerProductStatistics getSellerStatistics(String sellerId) {
         return getSellerStatistics(sellerId, DEFAULT_LOW_STOCK_THRESHOLD, DEFAULT_SLOW_MOVING_DAYS);
@@ -37,12 +104,44 @@ public class ProductStatisticsServiceImpl implements ProductStatisticsService {
 
     @Override
     public SellerProductStatistics getSellerStatistics(String sellerId, Integer lowStockThreshold, Integer slowMovingDays) {
-        log.info("Calculating statistics for seller: {}", sellerId);
-
         if (sellerId == null || sellerId.isEmpty()) {
             throw new AppException(ErrorCode.UNCATEGORIZED_EXCEPTION);
         }
 
+        int threshold = lowStockThreshold != null ? lowStockThreshold : DEFAULT_LOW_STOCK_THRESHOLD;
+        int days = slowMovingDays != null ? slowMovingDays : DEFAULT_SLOW_MOVING_DAYS;
+
+        return sellerStatisticsCache.get(
+                new SellerStatisticsKey(sellerId, threshold, days),
+                () -> calculateSellerStatistics(sellerId, threshold, days));
+    }
+
+    @Override
+    public PlatformStatistics getPlatformStatistics(Integer lowStockThreshold) {
+        int threshold = lowStockThreshold != null ? lowStockThreshold : DEFAULT_LOW_STOCK_THRESHOLD;
+        return platformStatisticsCache.get(threshold, () -> calculatePlatformStatistics(threshold));
+    }
+
+    @Override
+    public List<CacheMetrics> getCacheMetrics() {
+        return List.of(sellerStatisticsCache.metrics(), platformStatisticsCache.metrics());
+    }
+
+    /**
+     * Dữ liệu sản phẩm của seller thay đổi -> bỏ mọi entry cache của seller đó
+     */
+    @EventListener
+    public void onSellerProductChanged(SellerProductChangedEvent event) {
+        if (event.getSellerId() == null) {
+            return;
+        }
+        sellerStatisticsCache.invalidateGroup(event.getSellerId());
+        log.debug("Invalidated statistics cache for seller {}", event.getSellerId());
+    }
+
+    private SellerProductStatistics calculateSellerStatistics(String sellerId, int lowStockThreshold, int slowMovingDays) {
+        log.info("Calculating statistics for seller: {}", sellerId);
+
         // Lấy tất cả sản phẩm của seller
         List<Product> allProducts = productRepository.findBySellerId(sellerId);
 
@@ -59,6 +158,7 @@ public class ProductStatisticsServiceImpl implements ProductStatisticsService {
 
         // 3. Thống kê kho hàng
         InventoryStatistics inventoryStatistics = calculateInventoryStatistics(
+                sellerId,
                 allProducts,
                 lowStockThreshold,
                 slowMovingDays
@@ -149,6 +249,7 @@ public class ProductStatisticsServiceImpl implements ProductStatisticsService {
      * 3. Thống kê kho hàng (theo VARIANT)
      */
     private InventoryStatistics calculateInventoryStatistics(
+            String sellerId,
             List<Product> products,
             int lowStockThreshold,
             int slowMovingDays) {
@@ -174,33 +275,46 @@ public class ProductStatisticsServiceImpl implements ProductStatisticsService {
         List<VariantAlertDto> lowStockAlerts = new ArrayList<>();
         List<VariantAlertDto> outOfStockAlerts = new ArrayList<>();
 
-        for (Product product : products) {
-            if (product.getVariants() == null || product.getVariants().isEmpty()) {
-                continue;
-            }
-
-            // Duyệt qua TỪNG VARIANT
-            for (Variant variant : product.getVariants()) {
-                int quantity = variant.quantity() != null ? variant.quantity() : 0;
-
-                if (quantity == 0) {
+        if (lowStockThreshold == inventoryAlertService.getLowStockThreshold()) {
+            // Ngưỡng mặc định -> đọc tập cảnh báo đã tính sẵn trên luồng ghi kho, không cần duyệt variant
+            for (VariantAlertDto alert : inventoryAlertService.findBySeller(sellerId)) {
+                if ("OUT_OF_STOCK".equals(alert.getAlertType())) {
                     outOfStockVariantsCount++;
-                    outOfStockAlerts.add(createVariantAlert(
-                            product,
-                            variant,
-                            quantity,
-                            "OUT_OF_STOCK",
-                            "Biến thể đã hết hàng"
-                    ));
-                } else if (quantity <= lowStockThreshold) {
+                    outOfStockAlerts.add(alert);
+                } else {
                     lowStockVariantsCount++;
-                    lowStockAlerts.add(createVariantAlert(
-                            product,
-                            variant,
-                            quantity,
-                            "LOW_STOCK",
-                            String.format("Biến thể sắp hết hàng (còn %d)", quantity)
-                    ));
+                    lowStockAlerts.add(alert);
+                }
+            }
+        } else {
+            for (Product product : products) {
+                if (product.getVariants() == null || product.getVariants().isEmpty()) {
+                    continue;
+                }
+
+                // Duyệt qua TỪNG VARIANT
+                for (Variant variant : product.getVariants()) {
+                    int quantity = variant.quantity() != null ? variant.quantity() : 0;
+
+                    if (quantity == 0) {
+                        outOfStockVariantsCount++;
+                        outOfStockAlerts.add(createVariantAlert(
+                                product,
+                                variant,
+                                quantity,
+                                "OUT_OF_STOCK",
+                                "Biến thể đã hết hàng"
+                        ));
+                    } else if (quantity <= lowStockThreshold) {
+                        lowStockVariantsCount++;
+                        lowStockAlerts.add(createVariantAlert(
+                                product,
+                                variant,
+                                quantity,
+                                "LOW_STOCK",
+                                String.format("Biến thể sắp hết hàng (còn %d)", quantity)
+                        ));
+                    }
                 }
             }
         }
@@ -277,8 +391,241 @@ public class ProductStatisticsServiceImpl implements ProductStatisticsService {
         return categoryStats;
     }
 
+    // ========== Thống kê toàn sàn ==========
+
+    /**
+     * Chia dữ liệu theo danh mục (mỗi categoryId là 1 shard, thêm 1 shard cho sản phẩm không có danh mục),
+     * tổng hợp từng shard song song trên adminStatisticsPool rồi merge kết quả.
+     * Mỗi shard stream dữ liệu từ Mongo nên bộ nhớ không phụ thuộc vào tổng số sản phẩm.
+     */
+    private PlatformStatistics calculatePlatformStatistics(int lowStockThreshold) {
+        long start = System.currentTimeMillis();
+
+        List<String> categoryIds = mongoTemplate.findDistinct(new Query(), "categoryId", Product.class, String.class);
+        List<Criteria> shards = new ArrayList<>();
+        for (String categoryId : categoryIds) {
+            if (categoryId != null) {
+                shards.add(Criteria.where("categoryId").is(categoryId));
+            }
+        }
+        shards.add(Criteria.where("categoryId").is(null));
+
+        log.info("Calculating platform statistics over {} shard(s)", shards.size());
+
+        List<CompletableFuture<PlatformAccumulator>> futures = shards.stream()
+                .map(criteria -> CompletableFuture.supplyAsync(
+                        () -> aggregateShard(criteria, lowStockThreshold), adminStatisticsPool))
+                .toList();
+
+        PlatformAccumulator merged = futures.stream()
+                .map(CompletableFuture::join)
+                .reduce(new PlatformAccumulator(lowStockThreshold), PlatformAccumulator::merge);
+
+        Map<String, String> categoryNames = new HashMap<>();
+        categoryRepository.findAll().forEach(c -> categoryNames.put(c.getId(), c.getName()));
+
+        long computeMillis = System.currentTimeMillis() - start;
+        log.info("Platform statistics calculated in {}ms ({} products, {} sellers)",
+                computeMillis, merged.total, merged.sellerIds.size());
+
+        return merged.toStatistics(categoryNames, shards.size(), computeMillis);
+    }
+
+    private PlatformAccumulator aggregateShard(Criteria criteria, int lowStockThreshold) {
+        Query query = new Query(criteria);
+        query.fields().include("sellerId", "name", "status", "categoryId", "variants",
+                "soldCount", "viewCount", "images", "createdAt", "updatedAt");
+
+        PlatformAccumulator acc = new PlatformAccumulator(lowStockThreshold);
+        try (var stream = mongoTemplate.stream(query, Product.class)) {
+            stream.forEach(acc::add);
+        }
+        return acc;
+    }
+
+    /**
+     * Kết quả tổng hợp từng phần của 1 shard, merge được với shard khác
+     */
+    private final class PlatformAccumulator {
+        final int lowStockThreshold;
+        final Map<Status, Long> statusCounts = new EnumMap<>(Status.class);
+        final Map<String, CategoryAccumulator> categories = new HashMap<>();
+        final Set<String> sellerIds = new HashSet<>();
+        // max-heap theo tồn kho -> giữ lại N biến thể có tồn kho thấp nhất
+        final PriorityQueue<VariantAlertDto> lowStockAlerts = new PriorityQueue<>(
+                Comparator.comparing(VariantAlertDto::getCurrentStock).reversed());
+        long total;
+        long lowStockVariants;
+        long outOfStockVariants;
+        long pendingCount;
+        long pendingAgeMillis;
+        long pendingOlderThan24h;
+        Instant oldestPending;
+
+        PlatformAccumulator(int lowStockThreshold) {
+            this.lowStockThreshold = lowStockThreshold;
+        }
+
+        void add(Product product) {
+            total++;
+            if (product.getSellerId() != null) {
+                sellerIds.add(product.getSellerId());
+            }
+            if (product.getStatus() != null) {
+                statusCounts.merge(product.getStatus(), 1L, Long::sum);
+            }
+
+            if (product.getStatus() == Status.PENDING) {
+                addPending(product);
+            }
+
+            if (product.getStatus() != Status.AVAILABLE) {
+                return;
+            }
+
+            if (product.getCategoryId() != null) {
+                CategoryAccumulator category = categories.computeIfAbsent(
+                        product.getCategoryId(), id -> new CategoryAccumulator());
+                category.productCount++;
+                category.totalSold += product.getSoldCount() != null ? product.getSoldCount() : 0;
+                category.totalViews += product.getViewCount() != null ? product.getViewCount() : 0;
+                category.totalRevenue += calculateProductRevenue(product);
+            }
+
+            if (product.getVariants() == null) {
+                return;
+            }
+            for (Variant variant : product.getVariants()) {
+                int quantity = variant.quantity() != null ? variant.quantity() : 0;
+                if (quantity > lowStockThreshold) {
+                    continue;
+                }
+                if (quantity == 0) {
+                    outOfStockVariants++;
+                    offerAlert(createVariantAlert(product, variant, quantity,
+                            "OUT_OF_STOCK", "Biến thể đã hết hàng"));
+                } else {
+                    lowStockVariants++;
+                    offerAlert(createVariantAlert(product, variant, quantity,
+                            "LOW_STOCK", String.format("Biến thể sắp hết hàng (còn %d)", quantity)));
+                }
+            }
+        }
+
+        private void addPending(Product product) {
+            Instant since = product.getUpdatedAt() != null ? product.getUpdatedAt() : product.getCreatedAt();
+            if (since == null) {
+                pendingCount++;
+                return;
+            }
+            long age = Math.max(0, Instant.now().toEpochMilli() - since.toEpochMilli());
+            pendingCount++;
+            pendingAgeMillis += age;
+            if (age > ChronoUnit.DAYS.getDuration().toMillis()) {
+                pendingOlderThan24h++;
+            }
+            if (oldestPending == null || since.isBefore(oldestPending)) {
+                oldestPending = since;
+            }
+        }
+
+        private void offerAlert(VariantAlertDto alert) {
+            lowStockAlerts.offer(alert);
+            if (lowStockAlerts.size() > maxPlatformLowStockAlerts) {
+                lowStockAlerts.poll();
+            }
+        }
+
+        PlatformAccumulator merge(PlatformAccumulator other) {
+            total += other.total;
+            sellerIds.addAll(other.sellerIds);
+            other.statusCounts.forEach((status, count) -> statusCounts.merge(status, count, Long::sum));
+            other.categories.forEach((id, category) -> categories.merge(id, category, CategoryAccumulator::merge));
+            other.lowStockAlerts.forEach(this::offerAlert);
+            lowStockVariants += other.lowStockVariants;
+            outOfStockVariants += other.outOfStockVariants;
+            pendingCount += other.pendingCount;
+            pendingAgeMillis += other.pendingAgeMillis;
+            pendingOlderThan24h += other.pendingOlderThan24h;
+            if (other.oldestPending != null && (oldestPending == null || other.oldestPending.isBefore(oldestPending))) {
+                oldestPending = other.oldestPending;
+            }
+            return this;
+        }
+
+        PlatformStatistics toStatistics(Map<String, String> categoryNames, int shardCount, long computeMillis) {
+            List<CategoryStatistics> categoryStats = new ArrayList<>();
+            categories.forEach((categoryId, category) -> categoryStats.add(CategoryStatistics.builder()
+                    .categoryId(categoryId)
+                    .categoryName(categoryNames.getOrDefault(categoryId, categoryId))
+                    .productCount(category.productCount)
+                    .totalSold(category.totalSold)
+                    .totalRevenue(Math.round(category.totalRevenue * 100.0) / 100.0)
+                    .totalViews(category.totalViews)
+                    .conversionRate(category.totalViews > 0
+                            ? Math.round((category.totalSold * 100.0 / category.totalViews) * 100.0) / 100.0
+                            : 0.0)
+                    .build()));
+            categoryStats.sort((c1, c2) -> Double.compare(c2.getTotalRevenue(), c1.getTotalRevenue()));
+
+            List<VariantAlertDto> alerts = new ArrayList<>(lowStockAlerts);
+            alerts.sort(Comparator.comparing(VariantAlertDto::getCurrentStock));
+
+            long nowMillis = Instant.now().toEpochMilli();
+            PendingBacklog backlog = PendingBacklog.builder()
+                    .count(pendingCount)
+                    .oldestPendingSince(oldestPending)
+                    .oldestAgeHours(oldestPending != null
+                            ? toHours(nowMillis - oldestPending.toEpochMilli()) : 0.0)
+                    .averageAgeHours(pendingCount > 0 ? toHours(pendingAgeMillis / pendingCount) : 0.0)
+                    .olderThan24Hours(pendingOlderThan24h)
+                    .build();
+
+            return PlatformStatistics.builder()
+                    .productCountByStatus(ProductCountByStatus.builder()
+                            .available(statusCounts.getOrDefault(Status.AVAILABLE, 0L))
+                            .pending(statusCounts.getOrDefault(Status.PENDING, 0L))
+                            .suspended(statusCounts.getOrDefault(Status.SUSPENDED, 0L))
+                            .discontinued(statusCounts.getOrDefault(Status.DISCONTINUED, 0L))
+                            .total(total)
+                            .build())
+                    .categoryStatistics(categoryStats)
+                    .lowStockVariants(lowStockVariants)
+                    .outOfStockVariants(outOfStockVariants)
+                    .lowStockAlerts(alerts)
+                    .pendingBacklog(backlog)
+                    .sellerCount((long) sellerIds.size())
+                    .shardCount(shardCount)
+                    .computeMillis(computeMillis)
+                    .generatedAt(Instant.now())
+                    .build();
+        }
+
+        private double toHours(long millis) {
+            return Math.round(millis / 36_000.0) / 100.0;
+        }
+    }
+
+    private static final class CategoryAccumulator {
+        long productCount;
+        long totalSold;
+        long totalViews;
+        double totalRevenue;
+
+        CategoryAccumulator merge(CategoryAccumulator other) {
+            productCount += other.productCount;
+            totalSold += other.totalSold;
+            totalViews += other.totalViews;
+            totalRevenue += other.totalRevenue;
+            return this;
+        }
+    }
+
     // ========== Helper Methods ==========
 
+    private record SellerStatisticsKey(String sellerId, int lowStockThreshold, int slowMovingDays) {
+    }
+
     /**
      * Tính doanh thu ước tính của 1 sản phẩm
      */
@@ -0,0 +1,197 @@
+package iuh.fit.se.service.impl;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import iuh.fit.se.entity.Product;
+import iuh.fit.se.mapper.ProductSearchFields;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Đồng bộ variants (tồn kho: quantity / reserved / available, giá: price / compareAtPrice) sang Elasticsearch
+ * bằng partial update, không cần dựng lại cả ProductElastic.
+ * Cập nhật luôn các trường phẳng (minPrice, inStock, totalQuantity, percentDiscount, bestDeal...).
+ *
+ * Không gọi ES trên luồng ghi kho: syncVariants chỉ đánh dấu sản phẩm (sau khi transaction commit nếu có),
+ * thread nền gom các sản phẩm trong cửa sổ flush-window-ms, đọc variants mới nhất từ MongoDB
+ * rồi gửi 1 bulk update. Nhiều lần đặt / trả hàng của cùng sản phẩm trong cửa sổ chỉ thành 1 update.
+ * SKU nóng (HotStockLedger) không đi qua đây: đặt chỗ nằm trong allotment của replica, không đổi Mongo.
+ *
+ * product:
+ *   search:
+ *     stock-sync:
+ *       flush-window-ms: 200
+ *       batch-size: 500
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class ProductStockIndexer {
+
+    private static final String INDEX = "products";
+
+    ElasticsearchClient elasticsearchClient;
+    MongoTemplate mongoTemplate;
+
+    // Sản phẩm chờ đồng bộ trong cửa sổ hiện tại (đã gộp trùng)
+    Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    @NonFinal
+    @Value("${product.search.stock-sync.flush-window-ms:200}")
+    long flushWindowMs;
+
+    @NonFinal
+    @Value("${product.search.stock-sync.batch-size:500}")
+    int batchSize;
+
+    @NonFinal
+    ScheduledExecutorService flushScheduler;
+
+    @NonFinal
+    volatile boolean flushScheduled;
+
+    @PostConstruct
+    void init() {
+        flushScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "stock-indexer-flush");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        flushScheduler.shutdown();
+        try {
+            // Cố đẩy nốt cửa sổ đang chờ trước khi tắt
+            flushScheduler.awaitTermination(flushWindowMs * 5, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hẹn đồng bộ variants của sản phẩm sang ES (bất đồng bộ, gộp theo cửa sổ).
+     * Trong transaction -> chỉ hẹn sau khi commit, rollback thì bỏ qua.
+     */
+    public void syncVariants(Product product) {
+        if (product == null || product.getId() == null || product.getVariants() == null) {
+            return;
+        }
+        String productId = product.getId();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(productId);
+                }
+            });
+        } else {
+            enqueue(productId);
+        }
+    }
+
+    private void enqueue(String productId) {
+        pending.add(productId);
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled) {
+            return;
+        }
+        synchronized (this) {
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        try {
+            flushScheduler.schedule(this::flush, flushWindowMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // Đang tắt: bỏ qua, lần lưu đầy đủ / reindex sau sẽ ghi đè
+            flushScheduled = false;
+            log.warn("[StockIndexer] Flush not scheduled: {}", e.getMessage());
+        }
+    }
+
+    private void flush() {
+        flushScheduled = false;
+
+        List<String> batch = new ArrayList<>();
+        for (String productId : pending) {
+            if (pending.remove(productId)) {
+                batch.add(productId);
+            }
+        }
+        if (!pending.isEmpty()) {
+            scheduleFlush();
+        }
+
+        for (int from = 0; from < batch.size(); from += batchSize) {
+            sync(batch.subList(from, Math.min(from + batchSize, batch.size())));
+        }
+    }
+
+    private void sync(List<String> productIds) {
+        try {
+            // Đọc lại từ MongoDB lúc flush -> luôn gửi trạng thái mới nhất, không phụ thuộc thứ tự các lần ghi
+            Query query = new Query(Criteria.where("_id").in(productIds));
+            query.fields().include("variants");
+            List<Product> products = mongoTemplate.find(query, Product.class);
+
+            BulkRequest.Builder bulk = new BulkRequest.Builder();
+            int operations = 0;
+            for (Product product : products) {
+                if (product.getVariants() == null) {
+                    continue;
+                }
+                Map<String, Object> doc = ProductSearchFields.variantFields(product.getVariants());
+                bulk.operations(op -> op.update(u -> u
+                        .index(INDEX)
+                        .id(product.getId())
+                        .action(a -> a.doc(doc))));
+                operations++;
+            }
+            if (operations == 0) {
+                return;
+            }
+
+            BulkResponse response = elasticsearchClient.bulk(bulk.build());
+            if (response.errors()) {
+                response.items().stream()
+                        .filter(item -> item.error() != null)
+                        .forEach(item -> log.warn("[StockIndexer] Partial update variants failed for {}: {}",
+                                item.id(), item.error().reason()));
+            }
+            log.debug("[StockIndexer] Synced variants of {} product(s)", products.size());
+        } catch (Exception e) {
+            // Không chặn luồng kho; lần lưu đầy đủ sau sẽ ghi đè
+            log.warn("[StockIndexer] Bulk update variants failed for {} product(s): {}",
+                    productIds.size(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package iuh.fit.se.service.impl;
+
+import iuh.fit.event.dto.StockReservedEvent;
+import iuh.fit.se.entity.StockReservation;
+import iuh.fit.se.service.StockReservationService;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expire reservation theo hạn thay vì chờ cron.
+ *
+ * Hạn của các reservation PENDING được giữ trong DelayQueue (dựng lại từ Mongo khi khởi động,
+ * thêm mới qua StockReservedEvent). Worker lấy các hạn đã tới, gom thành lô rồi expire 1 lần;
+ * việc claim trong service là atomic nên nhiều replica cùng giữ 1 hạn cũng chỉ hoàn kho 1 lần.
+ * Reservation đã CONFIRMED/RELEASED trước hạn sẽ không khớp khi claim -> bỏ qua.
+ *
+ * Cron StockReservationBatchJob vẫn chạy thưa làm lưới an toàn (hàng đợi đầy, lỗi Mongo, ...).
+ *
+ * stock:
+ *   reservation:
+ *     expiry:
+ *       enabled: true
+ *       max-tracked: 100000
+ *       batch-size: 200
+ *       retry-delay-ms: 5000
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ReservationExpiryScheduler {
+
+    private static final int REBUILD_PAGE_SIZE = 1000;
+
+    private final StockReservationService reservationService;
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${stock.reservation.expiry.enabled:true}")
+    private boolean enabled;
+
+    @Value("${stock.reservation.expiry.max-tracked:100000}")
+    private int maxTracked;
+
+    @Value("${stock.reservation.expiry.batch-size:200}")
+    private int batchSize;
+
+    @Value("${stock.reservation.expiry.retry-delay-ms:5000}")
+    private long retryDelayMs;
+
+    private final DelayQueue<Deadline> deadlines = new DelayQueue<>();
+    private Thread worker;
+
+    /**
+     * Dựng lại hàng đợi từ các reservation PENDING rồi mới bắt đầu worker
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            log.info("[ReservationExpiry] Disabled -> rely on cron sweeper");
+            return;
+        }
+
+        int loaded = rebuild();
+        log.info("[ReservationExpiry] Tracking {} pending reservation(s)", loaded);
+
+        worker = new Thread(this::runWorker, "reservation-expiry");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    @EventListener
+    public void onStockReserved(StockReservedEvent event) {
+        if (enabled && event.getReservationId() != null && event.getExpiresAt() != null) {
+            track(event.getReservationId(), event.getExpiresAt());
+        }
+    }
+
+    private void track(String reservationId, Instant expiresAt) {
+        if (deadlines.size() >= maxTracked) {
+            // Quá giới hạn bộ nhớ -> để cron sweeper xử lý reservation này
+            log.debug("[ReservationExpiry] Queue full, {} left to sweeper", reservationId);
+            return;
+        }
+        deadlines.offer(new Deadline(reservationId, expiresAt.toEpochMilli()));
+    }
+
+    /**
+     * Đọc id + expiresAt của reservation PENDING theo keyset _id, không load cả document
+     */
+    private int rebuild() {
+        int loaded = 0;
+        String lastId = null;
+        while (loaded < maxTracked) {
+            Query query = new Query(Criteria.where("status").is(StockReservation.Status.PENDING));
+            if (lastId != null) {
+                query.addCriteria(Criteria.where("_id").gt(lastId));
+            }
+            query.with(Sort.by(Sort.Direction.ASC, "_id")).limit(REBUILD_PAGE_SIZE);
+            query.fields().include("_id").include("expiresAt");
+
+            List<StockReservation> page = mongoTemplate.find(query, StockReservation.class);
+            for (StockReservation reservation : page) {
+                if (reservation.getExpiresAt() != null) {
+                    track(reservation.getId(), reservation.getExpiresAt());
+                    loaded++;
+                }
+            }
+            if (page.size() < REBUILD_PAGE_SIZE) {
+                break;
+            }
+            lastId = page.get(page.size() - 1).getId();
+        }
+        return loaded;
+    }
+
+    private void runWorker() {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Deadline> due = new ArrayList<>();
+            try {
+                due.add(deadlines.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            // Gom các hạn đã tới cùng lúc (flash sale) thành 1 lô
+            deadlines.drainTo(due, batchSize - 1);
+
+            List<String> ids = due.stream().map(Deadline::reservationId).toList();
+            try {
+                int expired = reservationService.expireReservations(ids);
+                log.info("[ReservationExpiry] Expired {}/{} due reservation(s)", expired, ids.size());
+            } catch (Exception e) {
+                log.warn("[ReservationExpiry] Expire {} reservation(s) failed, retry in {}ms: {}",
+                        ids.size(), retryDelayMs, e.getMessage());
+                long retryAt = System.currentTimeMillis() + retryDelayMs;
+                due.forEach(d -> deadlines.offer(new Deadline(d.reservationId(), retryAt)));
+            }
+        }
+    }
+
+    private record Deadline(String reservationId, long dueAtMillis) implements Delayed {
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAtMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAtMillis, ((Deadline) other).dueAtMillis);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package iuh.fit.se.service.impl;
+
+import iuh.fit.se.dto.response.ApiResponse;
+import iuh.fit.se.dto.response.SellerResponse;
+import iuh.fit.se.repository.httpclient.UserClient;
+import iuh.fit.se.service.SellerResolver;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolve thông tin seller cho các luồng kiểm duyệt.
+ *
+ * - Cache TTL theo sellerId
+ * - Single-flight: lookup đang chạy của 1 seller được dùng chung
+ * - Micro-batch: các lookup trong cùng cửa sổ batch-window-ms được gom lại rồi resolve 1 lần,
+ *   mỗi sellerId khác nhau chỉ gọi user-service 1 lần (song song có giới hạn)
+ *
+ * user-service chưa có API lấy nhiều seller 1 lúc nên batch = dedup + gọi song song có giới hạn.
+ */
+@Service
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@RequiredArgsConstructor
+@Slf4j
+public class SellerResolverImpl implements SellerResolver {
+
+    UserClient userClient;
+    ExecutorService sellerLookupExecutor;
+
+    Map<String, CachedSeller> cache = new ConcurrentHashMap<>();
+    Map<String, CompletableFuture<SellerResponse>> inFlight = new ConcurrentHashMap<>();
+    // Các lookup chờ flush trong cửa sổ batch hiện tại
+    Map<String, CompletableFuture<SellerResponse>> pending = new ConcurrentHashMap<>();
+
+    @NonFinal
+    @Value("${product.seller-resolver.ttl-seconds:300}")
+    long ttlSeconds;
+
+    @NonFinal
+    @Value("${product.seller-resolver.batch-window-ms:20}")
+    long batchWindowMs;
+
+    @NonFinal
+    @Value("${product.seller-resolver.max-entries:10000}")
+    int maxEntries;
+
+    @NonFinal
+    ScheduledExecutorService batchScheduler;
+
+    @NonFinal
+    volatile boolean flushScheduled;
+
+    @PostConstruct
+    void init() {
+        batchScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "seller-resolver-batch");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        batchScheduler.shutdownNow();
+    }
+
+    @Override
+    public CompletableFuture<SellerResponse> resolve(String sellerId) {
+        if (sellerId == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CachedSeller cached = cache.get(sellerId);
+        if (cached != null && !cached.isExpired(ttlSeconds)) {
+            return CompletableFuture.completedFuture(cached.seller());
+        }
+
+        CompletableFuture<SellerResponse> created = new CompletableFuture<>();
+        CompletableFuture<SellerResponse> existing = inFlight.putIfAbsent(sellerId, created);
+        if (existing != null) {
+            return existing; // single-flight
+        }
+
+        pending.put(sellerId, created);
+        scheduleFlush();
+        return created;
+    }
+
+    @Override
+    public void invalidate(String sellerId) {
+        cache.remove(sellerId);
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled) {
+            return;
+        }
+        synchronized (this) {
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        batchScheduler.schedule(this::flush, batchWindowMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        flushScheduled = false;
+
+        Map<String, CompletableFuture<SellerResponse>> batch = new HashMap<>();
+        pending.keySet().forEach(id -> {
+            CompletableFuture<SellerResponse> f = pending.remove(id);
+            if (f != null) {
+                batch.put(id, f);
+            }
+        });
+        if (batch.isEmpty()) {
+            return;
+        }
+        // Có lookup mới chen vào sau khi đã chụp batch -> hẹn flush tiếp
+        if (!pending.isEmpty()) {
+            scheduleFlush();
+        }
+
+        log.debug("[SellerResolver] Resolving {} distinct seller(s)", batch.size());
+        batch.forEach((sellerId, future) -> {
+            try {
+                sellerLookupExecutor.execute(() -> load(sellerId, future));
+            } catch (RejectedExecutionException e) {
+                inFlight.remove(sellerId, future);
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    private void load(String sellerId, CompletableFuture<SellerResponse> future) {
+        try {
+            ApiResponse<SellerResponse> response = userClient.searchBySellerId(sellerId);
+            SellerResponse seller = response != null ? response.getResult() : null;
+            if (seller != null) {
+                if (cache.size() >= maxEntries) {
+                    cache.values().removeIf(c -> c.isExpired(ttlSeconds));
+                    if (cache.size() >= maxEntries) {
+                        cache.clear();
+                    }
+                }
+                cache.put(sellerId, new CachedSeller(seller, System.currentTimeMillis()));
+            }
+            future.complete(seller);
+        } catch (Exception e) {
+            log.warn("[SellerResolver] Lookup seller {} failed: {}", sellerId, e.getMessage());
+            future.completeExceptionally(e);
+        } finally {
+            inFlight.remove(sellerId, future);
+        }
+    }
+
+    private record CachedSeller(SellerResponse seller, long loadedAt) {
+        boolean isExpired(long ttlSeconds) {
+            return System.currentTimeMillis() - loadedAt > TimeUnit.SECONDS.toMillis(ttlSeconds);
+        }
+    }
+}
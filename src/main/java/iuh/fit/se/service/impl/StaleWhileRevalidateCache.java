@@ -0,0 +1,293 @@
+package iuh.fit.se.service.impl;
+
+import iuh.fit.se.dto.response.CacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Cache in-process với TTL ngắn + stale-while-revalidate.
+ *
+ * - Entry còn trong TTL -> trả ngay (hit)
+ * - Entry quá TTL nhưng còn trong cửa sổ stale -> trả bản cũ, đồng thời tính lại ở background (stale hit)
+ * - Không có entry / quá cửa sổ stale -> tính đồng bộ (miss)
+ *
+ * Mỗi key chỉ có tối đa 1 lần tính đang chạy (single-flight), các request đồng thời dùng chung kết quả.
+ *
+ * Có groupOf (vd. key -> sellerId) -> key được index theo nhóm từ lúc bắt đầu tính,
+ * invalidateGroup chỉ chạm các key của nhóm đó thay vì duyệt toàn bộ cache như invalidateIf.
+ */
+@Slf4j
+public class StaleWhileRevalidateCache<K, V> {
+
+    private final String name;
+    private final long ttlMillis;
+    private final long staleMillis;
+    private final int maxEntries;
+    private final Executor refreshExecutor;
+    // null -> không index theo nhóm (chỉ dùng được invalidateIf)
+    private final Function<K, ?> groupOf;
+
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    // Version theo key, tăng khi key bị invalidate -> kết quả tính xong sau khi key đó bị invalidate không được ghi vào cache.
+    // Chỉ giữ version cho key đang tính (inFlight); key khác lần tính sau đọc version hiện tại nên không cần nhớ.
+    private final Map<K, Long> versions = new ConcurrentHashMap<>();
+    // Nhóm -> key đã có entry hoặc đang tính
+    private final Map<Object, Set<K>> keysByGroup = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public StaleWhileRevalidateCache(String name, long ttlMillis, long staleMillis, int maxEntries,
+                                     Executor refreshExecutor) {
+        this(name, ttlMillis, staleMillis, maxEntries, refreshExecutor, null);
+    }
+
+    public StaleWhileRevalidateCache(String name, long ttlMillis, long staleMillis, int maxEntries,
+                                     Executor refreshExecutor, Function<K, ?> groupOf) {
+        this.name = name;
+        this.ttlMillis = ttlMillis;
+        this.staleMillis = staleMillis;
+        this.maxEntries = maxEntries;
+        this.refreshExecutor = refreshExecutor;
+        this.groupOf = groupOf;
+    }
+
+    public V get(K key, Supplier<V> loader) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null) {
+            long age = System.currentTimeMillis() - entry.loadedAt();
+            if (age <= ttlMillis) {
+                hits.increment();
+                return entry.value();
+            }
+            if (age <= ttlMillis + staleMillis) {
+                staleHits.increment();
+                refreshAsync(key, loader);
+                return entry.value();
+            }
+        }
+
+        misses.increment();
+        return load(key, loader);
+    }
+
+    public void invalidateIf(Predicate<K> predicate) {
+        // Gồm cả key đang tính mà chưa có entry, để kết quả của lần tính đó không bị ghi vào cache
+        Set<K> keys = new HashSet<>(entries.keySet());
+        keys.addAll(inFlight.keySet());
+        for (K key : keys) {
+            if (predicate.test(key)) {
+                invalidate(key);
+                unindex(key);
+            }
+        }
+    }
+
+    /**
+     * Bỏ mọi key của nhóm (cần groupOf), chỉ chạm các key đã index trong nhóm
+     */
+    public void invalidateGroup(Object group) {
+        if (groupOf == null) {
+            throw new IllegalStateException("Cache " + name + " is not grouped");
+        }
+        // Gỡ cả set trong 1 lệnh: key bắt đầu tính sau đó vào set mới và đọc version sau lần invalidate này
+        Set<K> keys = keysByGroup.remove(group);
+        if (keys != null) {
+            keys.forEach(this::invalidate);
+        }
+    }
+
+    public void invalidateAll() {
+        invalidateIf(key -> true);
+    }
+
+    private void invalidate(K key) {
+        // Tăng version và xoá entry trong cùng compute -> không xen được với put của key đó
+        entries.compute(key, (k, entry) -> {
+            versions.merge(k, 1L, Long::sum);
+            if (entry != null) {
+                invalidations.increment();
+            }
+            return null;
+        });
+        releaseVersion(key);
+    }
+
+    // Chỉ giữ version cho key đang tính; key khác lần tính sau đọc version hiện tại
+    private void releaseVersion(K key) {
+        versions.computeIfPresent(key, (k, version) -> inFlight.containsKey(k) ? version : null);
+    }
+
+    /**
+     * Gọi sau khi key đã vào inFlight và trước khi đọc version
+     * -> invalidateGroup chạy sau đó luôn thấy key (hoặc lần tính đọc được version mới)
+     */
+    private void index(K key) {
+        if (groupOf == null) {
+            return;
+        }
+        keysByGroup.compute(groupOf.apply(key), (group, keys) -> {
+            Set<K> indexed = keys == null ? ConcurrentHashMap.newKeySet() : keys;
+            indexed.add(key);
+            return indexed;
+        });
+    }
+
+    private void unindex(K key) {
+        if (groupOf == null) {
+            return;
+        }
+        keysByGroup.computeIfPresent(groupOf.apply(key), (group, keys) -> {
+            // Key đang tính lại vẫn phải được invalidateGroup nhìn thấy
+            if (!inFlight.containsKey(key)) {
+                keys.remove(key);
+            }
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    public CacheMetrics metrics() {
+        long hitCount = hits.sum();
+        long staleCount = staleHits.sum();
+        long missCount = misses.sum();
+        long total = hitCount + staleCount + missCount;
+
+        return CacheMetrics.builder()
+                .name(name)
+                .size(entries.size())
+                .hits(hitCount)
+                .staleHits(staleCount)
+                .misses(missCount)
+                .refreshes(refreshes.sum())
+                .refreshFailures(refreshFailures.sum())
+                .invalidations(invalidations.sum())
+                .evictions(evictions.sum())
+                .hitRatio(total > 0 ? Math.round((hitCount + staleCount) * 10000.0 / total) / 10000.0 : 0.0)
+                .build();
+    }
+
+    private V load(K key, Supplier<V> loader) {
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            return await(existing);
+        }
+
+        index(key);
+        long version = versions.getOrDefault(key, 0L);
+        try {
+            V value = loader.get();
+            put(key, value, version);
+            created.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, created);
+            releaseVersion(key);
+        }
+    }
+
+    private void refreshAsync(K key, Supplier<V> loader) {
+        CompletableFuture<V> created = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(key, created) != null) {
+            return; // đã có refresh đang chạy
+        }
+
+        index(key);
+        long version = versions.getOrDefault(key, 0L);
+        refreshes.increment();
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    V value = loader.get();
+                    put(key, value, version);
+                    created.complete(value);
+                } catch (Exception e) {
+                    refreshFailures.increment();
+                    log.warn("[{}] Background refresh failed for key {}: {}", name, key, e.getMessage());
+                    created.completeExceptionally(e);
+                } finally {
+                    inFlight.remove(key, created);
+                    releaseVersion(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshFailures.increment();
+            log.warn("[{}] Refresh executor saturated, keep serving stale value for key {}", name, key);
+            inFlight.remove(key, created);
+            created.completeExceptionally(e);
+        }
+    }
+
+    private void put(K key, V value, long version) {
+        if (!entries.containsKey(key) && entries.size() >= maxEntries) {
+            evict();
+        }
+        entries.compute(key, (k, current) -> {
+            if (versions.getOrDefault(k, 0L) != version) {
+                return current; // key bị invalidate trong lúc đang tính -> không cache giá trị cũ
+            }
+            return new Entry<>(value, System.currentTimeMillis());
+        });
+    }
+
+    private void evict() {
+        long now = System.currentTimeMillis();
+        // Ưu tiên bỏ các entry đã quá cửa sổ stale
+        entries.entrySet().removeIf(e -> {
+            if (now - e.getValue().loadedAt() > ttlMillis + staleMillis) {
+                evictions.increment();
+                unindex(e.getKey());
+                return true;
+            }
+            return false;
+        });
+        if (entries.size() < maxEntries) {
+            return;
+        }
+        // Vẫn đầy -> bỏ entry cũ nhất
+        entries.entrySet().stream()
+                .min(Comparator.comparingLong(e -> e.getValue().loadedAt()))
+                .ifPresent(oldest -> {
+                    if (entries.remove(oldest.getKey(), oldest.getValue())) {
+                        evictions.increment();
+                        unindex(oldest.getKey());
+                    }
+                });
+    }
+
+    private V await(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw e;
+        }
+    }
+
+    private record Entry<V>(V value, long loadedAt) {
+    }
+}
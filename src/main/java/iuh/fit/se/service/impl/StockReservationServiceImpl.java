@@ -1,6 +1,8 @@
 package iuh.fit.se.service.impl;
 
+import iuh.fit.event.dto.StockReservedEvent;
 import iuh.fit.se.dto.request.ReserveStockRequest;
+import iuh.fit.se.dto.response.ReservationBatchResponse;
 import iuh.fit.se.entity.Product;
 import iuh.fit.se.entity.StockReservation;
 import iuh.fit.se.entity.records.Variant;
@@ -8,23 +10,34 @@ import iuh.fit.se.exception.AppException;
 import iuh.fit.se.exception.ErrorCode;
 import iuh.fit.se.repository.ProductRepository;
 import iuh.fit.se.repository.StockReservationRepository;
+import iuh.fit.se.service.InventoryAlertService;
 import iuh.fit.se.service.StockReservationService;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
@@ -35,19 +48,45 @@ public class StockReservationServiceImpl implements StockReservationService {
     StockReservationRepository reservationRepository;
     ProductRepository productRepository;
     MongoTemplate mongoTemplate;
+    InventoryAlertService inventoryAlertService;
+    HotStockLedger hotStockLedger;
+    ProductStockIndexer productStockIndexer;
+
+    ApplicationEventPublisher eventPublisher;
 
     private static final int DEFAULT_EXPIRATION_MINUTES = 15;
+    private static final int RECOVER_AFTER_MINUTES = 5;
+
+    @NonFinal
+    @Value("${stock.reservation.cleanup.page-size:500}")
+    int expirePageSize;
+
+    @NonFinal
+    @Value("${stock.reservation.reserve.max-attempts:3}")
+    int reserveMaxAttempts;
 
+    @NonFinal
+    @Value("${stock.reservation.reserve.retry-backoff-ms:20}")
+    long reserveRetryBackoffMs;
+
+    /**
+     * Đặt chỗ tất cả item hoặc không item nào:
+     * - Gộp item theo variant, mỗi sản phẩm 1 lệnh $inc có điều kiện (quantity >= qty) cho mọi variant của nó
+     * - Sản phẩm nào không trừ được -> hoàn lại các sản phẩm đã trừ rồi báo lỗi
+     */
     @Override
-    @Transactional
     public StockReservation reserveStock(ReserveStockRequest request) {
         log.info("Reserving stock for payment intent: {}", request.getUserId());
 
+        // productId -> (options -> tổng số lượng), giữ thứ tự request
+        Map<String, Map<Map<String, String>, Integer>> byProduct = new LinkedHashMap<>();
         List<StockReservation.Item> reservationItems = new ArrayList<>();
-
-        // Duyệt qua từng item và trừ số lượng
         for (ReserveStockRequest.ReservationItem item : request.getItems()) {
-            reserveProductStock(item.getProductId(), item.getOptions(), item.getQuantity());
+            if (item.getQuantity() == null || item.getQuantity() <= 0) {
+                throw new AppException(ErrorCode.QUANTITY_INVALID);
+            }
+            byProduct.computeIfAbsent(item.getProductId(), id -> new LinkedHashMap<>())
+                    .merge(item.getOptions(), item.getQuantity(), Integer::sum);
 
             reservationItems.add(StockReservation.Item.builder()
                     .productId(item.getProductId())
@@ -56,6 +95,26 @@ public class StockReservationServiceImpl implements StockReservationService {
                     .build());
         }
 
+        List<StockReservation.Item> reserved = new ArrayList<>();
+        try {
+            byProduct.forEach((productId, variants) -> {
+                if (hotStockLedger.isHot(productId)) {
+                    // SKU flash sale: trừ trong allotment in-memory, không chạm document sản phẩm
+                    hotStockLedger.reserve(productId, variants);
+                } else {
+                    reserveProductStock(productId, variants);
+                }
+                variants.forEach((options, qty) -> reserved.add(StockReservation.Item.builder()
+                        .productId(productId)
+                        .options(options)
+                        .qty(qty)
+                        .build()));
+            });
+        } catch (RuntimeException e) {
+            compensate(reserved, e);
+            throw e;
+        }
+
         // Tạo reservation record
         int expirationMinutes = request.getExpirationMinutes() != null
                 ? request.getExpirationMinutes()
@@ -69,181 +128,521 @@ public class StockReservationServiceImpl implements StockReservationService {
                 .createdAt(Instant.now())
                 .build();
 
-        StockReservation saved = reservationRepository.save(reservation);
+        StockReservation saved;
+        try {
+            saved = reservationRepository.save(reservation);
+        } catch (RuntimeException e) {
+            compensate(reserved, e);
+            throw e;
+        }
+        eventPublisher.publishEvent(StockReservedEvent.builder()
+                .reservationId(saved.getId())
+                .expiresAt(saved.getExpiresAt())
+                .build());
         log.info("Stock reserved successfully for payment intent: {}", request.getUserId());
 
         return saved;
     }
 
     @Override
-    @Transactional
-    public void confirmReservation(String userId) {
-        log.info("Confirming reservation for payment intent: {}", userId);
+    public void confirmReservationById(String reservationId) {
+        log.info("Confirming reservation {}", reservationId);
 
-        StockReservation reservation = reservationRepository.findByUserIdOrderByCreatedAtDesc(userId)
-                .stream()
-                .findFirst()
-                .orElseThrow(() -> new AppException(ErrorCode.RESERVATION_NOT_FOUND));
+        if (confirmReservations(List.of(reservationId)).getSucceeded() == 0) {
+            logNotPending(reservationId);
+            return;
+        }
+
+        log.info("Reservation {} confirmed", reservationId);
+    }
+
+    @Override
+    public void releaseReservationById(String reservationId) {
+        log.info("Releasing reservation {}", reservationId);
 
-        if (reservation.getStatus() != StockReservation.Status.PENDING) {
-            log.warn("Reservation {} is not PENDING, current status: {}",
-                    userId, reservation.getStatus());
+        if (releaseReservations(List.of(reservationId)).getSucceeded() == 0) {
+            logNotPending(reservationId);
             return;
         }
 
-        // Cập nhật status sang CONFIRMED
-        reservation.setStatus(StockReservation.Status.CONFIRMED);
-        reservationRepository.save(reservation);
+        log.info("Reservation {} released", reservationId);
+    }
 
-        log.info("Reservation confirmed for payment intent: {}", userId);
+    @Override
+    public void confirmReservation(String userId) {
+        findOpenReservationId(userId)
+                .ifPresentOrElse(this::confirmReservationById, () -> logNoOpenReservation(userId));
     }
 
     @Override
-    @Transactional
     public void releaseReservation(String userId) {
-        log.info("Releasing reservation for payment intent: {}", userId);
-
-        StockReservation reservation = reservationRepository.findByUserIdOrderByCreatedAtDesc(userId)
-                .stream()
-                .findFirst()
-                .orElseThrow(() -> new AppException(ErrorCode.RESERVATION_NOT_FOUND));
+        findOpenReservationId(userId)
+                .ifPresentOrElse(this::releaseReservationById, () -> logNoOpenReservation(userId));
+    }
 
-        if (reservation.getStatus() == StockReservation.Status.CONFIRMED) {
-            log.warn("Cannot release CONFIRMED reservation: {}", userId);
-            return;
+    /**
+     * Chuyển trạng thái atomic cả lô: chỉ reservation còn PENDING -> CONFIRMED (stockSettled = false),
+     * sau đó giảm reserved; lô chết giữa chừng được recoverUnsettledConfirms giảm nốt
+     */
+    @Override
+    public ReservationBatchResponse confirmReservations(Collection<String> reservationIds) {
+        if (reservationIds == null || reservationIds.isEmpty()) {
+            return batchResult(0, 0);
         }
 
-        if (reservation.getStatus() == StockReservation.Status.RELEASED ||
-                reservation.getStatus() == StockReservation.Status.EXPIRED) {
-            log.info("Reservation {} already released/expired", userId);
-            return;
+        String batchId = UUID.randomUUID().toString();
+        Query query = new Query(Criteria.where("_id").in(reservationIds)
+                .and("status").is(StockReservation.Status.PENDING));
+        long confirmed = mongoTemplate.updateMulti(query, new Update()
+                        .set("status", StockReservation.Status.CONFIRMED)
+                        .set("confirmBatchId", batchId)
+                        .set("terminalAt", Instant.now())
+                        .set("stockSettled", false),
+                StockReservation.class).getModifiedCount();
+        if (confirmed > 0) {
+            try {
+                settleConfirmed(batchId);
+            } catch (RuntimeException e) {
+                // Đã CONFIRMED, không để Kafka retry (không còn PENDING); sweeper giảm reserved sau
+                log.error("Settle confirm batch {} failed, left for recovery: {}", batchId, e.getMessage());
+            }
         }
 
-        // Hoàn trả số lượng cho từng item
-        for (StockReservation.Item item : reservation.getItems()) {
-            restoreProductStock(item.getProductId(), item.getOptions(), item.getQty());
+        log.info("Confirmed {}/{} reservation(s)", confirmed, reservationIds.size());
+        return batchResult(reservationIds.size(), (int) confirmed);
+    }
+
+    /**
+     * Chỉ reservation chuyển được PENDING -> RELEASED trong lô này mới được hoàn kho
+     * (không đua với expire / release khác), hoàn kho gộp theo variant cho cả lô
+     */
+    @Override
+    public ReservationBatchResponse releaseReservations(Collection<String> reservationIds) {
+        if (reservationIds == null || reservationIds.isEmpty()) {
+            return batchResult(0, 0);
         }
 
-        // Cập nhật status
-        reservation.setStatus(StockReservation.Status.RELEASED);
-        reservationRepository.save(reservation);
+        int released = claimAndRestore(Criteria.where("_id").in(reservationIds)
+                .and("status").is(StockReservation.Status.PENDING), StockReservation.Status.RELEASED);
+
+        log.info("Released {}/{} reservation(s)", released, reservationIds.size());
+        return batchResult(reservationIds.size(), released);
+    }
+
+    private ReservationBatchResponse batchResult(int requested, int succeeded) {
+        return ReservationBatchResponse.builder()
+                .requested(requested)
+                .succeeded(succeeded)
+                .skipped(requested - succeeded)
+                .build();
+    }
+
+    /**
+     * Reservation PENDING mới nhất của user (index {userId, status, createdAt})
+     */
+    private Optional<String> findOpenReservationId(String userId) {
+        return reservationRepository
+                .findFirstByUserIdAndStatusOrderByCreatedAtDesc(userId, StockReservation.Status.PENDING)
+                .map(StockReservation::getId);
+    }
+
+    /**
+     * Không còn reservation PENDING (đã confirm / release / expire, hoặc gọi lặp lại) -> bỏ qua như trước,
+     * chỉ báo lỗi khi user chưa từng có reservation nào
+     */
+    private void logNoOpenReservation(String userId) {
+        StockReservation latest = reservationRepository.findFirstByUserIdOrderByCreatedAtDesc(userId)
+                .orElseThrow(() -> new AppException(ErrorCode.RESERVATION_NOT_FOUND));
+        log.warn("Reservation {} of user {} is not PENDING, current status: {}",
+                latest.getId(), userId, latest.getStatus());
+    }
 
-        log.info("Reservation released for payment intent: {}", userId);
+    private void logNotPending(String reservationId) {
+        StockReservation current = reservationRepository.findById(reservationId)
+                .orElseThrow(() -> new AppException(ErrorCode.RESERVATION_NOT_FOUND));
+        log.warn("Reservation {} is not PENDING, current status: {}", reservationId, current.getStatus());
     }
 
+    /**
+     * Lưới an toàn cho ReservationExpiryScheduler: quét theo trang (chỉ đọc id) và expire theo lô
+     */
     @Override
-    @Transactional
     public void expireReservations() {
         log.info("Checking for expired reservations...");
 
-        List<StockReservation> expiredReservations = reservationRepository
-                .findByStatusAndExpiresAtBefore(
-                        StockReservation.Status.PENDING,
-                        Instant.now()
-                );
+        recoverUnrestoredClaims();
+        recoverUnsettledConfirms();
+
+        int total = 0;
+        while (true) {
+            Query query = new Query(Criteria.where("status").is(StockReservation.Status.PENDING)
+                    .and("expiresAt").lt(Instant.now()))
+                    .limit(expirePageSize);
+            query.fields().include("_id");
+
+            List<String> ids = mongoTemplate.find(query, StockReservation.class).stream()
+                    .map(StockReservation::getId)
+                    .toList();
+            if (ids.isEmpty()) break;
+
+            int expired = expireReservations(ids);
+            total += expired;
+            // Không claim được gì (replica khác đang xử lý) -> dừng, tránh lặp vô hạn
+            if (expired == 0 || ids.size() < expirePageSize) break;
+        }
 
-        log.info("Found {} expired reservations", expiredReservations.size());
+        log.info("Expired {} reservation(s) by sweeper", total);
+    }
 
-        for (StockReservation reservation : expiredReservations) {
-            try {
-                // Hoàn trả số lượng
-                for (StockReservation.Item item : reservation.getItems()) {
-                    restoreProductStock(item.getProductId(), item.getOptions(), item.getQty());
-                }
+    @Override
+    public int expireReservations(Collection<String> reservationIds) {
+        if (reservationIds == null || reservationIds.isEmpty()) {
+            return 0;
+        }
 
-                // Cập nhật status
-                reservation.setStatus(StockReservation.Status.EXPIRED);
-                reservationRepository.save(reservation);
+        // Chỉ reservation còn PENDING và đã quá hạn; đã confirm/release hoặc replica khác đã claim sẽ không khớp
+        return claimAndRestore(Criteria.where("_id").in(reservationIds)
+                .and("status").is(StockReservation.Status.PENDING)
+                .and("expiresAt").lte(Instant.now()), StockReservation.Status.EXPIRED);
+    }
 
-                log.info("Expired reservation {} and restored stock",reservation.getId());
-            } catch (Exception e) {
-                log.error("Failed to expire reservation {}: {}", e.getMessage());
-            }
+    /**
+     * 1) Claim atomic: chuyển các reservation khớp sang trạng thái cuối, gắn restoreBatchId
+     * 2) Hoàn kho gộp theo variant cho cả lô
+     * @return số reservation đã claim
+     */
+    private int claimAndRestore(Criteria match, StockReservation.Status target) {
+        String batchId = UUID.randomUUID().toString();
+        long claimed = mongoTemplate.updateMulti(new Query(match), new Update()
+                        .set("status", target)
+                        .set("restoreBatchId", batchId)
+                        .set("terminalAt", Instant.now())
+                        .set("stockRestored", false),
+                StockReservation.class).getModifiedCount();
+        if (claimed == 0) {
+            return 0;
         }
+
+        restoreClaimedBatch(batchId);
+        return (int) claimed;
     }
 
     /**
-     * Trừ số lượng sản phẩm (với optimistic locking)
+     * Claim xong nhưng chưa hoàn kho (process chết giữa chừng) -> hoàn kho lại theo batchId
      */
-    private void reserveProductStock(String productId, Map<String, String> options, Integer quantity) {
-        Product product = productRepository.findById(productId)
-                .orElseThrow(() -> new AppException(ErrorCode.PRODUCT_NOT_FOUND));
-
-        // Tìm variant phù hợp
-        Variant matchedVariant = findMatchingVariant(product, options);
+    private void recoverUnrestoredClaims() {
+        Query query = new Query(Criteria.where("status")
+                .in(StockReservation.Status.EXPIRED, StockReservation.Status.RELEASED)
+                .and("stockRestored").is(false)
+                .and("terminalAt").lt(Instant.now().minus(RECOVER_AFTER_MINUTES, ChronoUnit.MINUTES)));
+        List<String> batchIds = mongoTemplate.findDistinct(query, "restoreBatchId", StockReservation.class, String.class);
+        for (String batchId : batchIds) {
+            log.warn("Recovering unrestored batch {}", batchId);
+            restoreClaimedBatch(batchId);
+        }
+    }
 
-        if (matchedVariant == null) {
-            throw new AppException(ErrorCode.VARIANT_NOT_FOUND);
+    /**
+     * Confirm xong nhưng chưa giảm reserved (process chết / lỗi Mongo giữa chừng) -> giảm lại theo confirmBatchId
+     */
+    private void recoverUnsettledConfirms() {
+        Query query = new Query(Criteria.where("status").is(StockReservation.Status.CONFIRMED)
+                .and("stockSettled").is(false)
+                .and("terminalAt").lt(Instant.now().minus(RECOVER_AFTER_MINUTES, ChronoUnit.MINUTES)));
+        List<String> batchIds = mongoTemplate.findDistinct(query, "confirmBatchId", StockReservation.class, String.class);
+        for (String batchId : batchIds) {
+            log.warn("Recovering unsettled confirm batch {}", batchId);
+            try {
+                settleConfirmed(batchId);
+            } catch (RuntimeException e) {
+                log.error("Failed to recover confirm batch {}: {}", batchId, e.getMessage());
+            }
         }
+    }
 
-        if (matchedVariant.quantity() < quantity) {
-            throw new AppException(ErrorCode.INSUFFICIENT_STOCK);
+    /**
+     * Hoàn kho gộp theo sản phẩm cho cả lô. Marker batchId được ghi lên sản phẩm trong cùng lệnh $inc,
+     * nên lần khôi phục sau (process chết giữa chừng) không hoàn lại sản phẩm đã hoàn.
+     * SKU nóng hoàn vào allotment (WAL local) nên không ghi chung được: ghi nhận riêng vào restoredProductIds.
+     */
+    private void restoreClaimedBatch(String batchId) {
+        Query byBatch = new Query(Criteria.where("restoreBatchId").is(batchId).and("stockRestored").is(false));
+        List<StockReservation> reservations = mongoTemplate.find(byBatch, StockReservation.class);
+        if (reservations.isEmpty()) {
+            return;
         }
 
-        // Trừ số lượng bằng atomic operation
-        Query query = new Query(Criteria.where("_id").is(productId)
-                .and("variants").elemMatch(buildVariantCriteria(options))
-                .and("version").is(product.getVersion()));
+        Set<String> alreadyRestored = reservations.stream()
+                .filter(reservation -> reservation.getRestoredProductIds() != null)
+                .flatMap(reservation -> reservation.getRestoredProductIds().stream())
+                .collect(Collectors.toSet());
+        Map<String, Map<Map<String, String>, Integer>> byProduct = groupByProduct(reservations.stream()
+                .flatMap(reservation -> reservation.getItems().stream())
+                .toList());
+
+        int variants = 0;
+        for (Map.Entry<String, Map<Map<String, String>, Integer>> entry : byProduct.entrySet()) {
+            String productId = entry.getKey();
+            if (!hotStockLedger.isHot(productId)) {
+                restoreProductStock(productId, entry.getValue(), batchId);
+            } else if (!alreadyRestored.contains(productId)) {
+                restoreProductStock(productId, entry.getValue(), null);
+                mongoTemplate.updateMulti(new Query(Criteria.where("restoreBatchId").is(batchId)),
+                        new Update().addToSet("restoredProductIds", productId), StockReservation.class);
+            } else {
+                continue;
+            }
+            variants += entry.getValue().size();
+        }
 
-        Update update = new Update()
-                .inc("variants.$.quantity", -quantity)
-                .inc("version", 1);
+        mongoTemplate.updateMulti(byBatch, new Update().set("stockRestored", true), StockReservation.class);
+        clearAppliedMarker(byProduct.keySet(), batchId);
+        log.info("Restored {} variant(s) for {} reservation(s) (batch {}, {} product(s) already restored)",
+                variants, reservations.size(), batchId, alreadyRestored.size());
+    }
 
-        var result = mongoTemplate.updateFirst(query, update, Product.class);
+    /**
+     * Hoàn kho gộp theo variant: productId + options -> tổng số lượng, mỗi variant 1 lần ghi
+     * @return số variant đã hoàn
+     */
+    private int restoreItems(List<StockReservation.Item> items) {
+        Map<String, Map<Map<String, String>, Integer>> byProduct = groupByProduct(items);
+        byProduct.forEach((productId, variants) -> restoreProductStock(productId, variants, null));
+        return byProduct.values().stream().mapToInt(Map::size).sum();
+    }
 
-        if (result.getModifiedCount() == 0) {
-            throw new AppException(ErrorCode.CONCURRENT_UPDATE_CONFLICT);
+    /**
+     * productId -> (options -> tổng số lượng)
+     */
+    private Map<String, Map<Map<String, String>, Integer>> groupByProduct(List<StockReservation.Item> items) {
+        Map<String, Map<Map<String, String>, Integer>> byProduct = new LinkedHashMap<>();
+        for (StockReservation.Item item : items) {
+            byProduct.computeIfAbsent(item.getProductId(), id -> new LinkedHashMap<>())
+                    .merge(item.getOptions(), item.getQty(), Integer::sum);
         }
+        return byProduct;
+    }
 
-        log.info("Reserved {} units of product {} (variant: {})", quantity, productId, options);
+    /**
+     * Hoàn lại các sản phẩm đã trừ khi cả giỏ không đặt chỗ được
+     */
+    private void compensate(List<StockReservation.Item> reserved, RuntimeException cause) {
+        if (reserved.isEmpty()) {
+            return;
+        }
+        log.warn("Reservation failed ({}), compensating {} reserved variant(s)", cause.getMessage(), reserved.size());
+        restoreItems(reserved);
     }
 
     /**
-     * Hoàn trả số lượng sản phẩm
+     * Trừ số lượng các variant của 1 sản phẩm bằng 1 lệnh update atomic.
+     * Điều kiện nằm trong query (mỗi variant phải còn đủ hàng), arrayFilters chỉ định phần tử cần $inc,
+     * nên không cần so version: ghi đồng thời vào field khác của sản phẩm không làm đặt chỗ thất bại.
+     * Không khớp mà hàng vẫn đủ (đua với lệnh khác) -> thử lại có giới hạn, backoff có jitter.
      */
-    private void restoreProductStock(String productId, Map<String, String> options, Integer quantity) {
-        Query query = new Query(Criteria.where("_id").is(productId)
-                .and("variants").elemMatch(buildVariantCriteria(options)));
+    private void reserveProductStock(String productId, Map<Map<String, String>, Integer> variants) {
+        // Mỗi dòng giỏ phải xác định đúng 1 variant (options khớp toàn bộ), không thì arrayFilter trừ nhiều variant
+        Product snapshot = productRepository.findById(productId)
+                .orElseThrow(() -> new AppException(ErrorCode.PRODUCT_NOT_FOUND));
+        variants.keySet().forEach(options -> {
+            if (VariantMatching.resolve(snapshot, options) == null) {
+                throw new AppException(ErrorCode.VARIANT_NOT_FOUND);
+            }
+        });
+
+        List<Map.Entry<Map<String, String>, Integer>> entries = new ArrayList<>(variants.entrySet());
+
+        List<Criteria> guards = new ArrayList<>();
+        guards.add(Criteria.where("_id").is(productId));
+        Update update = new Update().inc("version", 1);
+        for (int i = 0; i < entries.size(); i++) {
+            Map<String, String> options = entries.get(i).getKey();
+            int qty = entries.get(i).getValue();
+            String id = "v" + i;
+
+            guards.add(Criteria.where("variants").elemMatch(VariantMatching.elemMatch(options).and("quantity").gte(qty)));
+            update.inc("variants.$[" + id + "].quantity", -qty);
+            update.inc("variants.$[" + id + "].reserved", qty);
+            update.filterArray(VariantMatching.arrayFilter(id, options).and(id + ".quantity").gte(qty));
+        }
+        Query query = new Query(new Criteria().andOperator(guards.toArray(new Criteria[0])));
+
+        for (int attempt = 1; ; attempt++) {
+            Product updated = mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().returnNew(true), Product.class);
+            if (updated != null) {
+                log.info("Reserved {} variant(s) of product {}", entries.size(), productId);
+                for (Map.Entry<Map<String, String>, Integer> entry : entries) {
+                    Variant variant = VariantMatching.resolve(updated, entry.getKey());
+                    if (variant != null && variant.quantity() != null) {
+                        inventoryAlertService.onStockChanged(updated, variant.options(),
+                                variant.quantity() + entry.getValue(), variant.quantity());
+                    }
+                }
+                productStockIndexer.syncVariants(updated);
+                return;
+            }
+
+            // Không khớp: thiếu hàng / không có variant là lỗi thật, còn lại là đua ghi -> thử lại
+            checkReservable(productId, variants);
+            if (attempt >= reserveMaxAttempts) {
+                throw new AppException(ErrorCode.CONCURRENT_UPDATE_CONFLICT);
+            }
+            backoff(attempt);
+        }
+    }
 
-        Update update = new Update()
-                .inc("variants.$.quantity", quantity)
-                .inc("version", 1);
+    private void checkReservable(String productId, Map<Map<String, String>, Integer> variants) {
+        Product product = productRepository.findById(productId)
+                .orElseThrow(() -> new AppException(ErrorCode.PRODUCT_NOT_FOUND));
+        variants.forEach((options, qty) -> {
+            Variant variant = VariantMatching.resolve(product, options);
+            if (variant == null) {
+                throw new AppException(ErrorCode.VARIANT_NOT_FOUND);
+            }
+            if (variant.quantity() == null || variant.quantity() < qty) {
+                throw new AppException(ErrorCode.INSUFFICIENT_STOCK);
+            }
+        });
+    }
 
-        var result = mongoTemplate.updateFirst(query, update, Product.class);
+    private void backoff(int attempt) {
+        long base = reserveRetryBackoffMs * (1L << (attempt - 1));
+        try {
+            Thread.sleep(base + ThreadLocalRandom.current().nextLong(base + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AppException(ErrorCode.CONCURRENT_UPDATE_CONFLICT);
+        }
+    }
 
-        if (result.getModifiedCount() == 0) {
-            log.error("Failed to restore stock for product {} (variant: {})", productId, options);
-        } else {
-            log.info("Restored {} units of product {} (variant: {})", quantity, productId, options);
+    /**
+     * Hoàn trả số lượng các variant của 1 sản phẩm: quantity += qty, reserved -= qty (1 lệnh update)
+     * batchId != null -> marker của lô được ghi trong cùng lệnh, sản phẩm đã có marker thì bỏ qua
+     */
+    private void restoreProductStock(String productId, Map<Map<String, String>, Integer> variants, String batchId) {
+        if (hotStockLedger.isHot(productId)) {
+            variants.forEach((options, qty) -> hotStockLedger.release(productId, options, qty));
+            return;
+        }
+
+        Product snapshot = productRepository.findById(productId).orElse(null);
+        if (snapshot != null && batchId != null && isApplied(snapshot, batchId)) {
+            log.info("Restore batch {} already applied on product {}", batchId, productId);
+            return;
+        }
+        Product updated = snapshot == null ? null : adjustVariants(snapshot, variants, true, batchId);
+        if (updated == null) {
+            log.error("Failed to restore stock for product {} (variants: {})", productId, variants.keySet());
+            return;
         }
+        log.info("Restored {} variant(s) of product {}", variants.size(), productId);
+
+        // Số lượng mới lấy từ document sau khi cập nhật (phục vụ cảnh báo tồn kho)
+        variants.forEach((options, qty) -> {
+            Variant restored = VariantMatching.resolve(updated, options);
+            if (restored != null && restored.quantity() != null) {
+                inventoryAlertService.onStockChanged(updated, restored.options(),
+                        restored.quantity() - qty, restored.quantity());
+            }
+        });
     }
 
     /**
-     * Tìm variant khớp với options
+     * Reservation đã thanh toán: hàng coi như đã bán, chỉ giảm reserved.
+     * Mỗi sản phẩm giảm kèm marker batchId trong cùng lệnh ghi -> chạy lại (recovery) không giảm lần 2.
+     * Lỗi Mongo ném ra ngoài, lô giữ stockSettled = false để sweeper khôi phục.
      */
-    private Variant findMatchingVariant(Product product, Map<String, String> options) {
-        if (product.getVariants() == null || options == null) {
-            return null;
+    private void settleConfirmed(String batchId) {
+        Query byBatch = new Query(Criteria.where("confirmBatchId").is(batchId).and("stockSettled").is(false));
+        byBatch.fields().include("items");
+        List<StockReservation.Item> items = mongoTemplate.find(byBatch, StockReservation.class).stream()
+                .flatMap(reservation -> reservation.getItems().stream())
+                .toList();
+        if (items.isEmpty()) {
+            return;
         }
 
-        return product.getVariants().stream()
-                .filter(v -> v.options() != null && v.options().equals(options))
-                .findFirst()
-                .orElse(null);
+        Map<String, Map<Map<String, String>, Integer>> byProduct = groupByProduct(items);
+        byProduct.forEach((productId, variants) -> {
+            if (hotStockLedger.isHot(productId)) {
+                return; // SKU nóng không theo dõi reserved trong Mongo
+            }
+            Product snapshot = productRepository.findById(productId).orElse(null);
+            if (snapshot == null) {
+                log.warn("Product {} no longer exists, skip settling batch {}", productId, batchId);
+                return;
+            }
+            if (isApplied(snapshot, batchId)) {
+                log.info("Confirm batch {} already settled on product {}", batchId, productId);
+                return;
+            }
+            if (adjustVariants(snapshot, variants, false, batchId) == null) {
+                log.warn("Failed to settle reserved counter for product {} (variants: {})",
+                        productId, variants.keySet());
+            }
+        });
+
+        mongoTemplate.updateMulti(byBatch, new Update().set("stockSettled", true), StockReservation.class);
+        clearAppliedMarker(byProduct.keySet(), batchId);
+    }
+
+    private boolean isApplied(Product product, String batchId) {
+        return product.getAppliedBatchIds() != null && product.getAppliedBatchIds().contains(batchId);
     }
 
     /**
-     * Build criteria để match variant trong MongoDB query
+     * Lô đã đánh dấu xong trên reservation -> marker trên sản phẩm không còn cần
      */
-    private Criteria buildVariantCriteria(Map<String, String> options) {
-        Criteria criteria = new Criteria();
+    private void clearAppliedMarker(Collection<String> productIds, String batchId) {
+        mongoTemplate.updateMulti(new Query(Criteria.where("_id").in(productIds)),
+                new Update().pull("appliedBatchIds", batchId), Product.class);
+    }
 
-        if (options != null && !options.isEmpty()) {
-            options.forEach((key, value) ->
-                    criteria.and("options." + key).is(value)
-            );
+    /**
+     * reserved -= qty cho các variant (restore = true thì quantity += qty) bằng 1 findAndModify dùng arrayFilters,
+     * rồi đồng bộ variants sang Elasticsearch.
+     * reserved chỉ giảm khi còn >= qty (filter riêng r*): reservation tạo trước khi có bộ đếm reserved
+     * không làm nó âm, quantity vẫn được cộng theo filter v*.
+     * batchId != null -> chỉ áp dụng nếu sản phẩm chưa có marker của lô, ghi marker trong cùng lệnh.
+     */
+    private Product adjustVariants(Product snapshot, Map<Map<String, String>, Integer> variants, boolean restore,
+                                   String batchId) {
+        String productId = snapshot.getId();
+        List<Criteria> guards = new ArrayList<>();
+        guards.add(Criteria.where("_id").is(productId));
+        Update update = new Update().inc("version", 1);
+        if (batchId != null) {
+            guards.add(Criteria.where("appliedBatchIds").ne(batchId));
+            update.addToSet("appliedBatchIds", batchId);
+        }
+        int i = 0;
+        for (Map.Entry<Map<String, String>, Integer> entry : variants.entrySet()) {
+            if (VariantMatching.resolve(snapshot, entry.getKey()) == null) {
+                // Không xác định được đúng 1 variant -> bỏ qua, không cộng/trừ nhầm sang variant khác
+                log.error("Cannot resolve variant {} of product {}, skipping adjustment of {} unit(s)",
+                        entry.getKey(), productId, entry.getValue());
+                continue;
+            }
+            String id = "v" + i;
+            String reservedId = "r" + i++;
+            guards.add(Criteria.where("variants").elemMatch(VariantMatching.elemMatch(entry.getKey())));
+            if (restore) {
+                update.inc("variants.$[" + id + "].quantity", entry.getValue());
+                update.filterArray(VariantMatching.arrayFilter(id, entry.getKey()));
+            }
+            update.inc("variants.$[" + reservedId + "].reserved", -entry.getValue());
+            update.filterArray(VariantMatching.arrayFilter(reservedId, entry.getKey())
+                    .and(reservedId + ".reserved").gte(entry.getValue()));
+        }
+        if (i == 0) {
+            return null;
         }
 
-        return criteria;
+        Product updated = mongoTemplate.findAndModify(
+                new Query(new Criteria().andOperator(guards.toArray(new Criteria[0]))), update,
+                FindAndModifyOptions.options().returnNew(true), Product.class);
+        productStockIndexer.syncVariants(updated);
+        return updated;
     }
-}
\ No newline at end of file
+}
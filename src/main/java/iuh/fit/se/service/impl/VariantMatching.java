@@ -0,0 +1,67 @@
+package iuh.fit.se.service.impl;
+
+import iuh.fit.se.entity.Product;
+import iuh.fit.se.entity.records.Variant;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Xác định variant theo options cho các update positional ($[id] + arrayFilters) trên Product.variants.
+ *
+ * arrayFilter so từng key "options.x" nên options yêu cầu là tập con của nhiều variant sẽ cập nhật tất cả.
+ * Vì vậy mỗi options phải resolve ra đúng 1 variant trước khi build query.
+ */
+public final class VariantMatching {
+
+    private VariantMatching() {
+    }
+
+    /**
+     * Variant duy nhất có options bằng đúng options yêu cầu.
+     * null nếu options null, không variant nào khớp, hoặc options yêu cầu cũng là tập con của variant khác
+     * (arrayFilter theo từng key sẽ khớp cả variant đó).
+     */
+    public static Variant resolve(Product product, Map<String, String> options) {
+        if (options == null || product.getVariants() == null) {
+            return null;
+        }
+        List<Variant> candidates = product.getVariants().stream()
+                .filter(v -> optionsOf(v).entrySet().containsAll(options.entrySet()))
+                .toList();
+        if (candidates.size() != 1 || !optionsOf(candidates.get(0)).equals(options)) {
+            return null;
+        }
+        return candidates.get(0);
+    }
+
+    /**
+     * Điều kiện elemMatch trên variants (query guard); options rỗng -> variant không có option nào ({} / null)
+     */
+    public static Criteria elemMatch(Map<String, String> options) {
+        if (options.isEmpty()) {
+            return Criteria.where("options").in(new Document(), null);
+        }
+        Criteria criteria = new Criteria();
+        options.forEach((key, value) -> criteria.and("options." + key).is(value));
+        return criteria;
+    }
+
+    /**
+     * arrayFilter cho $[id]; options rỗng -> chỉ variant không có option nào ({} / null)
+     */
+    public static Criteria arrayFilter(String id, Map<String, String> options) {
+        if (options.isEmpty()) {
+            return Criteria.where(id + ".options").in(new Document(), null);
+        }
+        Criteria criteria = new Criteria();
+        options.forEach((key, value) -> criteria.and(id + ".options." + key).is(value));
+        return criteria;
+    }
+
+    private static Map<String, String> optionsOf(Variant variant) {
+        return variant.options() == null ? Map.of() : variant.options();
+    }
+}
@@ -0,0 +1,154 @@
+package iuh.fit.se.service.impl;
+
+import iuh.fit.se.dto.request.ReserveStockRequest;
+import iuh.fit.se.entity.Product;
+import iuh.fit.se.entity.StockReservation;
+import iuh.fit.se.entity.records.Variant;
+import iuh.fit.se.exception.AppException;
+import iuh.fit.se.exception.ErrorCode;
+import iuh.fit.se.repository.ProductRepository;
+import iuh.fit.se.repository.StockReservationRepository;
+import iuh.fit.se.service.InventoryAlertService;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * reserveStock: đặt chỗ từng sản phẩm bằng findAndModify có điều kiện, hoàn lại (compensate) khi giỏ thất bại
+ */
+@ExtendWith(MockitoExtension.class)
+class StockReservationServiceImplTest {
+
+    private static final Map<String, String> RED = Map.of("Color", "Red");
+
+    @Mock
+    StockReservationRepository reservationRepository;
+    @Mock
+    ProductRepository productRepository;
+    @Mock
+    MongoTemplate mongoTemplate;
+    @Mock
+    InventoryAlertService inventoryAlertService;
+    @Mock
+    HotStockLedger hotStockLedger;
+    @Mock
+    ProductStockIndexer productStockIndexer;
+    @Mock
+    ApplicationEventPublisher eventPublisher;
+
+    StockReservationServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        service = new StockReservationServiceImpl(reservationRepository, productRepository, mongoTemplate,
+                inventoryAlertService, hotStockLedger, productStockIndexer, eventPublisher);
+        ReflectionTestUtils.setField(service, "reserveMaxAttempts", 3);
+        ReflectionTestUtils.setField(service, "reserveRetryBackoffMs", 0L);
+    }
+
+    @Test
+    void partialFailureCompensatesReservedProducts() {
+        when(productRepository.findById("p1")).thenReturn(Optional.of(product("p1", 10)));
+        when(productRepository.findById("p2")).thenReturn(Optional.of(product("p2", 1)));
+        // p1 trừ được, p2 không khớp (thiếu hàng), rồi lệnh hoàn kho của p1
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(Product.class)))
+                .thenReturn(product("p1", 8), null, product("p1", 10));
+
+        assertThatThrownBy(() -> service.reserveStock(request(item("p1", 2), item("p2", 3))))
+                .isInstanceOf(AppException.class)
+                .extracting(e -> ((AppException) e).getErrorCode())
+                .isEqualTo(ErrorCode.INSUFFICIENT_STOCK);
+
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, times(3)).findAndModify(any(Query.class), updates.capture(),
+                any(FindAndModifyOptions.class), eq(Product.class));
+        Document restore = (Document) updates.getAllValues().get(2).getUpdateObject().get("$inc");
+        assertThat(restore.get("variants.$[v0].quantity")).isEqualTo(2);
+        assertThat(restore.get("variants.$[r0].reserved")).isEqualTo(-2);
+        verify(reservationRepository, never()).save(any());
+    }
+
+    @Test
+    void lostRaceIsRetried() {
+        when(productRepository.findById("p1")).thenReturn(Optional.of(product("p1", 10)));
+        // Lần đầu đua với lệnh khác (không khớp dù còn đủ hàng), lần sau trừ được
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(Product.class)))
+                .thenReturn(null, product("p1", 8));
+        when(reservationRepository.save(any(StockReservation.class))).thenAnswer(invocation -> {
+            StockReservation reservation = invocation.getArgument(0);
+            reservation.setId("r1");
+            return reservation;
+        });
+
+        StockReservation saved = service.reserveStock(request(item("p1", 2)));
+
+        assertThat(saved.getId()).isEqualTo("r1");
+        assertThat(saved.getStatus()).isEqualTo(StockReservation.Status.PENDING);
+        verify(mongoTemplate, times(2)).findAndModify(any(Query.class), any(Update.class),
+                any(FindAndModifyOptions.class), eq(Product.class));
+    }
+
+    @Test
+    void insufficientStockFailsFastWithoutRetry() {
+        when(productRepository.findById("p1")).thenReturn(Optional.of(product("p1", 1)));
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(Product.class)))
+                .thenReturn(null);
+
+        assertThatThrownBy(() -> service.reserveStock(request(item("p1", 2))))
+                .isInstanceOf(AppException.class)
+                .extracting(e -> ((AppException) e).getErrorCode())
+                .isEqualTo(ErrorCode.INSUFFICIENT_STOCK);
+
+        verify(mongoTemplate, times(1)).findAndModify(any(Query.class), any(Update.class),
+                any(FindAndModifyOptions.class), eq(Product.class));
+        verify(reservationRepository, never()).save(any());
+    }
+
+    private static Product product(String id, int quantity) {
+        return Product.builder()
+                .id(id)
+                .variants(List.of(Variant.builder().options(RED).quantity(quantity).reserved(0).build()))
+                .build();
+    }
+
+    private static ReserveStockRequest.ReservationItem item(String productId, int quantity) {
+        return ReserveStockRequest.ReservationItem.builder()
+                .productId(productId)
+                .options(RED)
+                .quantity(quantity)
+                .build();
+    }
+
+    private static ReserveStockRequest request(ReserveStockRequest.ReservationItem... items) {
+        return ReserveStockRequest.builder()
+                .userId("u1")
+                .items(List.of(items))
+                .build();
+    }
+}